@@ -0,0 +1,47 @@
+package com.agrofarm.backend.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.agrofarm.backend.AiChat.ChatMessage;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+// Записанные ответы agromonitoring/OpenAI и реальный диалог из src/jmh/resources/fixtures
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    static byte[] bytes(String name) {
+        try (InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name)) {
+            if (in == null) {
+                throw new IllegalStateException("Нет фикстуры " + name);
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // История из turns пар вопрос/ответ: записанный диалог повторяется по кругу
+    static List<ChatMessage> history(int turns) {
+        List<ChatMessage> recorded = new ArrayList<>();
+        try {
+            for (JsonNode message : new ObjectMapper().readTree(bytes("chat_history.json"))) {
+                recorded.add(new ChatMessage(message.get("role").asText(), message.get("content").asText()));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        List<ChatMessage> history = new ArrayList<>(turns * 2);
+        for (int i = 0; history.size() < turns * 2; i++) {
+            history.add(recorded.get(i % recorded.size()));
+        }
+        return history;
+    }
+}
@@ -0,0 +1,97 @@
+package com.agrofarm.backend.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.agrofarm.backend.AiChat.ChatMessage;
+import com.agrofarm.backend.AiChat.PromptBudget;
+import com.agrofarm.backend.AiChat.PromptBudget.Prompt;
+import com.agrofarm.backend.AiChat.TokenCounter;
+import com.agrofarm.backend.dto.AgroSnapshot;
+import com.agrofarm.backend.dto.AgroTrend;
+import com.agrofarm.backend.dto.Vegetation;
+import com.agrofarm.backend.timeseries.SeriesStats;
+
+// Сборка запроса к chat/completions: системный промпт и массив messages с историей сессии.
+// Стоимость растёт с длиной истории — Session.turns задаёт число пар вопрос/ответ.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PromptBuildingBenchmark {
+
+    private static final String POLYGON_NAME = "Поле северное";
+    private static final String POLYGON_ID = "665a1f3e2b7c8a0001d4e201";
+    private static final String USER_MESSAGE = "Что делать с полем на этой неделе?";
+
+    private OpenAiService openAiService;
+    private PromptBudget promptBudget;
+    private AgroSnapshot snapshot;
+    private AgroTrend trend;
+    private String systemPrompt;
+
+    @Setup
+    public void setUp() throws IOException {
+        promptBudget = new PromptBudget(new TokenCounter("gpt-4"), 8192, 1024, 1500, 1000, 300);
+        openAiService = new OpenAiService();
+        ReflectionTestUtils.setField(openAiService, "model", "gpt-4");
+        ReflectionTestUtils.setField(openAiService, "promptBudget", promptBudget);
+
+        snapshot = new AgroSnapshot(
+                UpstreamJsonParser.parseSoil(new ByteArrayInputStream(Fixtures.bytes("soil.json"))),
+                UpstreamJsonParser.parseWeather(new ByteArrayInputStream(Fixtures.bytes("weather.json"))));
+        // Недельная динамика в масштабе реальных рядов: почва дважды в сутки, погода раз в 10 минут
+        long weekAgo = snapshot.getSoil().getDt() - 7 * 86_400;
+        trend = new AgroTrend(7,
+                new SeriesStats(14, 0.180, 0.241, 0.214, weekAgo, 0.241, snapshot.getSoil().getDt(), 0.213, -0.0041),
+                new SeriesStats(14, 285.1, 291.4, 288.2, weekAgo, 286.0, snapshot.getSoil().getDt(), 291.4, 0.62),
+                new SeriesStats(1008, 281.3, 301.9, 291.0, weekAgo, 288.4, snapshot.getWeather().getDt(), 296.7, 0.35),
+                new SeriesStats(1008, 31, 94, 62, weekAgo, 71, snapshot.getWeather().getDt(), 58, -1.8));
+        systemPrompt = OpenAiService.agroSystemPrompt(POLYGON_NAME, POLYGON_ID, snapshot, trend, Vegetation.EMPTY);
+    }
+
+    // Отдельное состояние, чтобы параметр turns не размножал замеры systemPrompt
+    @State(Scope.Benchmark)
+    public static class Session {
+
+        @Param({"10", "100", "1000"})
+        private int turns;
+
+        private List<ChatMessage> history;
+
+        @Setup
+        public void setUp() {
+            history = Fixtures.history(turns);
+        }
+    }
+
+    @Benchmark
+    public String systemPrompt() {
+        return OpenAiService.agroSystemPrompt(POLYGON_NAME, POLYGON_ID, snapshot, trend, Vegetation.EMPTY);
+    }
+
+    // Бюджет промпта, дерево JSON и его сериализация в тело запроса — так, как это происходит перед вызовом OpenAI.
+    // Число токенов сообщений истории кэшируется после первого вызова, как и в живой сессии.
+    @Benchmark
+    public String chatRequestBody(Session session) {
+        Prompt prompt = promptBudget.fit(systemPrompt, session.history, USER_MESSAGE);
+        return openAiService.buildChatRequest(prompt).toString();
+    }
+}
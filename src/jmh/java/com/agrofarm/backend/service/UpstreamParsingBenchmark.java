@@ -0,0 +1,87 @@
+package com.agrofarm.backend.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.agrofarm.backend.dto.ChatCompletion;
+import com.agrofarm.backend.dto.Polygon;
+import com.agrofarm.backend.dto.SoilData;
+import com.agrofarm.backend.dto.WeatherData;
+
+// Путь ответа upstream до текста промпта: разбор тела и форматирование в строку для модели
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UpstreamParsingBenchmark {
+
+    private byte[] soilJson;
+    private byte[] weatherJson;
+    private byte[] polygonsJson;
+    private byte[] completionJson;
+
+    private SoilData soil;
+    private WeatherData weather;
+
+    @Setup
+    public void setUp() throws IOException {
+        soilJson = Fixtures.bytes("soil.json");
+        weatherJson = Fixtures.bytes("weather.json");
+        polygonsJson = Fixtures.bytes("polygons.json");
+        completionJson = Fixtures.bytes("completion.json");
+
+        soil = UpstreamJsonParser.parseSoil(new ByteArrayInputStream(soilJson));
+        weather = UpstreamJsonParser.parseWeather(new ByteArrayInputStream(weatherJson));
+    }
+
+    @Benchmark
+    public SoilData parseSoil() throws IOException {
+        return UpstreamJsonParser.parseSoil(new ByteArrayInputStream(soilJson));
+    }
+
+    @Benchmark
+    public WeatherData parseWeather() throws IOException {
+        return UpstreamJsonParser.parseWeather(new ByteArrayInputStream(weatherJson));
+    }
+
+    @Benchmark
+    public List<Polygon> parsePolygons() throws IOException {
+        return UpstreamJsonParser.parsePolygons(new ByteArrayInputStream(polygonsJson));
+    }
+
+    @Benchmark
+    public ChatCompletion parseCompletion() throws IOException {
+        return UpstreamJsonParser.parseCompletion(new ByteArrayInputStream(completionJson));
+    }
+
+    @Benchmark
+    public String formatSoil() {
+        return soil.toPromptString();
+    }
+
+    @Benchmark
+    public String formatWeather() {
+        return weather.toPromptString();
+    }
+
+    // Полный путь почвы: тело ответа -> SoilData -> строка промпта
+    @Benchmark
+    public String soilRoundTrip() throws IOException {
+        return UpstreamJsonParser.parseSoil(new ByteArrayInputStream(soilJson)).toPromptString();
+    }
+}
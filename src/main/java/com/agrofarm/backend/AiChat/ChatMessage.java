@@ -3,6 +3,9 @@ package com.agrofarm.backend.AiChat;
 public class ChatMessage { 
     private String role; // system, user, assistant 
     private String content; 
+
+    // Число токенов content, считается TokenCounter один раз на сообщение; -1 — ещё не считали
+    int tokens = -1;
  
     public ChatMessage(String role, String content) { 
         this.role = role; 
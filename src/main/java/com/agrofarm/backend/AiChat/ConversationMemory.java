@@ -0,0 +1,275 @@
+package com.agrofarm.backend.AiChat;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+// История диалогов по сессиям.
+// На каждую сессию — скользящее окно в пределах бюджета токенов (старые пары вопрос/ответ вытесняются),
+// простаивающие сессии удаляются, при превышении лимита сессий вытесняется самая давно использованная.
+//
+// Память — кэш перед ConversationStore: каждое чтение сверяет версию сессии в хранилище и перечитывает
+// её, если сессию дописал другой узел; запись условная по версии и при конфликте повторяется поверх
+// свежего состояния. Вытеснение из памяти хранилище не трогает — сессия переживает рестарт.
+// Ошибки хранилища не ломают чат: сессия продолжает жить в памяти узла, в лог пишется предупреждение.
+@Component
+public class ConversationMemory implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(ConversationMemory.class);
+
+    private static final int APPEND_ATTEMPTS = 3;
+    // Хранилище не ответило — сверять версию не с чем
+    private static final long UNKNOWN_VERSION = -2;
+
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    private final ConversationStore store;
+    private final TokenCounter tokenCounter;
+    private final int maxSessions;
+    private final long idleMillis;
+    private final int tokenBudget;
+
+    public ConversationMemory(ConversationStore store, TokenCounter tokenCounter,
+                              @Value("${ai.sessions.max:10000}") int maxSessions,
+                              @Value("${ai.sessions.idle-minutes:60}") long idleMinutes,
+                              @Value("${ai.sessions.token-budget:3000}") int tokenBudget) {
+        this.store = store;
+        this.tokenCounter = tokenCounter;
+        this.maxSessions = maxSessions;
+        this.idleMillis = TimeUnit.MINUTES.toMillis(idleMinutes);
+        this.tokenBudget = tokenBudget;
+    }
+
+    // Копия текущего окна истории — её можно спокойно читать, пока другие потоки дописывают сессию
+    public List<ChatMessage> history(String sessionId) {
+        long stored = storedVersion(sessionId);
+        List<ChatMessage> history;
+        while (true) {
+            Session session = sessions.get(sessionId);
+            if (session == null) {
+                if (stored == ConversationStore.NO_SESSION) {
+                    return List.of();
+                }
+                session = sessions.computeIfAbsent(sessionId, k -> new Session());
+            }
+            synchronized (session) {
+                if (session.evicted) {
+                    continue;
+                }
+                if (stored != UNKNOWN_VERSION && stored != session.version) {
+                    reload(sessionId, session);
+                }
+                session.touch();
+                history = new ArrayList<>(session.messages);
+            }
+            break;
+        }
+
+        if (sessions.size() > maxSessions) {
+            evictLeastRecentlyUsed();
+        }
+        return history;
+    }
+
+    // Вопрос и ответ добавляются вместе, чтобы в окне не оставалось вопросов без ответа
+    public void append(String sessionId, ChatMessage userMessage, ChatMessage assistantMessage) {
+        List<ChatMessage> added = List.of(userMessage, assistantMessage);
+        int addedTokens = tokenCounter.count(userMessage) + tokenCounter.count(assistantMessage);
+        while (true) {
+            Session session = sessions.computeIfAbsent(sessionId, k -> new Session());
+            synchronized (session) {
+                if (session.evicted) {
+                    continue;
+                }
+                int drop = session.dropCount(addedTokens, tokenBudget, tokenCounter);
+                for (int attempt = 1; attempt <= APPEND_ATTEMPTS; attempt++) {
+                    long version = persist(sessionId, session.version, added, drop);
+                    if (version != ConversationStore.CONFLICT) {
+                        if (version != UNKNOWN_VERSION) {
+                            session.version = version;
+                        }
+                        break;
+                    }
+                    // Сессию только что дописал другой узел — окно пересчитывается поверх его записи
+                    reload(sessionId, session);
+                    drop = session.dropCount(addedTokens, tokenBudget, tokenCounter);
+                    if (attempt == APPEND_ATTEMPTS) {
+                        log.warn("Сессия {} не сохранена: версия в хранилище меняется быстрее записи", sessionId);
+                    }
+                }
+                for (ChatMessage message : added) {
+                    session.add(message, tokenCounter.count(message));
+                }
+                session.dropOldest(drop, tokenCounter);
+                session.touch();
+            }
+            break;
+        }
+
+        if (sessions.size() > maxSessions) {
+            evictLeastRecentlyUsed();
+        }
+    }
+
+    public void clear(String sessionId) {
+        Session session = sessions.get(sessionId);
+        if (session != null) {
+            evict(sessionId, session);
+        }
+        try {
+            store.delete(sessionId);
+        } catch (IOException e) {
+            log.warn("Не удалось удалить сессию {} из хранилища: {}", sessionId, e.getMessage());
+        }
+    }
+
+    public int sessionCount() {
+        return sessions.size();
+    }
+
+    // Суммарный размер всех окон в токенах
+    public long totalTokens() {
+        long total = 0;
+        for (Session session : sessions.values()) {
+            total += session.tokens;
+        }
+        return total;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("ai.sessions.active", this, ConversationMemory::sessionCount)
+                .description("Сессии диалога в памяти")
+                .register(registry);
+        Gauge.builder("ai.sessions.tokens", this, ConversationMemory::totalTokens)
+                .description("Суммарный размер окон истории, токены")
+                .register(registry);
+    }
+
+    @Scheduled(fixedDelayString = "${ai.sessions.sweep-interval-ms:60000}")
+    public void evictIdle() {
+        long threshold = System.currentTimeMillis() - idleMillis;
+        for (Map.Entry<String, Session> entry : sessions.entrySet()) {
+            if (entry.getValue().lastAccess < threshold) {
+                evict(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void evictLeastRecentlyUsed() {
+        while (sessions.size() > maxSessions) {
+            String oldestId = null;
+            Session oldest = null;
+            for (Map.Entry<String, Session> entry : sessions.entrySet()) {
+                if (oldest == null || entry.getValue().lastAccess < oldest.lastAccess) {
+                    oldestId = entry.getKey();
+                    oldest = entry.getValue();
+                }
+            }
+            if (oldest == null) {
+                return;
+            }
+            evict(oldestId, oldest);
+        }
+    }
+
+    private long storedVersion(String sessionId) {
+        try {
+            return store.version(sessionId);
+        } catch (IOException e) {
+            log.warn("Хранилище истории недоступно, сессия {} отдаётся из памяти: {}", sessionId, e.getMessage());
+            return UNKNOWN_VERSION;
+        }
+    }
+
+    private long persist(String sessionId, long expectedVersion, List<ChatMessage> added, int drop) {
+        try {
+            return store.append(sessionId, expectedVersion, added, drop);
+        } catch (IOException e) {
+            log.warn("Не удалось сохранить сессию {}: {}", sessionId, e.getMessage());
+            return UNKNOWN_VERSION;
+        }
+    }
+
+    private void reload(String sessionId, Session session) {
+        try {
+            ConversationStore.Stored stored = store.load(sessionId);
+            session.replace(stored.messages(), tokenCounter);
+            session.version = stored.version();
+        } catch (IOException e) {
+            log.warn("Не удалось прочитать сессию {} из хранилища: {}", sessionId, e.getMessage());
+        }
+    }
+
+    private void evict(String sessionId, Session session) {
+        synchronized (session) {
+            if (sessions.remove(sessionId, session)) {
+                session.evicted = true;
+            }
+        }
+    }
+
+    private static final class Session {
+        private final ArrayDeque<ChatMessage> messages = new ArrayDeque<>();
+        private volatile int tokens;
+        private volatile long lastAccess = System.currentTimeMillis();
+        private boolean evicted;
+        // Версия в хранилище, с которой совпадает окно в памяти
+        private long version = ConversationStore.NO_SESSION;
+
+        private void add(ChatMessage message, int messageTokens) {
+            messages.addLast(message);
+            tokens += messageTokens;
+        }
+
+        // Сколько самых старых сообщений вытеснить после добавления пары: парами, последнюю пару оставляем всегда.
+        // Счётчик берёт число токенов из кэша сообщения, повторного токенайзинга нет
+        private int dropCount(int addedTokens, int budget, TokenCounter tokenCounter) {
+            int total = tokens + addedTokens;
+            int remaining = messages.size() + 2;
+            int drop = 0;
+            Iterator<ChatMessage> it = messages.iterator();
+            while (total > budget && remaining > 2) {
+                for (int i = 0; i < 2 && it.hasNext(); i++) {
+                    total -= tokenCounter.count(it.next());
+                    remaining--;
+                    drop++;
+                }
+            }
+            return drop;
+        }
+
+        private void dropOldest(int count, TokenCounter tokenCounter) {
+            for (int i = 0; i < count && !messages.isEmpty(); i++) {
+                tokens -= tokenCounter.count(messages.removeFirst());
+            }
+        }
+
+        private void replace(List<ChatMessage> stored, TokenCounter tokenCounter) {
+            messages.clear();
+            tokens = 0;
+            for (ChatMessage message : stored) {
+                add(message, tokenCounter.count(message));
+            }
+        }
+
+        private void touch() {
+            lastAccess = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.agrofarm.backend.AiChat;
+
+import java.io.IOException;
+import java.util.List;
+
+// Долговременное хранилище окон истории по сессиям, общее для всех узлов.
+// ConversationMemory держит перед ним кэш в памяти и сверяет версию при каждом чтении:
+// запись с другого узла меняет версию, и кэш перечитывает сессию.
+//
+// Версия — непрозрачное число, растущее с каждой записью; NO_SESSION — сессии нет.
+// Запись условная: если версия в хранилище уже не та, что видел вызывающий, ничего не пишется.
+public interface ConversationStore {
+
+    long NO_SESSION = 0;
+    long CONFLICT = -1;
+
+    Stored load(String sessionId) throws IOException;
+
+    long version(String sessionId) throws IOException;
+
+    // Дописать сообщения и затем отбросить dropOldest самых старых сообщений окна.
+    // Возвращает новую версию или CONFLICT, если в хранилище версия отличается от expectedVersion.
+    long append(String sessionId, long expectedVersion, List<ChatMessage> messages, int dropOldest) throws IOException;
+
+    void delete(String sessionId) throws IOException;
+
+    record Stored(List<ChatMessage> messages, long version) {
+
+        public static final Stored EMPTY = new Stored(List.of(), NO_SESSION);
+    }
+}
@@ -0,0 +1,461 @@
+package com.agrofarm.backend.AiChat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+
+// Файловое хранилище истории: на сессию один append-only файл <dir>/<xx>/<sessionId>.conv,
+// xx — шард по хэшу id, чтобы каталоги не разрастались. Чтение сессии — один небольшой файл целиком.
+//
+// Формат: заголовок 24 байта (magic, версия формата, поколение, флаг «запечатан»), затем кадры
+// [длина int][crc32 int][записи]. Записи: сообщение (роль, текст UTF-8) и «отбросить N старых».
+// Один вызов append — один кадр, так что оборванная при падении запись отбрасывается по CRC целиком.
+//
+// Каталог может лежать на общем для узлов томе: каждая операция идёт под эксклюзивной блокировкой
+// файла (FileLock), запись условная по версии. Компакция переписывает файл без отброшенных сообщений
+// во временный, запечатывает старый и атомарно подменяет его; писатель, открывший запечатанный файл,
+// открывает его заново. force() на каждую запись не вызывается — сброс на диск оставлен ОС.
+//
+// Версия — поколение и размер файла. Поколение берётся по часам (секунды от 2024-01-01) и внутри
+// процесса строго растёт, поэтому сессия, удалённая и начатая заново, не получит версию прежнего файла,
+// и узел с закэшированной старой версией перечитает её.
+public class FileConversationStore implements ConversationStore {
+
+    private static final Logger log = LoggerFactory.getLogger(FileConversationStore.class);
+
+    private static final int MAGIC = 0x41474356; // "AGCV"
+    private static final int FORMAT = 1;
+    private static final int HEADER_SIZE = 24;
+    private static final int GENERATION_OFFSET = 8;
+    private static final int SEALED_OFFSET = 16;
+    private static final int FRAME_HEADER = 8;
+
+    private static final byte RECORD_MESSAGE = 1;
+    private static final byte RECORD_DROP = 2;
+    private static final String[] ROLES = {"user", "assistant", "system"};
+
+    private static final String SUFFIX = ".conv";
+    private static final Pattern SAFE_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+    private static final int REOPEN_ATTEMPTS = 10;
+    private static final long ORPHAN_TMP_MILLIS = 3_600_000;
+    private static final long GENERATION_EPOCH_MILLIS = 1_704_067_200_000L; // 2024-01-01T00:00:00Z
+    private static final int SIZE_BITS = 31;
+
+    private final Path dir;
+    private final long retentionMillis;
+
+    // FileLock не защищает от потоков своей же JVM — их разводят полосы
+    private final Object[] stripes = new Object[64];
+    // Сессии с отброшенными сообщениями, ждущие компакции
+    private final Set<Path> dirty = ConcurrentHashMap.newKeySet();
+    // Последнее выданное поколение: новые файлы и компакции в пределах одной секунды его не повторят
+    private final AtomicLong lastGeneration = new AtomicLong();
+
+    public FileConversationStore(Path dir, long retentionMillis) {
+        this.dir = dir;
+        this.retentionMillis = retentionMillis;
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Object();
+        }
+    }
+
+    @Override
+    public Stored load(String sessionId) throws IOException {
+        Path path = path(sessionId);
+        synchronized (stripe(path)) {
+            try (Locked file = open(path, false)) {
+                if (file == null) {
+                    return Stored.EMPTY;
+                }
+                Replay replay = replay(file.channel);
+                if (replay.validEnd < file.channel.size()) {
+                    log.warn("Отброшен оборванный хвост истории {}: {} байт", path, file.channel.size() - replay.validEnd);
+                    file.channel.truncate(replay.validEnd);
+                }
+                if (replay.dropped > 0) {
+                    dirty.add(path);
+                }
+                return new Stored(replay.messages, version(file.generation, replay.validEnd));
+            }
+        }
+    }
+
+    // Без блокировки: достаточно заголовка и размера. Устаревшая версия безопасна —
+    // условная запись её отклонит, и кэш перечитает сессию.
+    @Override
+    public long version(String sessionId) throws IOException {
+        try (FileChannel channel = FileChannel.open(path(sessionId), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                return NO_SESSION;
+            }
+            ByteBuffer header = readHeader(channel);
+            return version(header.getLong(GENERATION_OFFSET), size);
+        } catch (NoSuchFileException e) {
+            return NO_SESSION;
+        }
+    }
+
+    @Override
+    public long append(String sessionId, long expectedVersion, List<ChatMessage> messages, int dropOldest) throws IOException {
+        Path path = path(sessionId);
+        Files.createDirectories(path.getParent());
+        synchronized (stripe(path)) {
+            try (Locked file = open(path, true)) {
+                long size = file.channel.size();
+                boolean fresh = expectedVersion == NO_SESSION && size == HEADER_SIZE;
+                if (!fresh && version(file.generation, size) != expectedVersion) {
+                    return CONFLICT;
+                }
+                ByteBuffer frame = encodeFrame(messages, dropOldest);
+                long end = size + frame.remaining();
+                if (end > Integer.MAX_VALUE) {
+                    throw new IOException("Файл истории больше 2 ГБ");
+                }
+                writeFully(file.channel, frame, size);
+                if (dropOldest > 0) {
+                    dirty.add(path);
+                }
+                return version(file.generation, end);
+            }
+        }
+    }
+
+    @Override
+    public void delete(String sessionId) throws IOException {
+        delete(path(sessionId));
+    }
+
+    // Компакция сессий с отброшенными сообщениями и удаление сессий, не менявшихся дольше retention
+    @Scheduled(initialDelayString = "${ai.store.maintenance-interval-ms:600000}",
+               fixedDelayString = "${ai.store.maintenance-interval-ms:600000}")
+    public void maintain() {
+        for (Path path : List.copyOf(dirty)) {
+            try {
+                compact(path);
+            } catch (IOException e) {
+                log.warn("Не удалось сжать историю {}: {}", path, e.getMessage());
+            }
+        }
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        try (Stream<Path> files = Files.walk(dir, 2)) {
+            for (Path path : (Iterable<Path>) files::iterator) {
+                String name = path.getFileName().toString();
+                if (name.endsWith(SUFFIX) && age(path, now) > retentionMillis) {
+                    delete(path);
+                } else if (name.endsWith(".tmp") && age(path, now) > ORPHAN_TMP_MILLIS) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Не удалось обойти историю в {}: {}", dir, e.getMessage());
+        }
+    }
+
+    // Переписать файл только с живыми сообщениями; возвращает, сколько байт освобождено
+    long compact(Path path) throws IOException {
+        synchronized (stripe(path)) {
+            try (Locked file = open(path, false)) {
+                dirty.remove(path);
+                if (file == null) {
+                    return 0;
+                }
+                long size = file.channel.size();
+                Replay replay = replay(file.channel);
+                if (replay.dropped == 0 && replay.validEnd == size) {
+                    return 0;
+                }
+
+                Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+                ByteBuffer frame = encodeFrame(replay.messages, 0);
+                try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    writeFully(out, header(nextGeneration(file.generation + 1)), 0);
+                    if (!replay.messages.isEmpty()) {
+                        writeFully(out, frame, HEADER_SIZE);
+                    }
+                    out.force(true);
+                }
+                seal(file.channel);
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                long compacted = HEADER_SIZE + (replay.messages.isEmpty() ? 0 : frame.capacity());
+                return size - compacted;
+            }
+        }
+    }
+
+    private void delete(Path path) throws IOException {
+        synchronized (stripe(path)) {
+            try (Locked file = open(path, false)) {
+                dirty.remove(path);
+                if (file != null) {
+                    seal(file.channel);
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+    }
+
+    // Файл сессии под эксклюзивной блокировкой; null — файла нет и create=false.
+    // Запечатанный файл уже подменён компакцией или удалён — открываем путь заново.
+    private Locked open(Path path, boolean create) throws IOException {
+        for (int attempt = 0; attempt < REOPEN_ATTEMPTS; attempt++) {
+            FileChannel channel;
+            try {
+                channel = create
+                        ? FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                        : FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            } catch (NoSuchFileException e) {
+                return null;
+            }
+            try {
+                channel.lock();
+                long size = channel.size();
+                if (size == 0) {
+                    if (!create) {
+                        channel.close();
+                        return null;
+                    }
+                    long generation = nextGeneration(1);
+                    writeFully(channel, header(generation), 0);
+                    return new Locked(channel, generation);
+                }
+                if (size < HEADER_SIZE) {
+                    throw new IOException("Повреждённый файл истории " + path + ": нет заголовка");
+                }
+                ByteBuffer header = readHeader(channel);
+                if (header.getInt(0) != MAGIC || header.getInt(4) != FORMAT) {
+                    throw new IOException("Файл " + path + " не является историей нужного формата");
+                }
+                if (header.get(SEALED_OFFSET) == 0) {
+                    return new Locked(channel, header.getLong(GENERATION_OFFSET));
+                }
+                channel.close();
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+        throw new IOException("Файл истории " + path + " постоянно подменяется, попыток: " + REOPEN_ATTEMPTS);
+    }
+
+    private static Replay replay(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Файл истории больше 2 ГБ");
+        }
+        ByteBuffer data = ByteBuffer.allocate((int) (size - HEADER_SIZE));
+        while (data.hasRemaining() && channel.read(data, HEADER_SIZE + data.position()) >= 0) {
+            // читаем до конца
+        }
+        data.flip();
+
+        Replay replay = new Replay();
+        replay.validEnd = HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        while (data.remaining() >= FRAME_HEADER) {
+            int length = data.getInt();
+            int checksum = data.getInt();
+            if (length < 0 || length > data.remaining()) {
+                break;
+            }
+            ByteBuffer payload = data.slice();
+            payload.limit(length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            decode(payload, replay);
+            data.position(data.position() + length);
+            replay.validEnd += FRAME_HEADER + length;
+        }
+        return replay;
+    }
+
+    private static void decode(ByteBuffer payload, Replay replay) throws IOException {
+        try {
+            while (payload.hasRemaining()) {
+                byte type = payload.get();
+                if (type == RECORD_MESSAGE) {
+                    byte roleCode = payload.get();
+                    String role = roleCode >= 0 && roleCode < ROLES.length ? ROLES[roleCode] : readString(payload);
+                    replay.messages.add(new ChatMessage(role, readString(payload)));
+                } else if (type == RECORD_DROP) {
+                    int count = Math.min(payload.getInt(), replay.messages.size());
+                    replay.messages.subList(0, count).clear();
+                    replay.dropped += count;
+                } else {
+                    throw new IOException("Неизвестная запись истории: " + type);
+                }
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Повреждённая запись истории", e);
+        }
+    }
+
+    private static ByteBuffer encodeFrame(List<ChatMessage> messages, int dropOldest) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (ChatMessage message : messages) {
+            out.writeByte(RECORD_MESSAGE);
+            int roleCode = roleCode(message.getRole());
+            out.writeByte(roleCode);
+            if (roleCode < 0) {
+                writeString(out, message.getRole());
+            }
+            writeString(out, message.getContent());
+        }
+        if (dropOldest > 0) {
+            out.writeByte(RECORD_DROP);
+            out.writeInt(dropOldest);
+        }
+        byte[] payload = bytes.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER + payload.length);
+        frame.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+        return frame.flip();
+    }
+
+    private static int roleCode(String role) {
+        for (int i = 0; i < ROLES.length; i++) {
+            if (ROLES[i].equals(role)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // null кодируется длиной -1
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] utf8 = new byte[length];
+        in.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    private static ByteBuffer header(long generation) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(0, MAGIC);
+        header.putInt(4, FORMAT);
+        header.putLong(GENERATION_OFFSET, generation);
+        header.put(SEALED_OFFSET, (byte) 0);
+        return header;
+    }
+
+    private static ByteBuffer readHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+            // заголовок короткий, обычно одно чтение
+        }
+        return header;
+    }
+
+    private static void seal(FileChannel channel) throws IOException {
+        writeFully(channel, ByteBuffer.wrap(new byte[] {1}), SEALED_OFFSET);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            offset += channel.write(buffer, offset);
+        }
+    }
+
+    // Поколение меняется при создании файла и компакции, размер — при каждой записи (файл меньше 2 ГБ)
+    private static long version(long generation, long size) {
+        return (generation << SIZE_BITS) | size;
+    }
+
+    // Секунды от GENERATION_EPOCH, но не меньше atLeast и больше всех поколений, выданных этим процессом
+    private long nextGeneration(long atLeast) {
+        long now = (System.currentTimeMillis() - GENERATION_EPOCH_MILLIS) / 1000;
+        return lastGeneration.accumulateAndGet(Math.max(now, atLeast), (last, next) -> Math.max(last + 1, next));
+    }
+
+    private static long age(Path path, long now) throws IOException {
+        FileTime modified = Files.getLastModifiedTime(path);
+        return now - modified.toMillis();
+    }
+
+    // Небезопасные для имени файла id (произвольный текст) заменяются SHA-256
+    private Path path(String sessionId) {
+        String name = SAFE_ID.matcher(sessionId).matches() ? sessionId : "x" + sha256(sessionId);
+        String shard = String.format("%02x", Math.floorMod(sessionId.hashCode(), 256));
+        return dir.resolve(shard).resolve(name + SUFFIX);
+    }
+
+    private static String sha256(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Object stripe(Path path) {
+        return stripes[Math.floorMod(path.hashCode(), stripes.length)];
+    }
+
+    private static final class Replay {
+        private final List<ChatMessage> messages = new ArrayList<>();
+        private int dropped;
+        private long validEnd;
+    }
+
+    // Закрытие канала снимает и блокировку
+    private record Locked(FileChannel channel, long generation) implements Closeable {
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
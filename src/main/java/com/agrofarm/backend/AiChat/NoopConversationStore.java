@@ -0,0 +1,26 @@
+package com.agrofarm.backend.AiChat;
+
+import java.util.List;
+
+// Без долговременного хранения: история живёт только в ConversationMemory текущего узла
+public class NoopConversationStore implements ConversationStore {
+
+    @Override
+    public Stored load(String sessionId) {
+        return Stored.EMPTY;
+    }
+
+    @Override
+    public long version(String sessionId) {
+        return NO_SESSION;
+    }
+
+    @Override
+    public long append(String sessionId, long expectedVersion, List<ChatMessage> messages, int dropOldest) {
+        return NO_SESSION;
+    }
+
+    @Override
+    public void delete(String sessionId) {
+    }
+}
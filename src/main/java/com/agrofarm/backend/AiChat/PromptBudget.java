@@ -0,0 +1,97 @@
+package com.agrofarm.backend.AiChat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+// Укладывает запрос к chat/completions в окно контекста модели с запасом под ответ.
+// Порядок ужатия: системный промпт и вопрос режутся до своих лимитов, старые сообщения истории
+// сокращаются до historyMessageMaxTokens, затем история заполняется с конца, пока влезает.
+// Так размер запроса на длинной сессии перестаёт расти с каждым ходом.
+@Component
+public class PromptBudget {
+
+    private final TokenCounter tokenCounter;
+    private final int contextTokens;
+    private final int completionTokens;
+    private final int systemMaxTokens;
+    private final int userMaxTokens;
+    private final int historyMessageMaxTokens;
+
+    public PromptBudget(TokenCounter tokenCounter,
+                        @Value("${ai.prompt.context-tokens:8192}") int contextTokens,
+                        @Value("${ai.prompt.completion-tokens:1024}") int completionTokens,
+                        @Value("${ai.prompt.system-max-tokens:1500}") int systemMaxTokens,
+                        @Value("${ai.prompt.user-max-tokens:1000}") int userMaxTokens,
+                        @Value("${ai.prompt.history-message-max-tokens:300}") int historyMessageMaxTokens) {
+        this.tokenCounter = tokenCounter;
+        this.contextTokens = contextTokens;
+        this.completionTokens = completionTokens;
+        this.systemMaxTokens = systemMaxTokens;
+        this.userMaxTokens = userMaxTokens;
+        this.historyMessageMaxTokens = historyMessageMaxTokens;
+    }
+
+    // Сколько токенов оставлено под ответ — уходит в max_tokens запроса
+    public int completionTokens() {
+        return completionTokens;
+    }
+
+    public boolean fitsSystem(String systemPrompt) {
+        return tokenCounter.count(systemPrompt) <= systemMaxTokens;
+    }
+
+    public Prompt fit(String systemPrompt, List<ChatMessage> history, String userMessage) {
+        String system = tokenCounter.truncate(systemPrompt, systemMaxTokens);
+        String user = tokenCounter.truncate(userMessage, userMaxTokens);
+        boolean truncated = !system.equals(systemPrompt) || !user.equals(userMessage);
+
+        int used = TokenCounter.REPLY_PRIMING
+                + tokenCounter.count(system) + TokenCounter.MESSAGE_OVERHEAD
+                + tokenCounter.count(user) + TokenCounter.MESSAGE_OVERHEAD;
+        int available = contextTokens - completionTokens - used;
+
+        // С конца парами вопрос/ответ; последняя пара остаётся дословной, если влезает
+        List<ChatMessage> kept = new ArrayList<>();
+        int compressed = 0;
+        int end = history.size();
+        while (end > 0) {
+            int start = Math.max(0, end - 2);
+            boolean latest = end == history.size();
+            List<ChatMessage> pair = new ArrayList<>(2);
+            int cost = 0;
+            int shortened = 0;
+            for (int i = start; i < end; i++) {
+                ChatMessage message = history.get(i);
+                if (!latest && tokenCounter.count(message) - TokenCounter.MESSAGE_OVERHEAD > historyMessageMaxTokens) {
+                    message = new ChatMessage(message.getRole(),
+                            tokenCounter.truncate(message.getContent(), historyMessageMaxTokens));
+                    shortened++;
+                }
+                pair.add(message);
+                cost += tokenCounter.count(message);
+            }
+            if (cost > available) {
+                break;
+            }
+            available -= cost;
+            used += cost;
+            compressed += shortened;
+            for (int i = pair.size() - 1; i >= 0; i--) {
+                kept.add(pair.get(i));
+            }
+            end = start;
+        }
+        Collections.reverse(kept);
+
+        return new Prompt(system, kept, user, used, end, compressed, truncated);
+    }
+
+    // tokens — оценка размера запроса; droppedMessages — сколько старых сообщений истории не вошло
+    public record Prompt(String systemPrompt, List<ChatMessage> history, String userMessage,
+                         int tokens, int droppedMessages, int compressedMessages, boolean truncated) {
+    }
+}
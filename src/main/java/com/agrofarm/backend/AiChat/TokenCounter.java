@@ -0,0 +1,62 @@
+package com.agrofarm.backend.AiChat;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingRegistry;
+import com.knuddels.jtokkit.api.EncodingResult;
+import com.knuddels.jtokkit.api.EncodingType;
+
+// Подсчёт токенов тем же BPE-словарём, что и у модели OpenAI (jtokkit, без сети).
+// Спецтокены вроде <|endoftext|> в тексте пользователя считаются обычным текстом.
+@Component
+public class TokenCounter {
+
+    // Служебные токены формата chat на каждое сообщение (роль и разделители)
+    public static final int MESSAGE_OVERHEAD = 4;
+    // Затравка ответа ассистента, которую OpenAI добавляет к каждому запросу
+    public static final int REPLY_PRIMING = 3;
+
+    private final Encoding encoding;
+
+    // Незнакомая модель — словарь новых моделей OpenAI; для бюджета точность ±несколько процентов достаточна
+    public TokenCounter(@Value("${openai.model:gpt-4}") String model) {
+        EncodingRegistry registry = Encodings.newLazyEncodingRegistry();
+        this.encoding = registry.getEncodingForModel(model)
+                .orElseGet(() -> registry.getEncoding(EncodingType.O200K_BASE));
+    }
+
+    public int count(String text) {
+        return text == null || text.isEmpty() ? 0 : encoding.countTokensOrdinary(text);
+    }
+
+    // Размер сообщения в запросе; число токенов содержимого кэшируется в самом сообщении
+    public int count(ChatMessage message) {
+        int tokens = message.tokens;
+        if (tokens < 0) {
+            tokens = count(message.getContent());
+            message.tokens = tokens;
+        }
+        return tokens + MESSAGE_OVERHEAD;
+    }
+
+    // Первые maxTokens токенов текста с многоточием в конце; текст короче лимита возвращается как есть
+    public String truncate(String text, int maxTokens) {
+        if (text == null || maxTokens <= 0) {
+            return "";
+        }
+        EncodingResult result = encoding.encodeOrdinary(text, maxTokens);
+        if (!result.isTruncated()) {
+            return text;
+        }
+        String head = encoding.decode(result.getTokens());
+        // Граница токена может прийтись на середину многобайтного символа
+        int end = head.length();
+        while (end > 0 && head.charAt(end - 1) == '�') {
+            end--;
+        }
+        return head.substring(0, end) + "…";
+    }
+}
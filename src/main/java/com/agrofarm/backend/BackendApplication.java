@@ -1,15 +1,16 @@
 package com.agrofarm.backend;
 
+import java.util.List;
 import java.util.Scanner;
 
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Profile;
 
+import com.agrofarm.backend.dto.Polygon;
 import com.agrofarm.backend.service.AgroMonitoringService;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 @SpringBootApplication
 public class BackendApplication {
@@ -18,18 +19,17 @@ public class BackendApplication {
     SpringApplication.run(BackendApplication.class, args);
   }
 
+  // Отладочный диалог в консоли: выбор полигона и вывод агроданных.
+  // Только с профилем cli-debug — в контейнере ввода нет, и ожидание Scanner держало бы старт.
   @Bean
+  @Profile("cli-debug")
     public CommandLineRunner run(AgroMonitoringService agroService) {
         return args -> {
             try {
-                // Получаем список полигонов в JSON
-                String polygonsJson = agroService.listPolygons();
+                // Получаем список полигонов
+                List<Polygon> polygons = agroService.listPolygons();
 
-                // Парсим JSON
-                ObjectMapper mapper = new ObjectMapper();
-                JsonNode root = mapper.readTree(polygonsJson);
-
-                if (root.isEmpty()) {
+                if (polygons.isEmpty()) {
                     System.out.println("Список полигонов пуст.");
                     return;
                 }
@@ -37,9 +37,9 @@ public class BackendApplication {
                 // Выводим список полигонов с индексами
                 System.out.println("Список полигонов:");
                 int index = 1;
-                for (JsonNode polygon : root) {
-                    String id = polygon.path("id").asText();
-                    String name = polygon.path("name").asText();
+                for (Polygon polygon : polygons) {
+                    String id = polygon.getId();
+                    String name = polygon.getName();
                     System.out.println(index + ". Название: " + name + ", ID: " + id);
                     index++;
                 }
@@ -49,14 +49,14 @@ public class BackendApplication {
                 Scanner scanner = new Scanner(System.in);
                 int choice = scanner.nextInt();
 
-                if (choice < 1 || choice > root.size()) {
+                if (choice < 1 || choice > polygons.size()) {
                     System.out.println("Неверный номер полигона.");
                     return;
                 }
 
                 // Берем polygonId выбранного полигона
-                JsonNode selectedPolygon = root.get(choice - 1);
-                String polygonId = selectedPolygon.path("id").asText();
+                Polygon selectedPolygon = polygons.get(choice - 1);
+                String polygonId = selectedPolygon.getId();
 
                 // Получаем агроданные по polygonId
                 String result = agroService.getAgroDataSafe(polygonId);
@@ -0,0 +1,108 @@
+package com.agrofarm.backend.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Небольшой LRU-кэш с ограниченным размером и сроком жизни у каждой записи.
+// Просроченная запись не удаляется сразу: get() считает её промахом,
+// а getStale() может вернуть её как запасной вариант, пока её не вытеснит LRU.
+public class BoundedTtlCache<K, V> {
+
+    private final int maxSize;
+    private final LinkedHashMap<K, Entry<V>> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public BoundedTtlCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                if (size() > BoundedTtlCache.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // Свежее значение или null (промах)
+    public V get(K key) {
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            Entry<V> entry = entries.get(key);
+            if (entry != null && entry.expiresAt > now) {
+                hits.incrementAndGet();
+                return entry.value;
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    // Значение даже после истечения срока; статистику не трогает
+    public V getStale(K key) {
+        synchronized (entries) {
+            Entry<V> entry = entries.get(key);
+            return entry != null ? entry.value : null;
+        }
+    }
+
+    // Момент истечения записи в мс или 0, если записи нет
+    public long expiresAt(K key) {
+        synchronized (entries) {
+            Entry<V> entry = entries.get(key);
+            return entry != null ? entry.expiresAt : 0;
+        }
+    }
+
+    public void put(K key, V value, long expiresAtMillis) {
+        synchronized (entries) {
+            entries.put(key, new Entry<>(value, expiresAtMillis));
+        }
+    }
+
+    public void invalidate(K key) {
+        synchronized (entries) {
+            entries.remove(key);
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public long evictions() {
+        return evictions.get();
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long expiresAt;
+
+        private Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
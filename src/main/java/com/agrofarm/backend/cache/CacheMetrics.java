@@ -0,0 +1,41 @@
+package com.agrofarm.backend.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+// Метрики BoundedTtlCache в тех же именах, что у кэшей Spring/Caffeine:
+// cache.size, cache.gets{result=hit|miss}, cache.evictions — с тегом cache
+public final class CacheMetrics {
+
+    private CacheMetrics() {
+    }
+
+    public static void bind(MeterRegistry registry, String name, BoundedTtlCache<?, ?> cache) {
+        Gauge.builder("cache.size", cache, BoundedTtlCache::size)
+                .tag("cache", name)
+                .register(registry);
+        FunctionCounter.builder("cache.gets", cache, BoundedTtlCache::hits)
+                .tag("cache", name).tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("cache.gets", cache, BoundedTtlCache::misses)
+                .tag("cache", name).tag("result", "miss")
+                .register(registry);
+        FunctionCounter.builder("cache.evictions", cache, BoundedTtlCache::evictions)
+                .tag("cache", name)
+                .register(registry);
+    }
+
+    // Те же счётчики картой — для эндпоинтов статистики кэшей
+    public static Map<String, Object> stats(BoundedTtlCache<?, ?> cache) {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", cache.size());
+        stats.put("hits", cache.hits());
+        stats.put("misses", cache.misses());
+        stats.put("evictions", cache.evictions());
+        return stats;
+    }
+}
@@ -0,0 +1,51 @@
+package com.agrofarm.backend.config;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class AsyncConfig {
+
+    // Потоки, которые пишут клиенту длинные потоковые ответы: SSE чата и NDJSON пакетного анализа
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService streamingResponseExecutor(@Value("${ai.stream.threads:64}") int threads) {
+        return Executors.newFixedThreadPool(threads, namedDaemonThreads("streaming-response-"));
+    }
+
+    // Общий пул пакетного анализа полигонов: его размер и есть лимит параллелизма
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService batchAnalysisExecutor(@Value("${ai.batch.concurrency:8}") int concurrency) {
+        return Executors.newFixedThreadPool(concurrency, namedDaemonThreads("batch-analysis-"));
+    }
+
+    // Подготовка запросов к OpenAI и запись ответов: история диалога из хранилища, подсчёт токенов, ряды истории.
+    // Эта работа блокирует, и в потоках OkHttp или таймерах CompletableFuture ей не место.
+    // Очередь ограничена: при переполнении запрос сразу получает ошибку, а не копится в памяти
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService promptExecutor(@Value("${ai.prompt.threads:8}") int threads,
+                                          @Value("${ai.prompt.queue:1000}") int queue) {
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queue),
+                namedDaemonThreads("prompt-"), (r, executor) -> {
+                    throw new RejectedExecutionException("Сервер перегружен: очередь подготовки запросов заполнена");
+                });
+    }
+
+    private static ThreadFactory namedDaemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
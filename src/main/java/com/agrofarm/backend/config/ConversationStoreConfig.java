@@ -0,0 +1,30 @@
+package com.agrofarm.backend.config;
+
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.agrofarm.backend.AiChat.ConversationStore;
+import com.agrofarm.backend.AiChat.FileConversationStore;
+import com.agrofarm.backend.AiChat.NoopConversationStore;
+
+@Configuration
+public class ConversationStoreConfig {
+
+    // file — каталог с историей сессий; на общем томе он общий для всех узлов и sticky-сессии не нужны.
+    // memory — история только в памяти узла, как раньше.
+    // Тип выбирается при старте, а не условием на бин, чтобы переключался и в AOT-сборке.
+    @Bean
+    public ConversationStore conversationStore(@Value("${ai.store.type:file}") String type,
+                                               @Value("${ai.store.dir:data/conversations}") String dir,
+                                               @Value("${ai.store.retention-hours:168}") long retentionHours) {
+        return switch (type) {
+            case "file" -> new FileConversationStore(Paths.get(dir), TimeUnit.HOURS.toMillis(retentionHours));
+            case "memory" -> new NoopConversationStore();
+            default -> throw new IllegalArgumentException("Неизвестный ai.store.type: " + type);
+        };
+    }
+}
@@ -0,0 +1,189 @@
+package com.agrofarm.backend.config;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import com.agrofarm.backend.upstream.AdaptiveConcurrencyLimiter;
+import com.agrofarm.backend.upstream.CircuitBreaker;
+import com.agrofarm.backend.upstream.Priority;
+import com.agrofarm.backend.upstream.QuotaScheduler;
+import com.agrofarm.backend.upstream.UpstreamGuard;
+import com.agrofarm.backend.upstream.UpstreamMetricsInterceptor;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+// Один HTTP-стек на все внешние API.
+// Базовый клиент владеет пулом соединений и диспетчером, клиенты для агро и OpenAI
+// получены через newBuilder() — они делят пул и лимиты, но имеют свои таймауты.
+// gzip OkHttp включает сам: добавляет Accept-Encoding и прозрачно распаковывает ответ.
+@Configuration
+public class UpstreamHttpConfig {
+
+    @Bean
+    public OkHttpClient upstreamHttpClient(MeterRegistry meterRegistry,
+                                           @Value("${upstream.pool.max-idle:32}") int maxIdle,
+                                           @Value("${upstream.pool.keep-alive-seconds:300}") long keepAliveSeconds,
+                                           @Value("${upstream.dispatcher.max-requests:256}") int maxRequests,
+                                           @Value("${upstream.dispatcher.max-requests-per-host:64}") int maxRequestsPerHost) {
+        // Лимиты диспетчера действуют на асинхронные вызовы (enqueue)
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(maxRequests);
+        dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+
+        ConnectionPool connectionPool = new ConnectionPool(maxIdle, keepAliveSeconds, TimeUnit.SECONDS);
+        Gauge.builder("upstream.pool.connections", connectionPool, ConnectionPool::connectionCount)
+                .description("Открытые соединения в общем пуле").register(meterRegistry);
+        Gauge.builder("upstream.pool.idle", connectionPool, ConnectionPool::idleConnectionCount)
+                .description("Простаивающие соединения в общем пуле").register(meterRegistry);
+        Gauge.builder("upstream.dispatcher.queued", dispatcher, Dispatcher::queuedCallsCount)
+                .description("Асинхронные вызовы в очереди диспетчера").register(meterRegistry);
+        Gauge.builder("upstream.dispatcher.running", dispatcher, Dispatcher::runningCallsCount)
+                .description("Выполняющиеся вызовы диспетчера").register(meterRegistry);
+
+        return new OkHttpClient.Builder()
+                .connectionPool(connectionPool)
+                .dispatcher(dispatcher)
+                .protocols(List.of(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .retryOnConnectionFailure(true)
+                .build();
+    }
+
+    // Предохранитель и адаптивный лимит на каждый upstream: upstream.<имя>.breaker.* и upstream.<имя>.limit.*
+    @Bean
+    public UpstreamGuard agroUpstreamGuard(Environment env, MeterRegistry meterRegistry) {
+        return upstreamGuard("agro", env, meterRegistry, 5000);
+    }
+
+    @Bean
+    public UpstreamGuard openAiUpstreamGuard(Environment env, MeterRegistry meterRegistry) {
+        return upstreamGuard("openai", env, meterRegistry, 30000);
+    }
+
+    // Квота запросов в минуту на каждый upstream: upstream.<имя>.quota.*; per-minute=0 — без квоты
+    @Bean(destroyMethod = "close")
+    public QuotaScheduler agroQuotaScheduler(Environment env, MeterRegistry meterRegistry) {
+        return quotaScheduler("agro", env, meterRegistry, 60);
+    }
+
+    @Bean(destroyMethod = "close")
+    public QuotaScheduler openAiQuotaScheduler(Environment env, MeterRegistry meterRegistry) {
+        return quotaScheduler("openai", env, meterRegistry, 500);
+    }
+
+    @Bean
+    public OkHttpClient agroHttpClient(@Qualifier("upstreamHttpClient") OkHttpClient upstreamHttpClient,
+                                       @Qualifier("agroUpstreamGuard") UpstreamGuard guard,
+                                       @Qualifier("agroQuotaScheduler") QuotaScheduler quota,
+                                       MeterRegistry meterRegistry,
+                                       @Value("${upstream.agro.connect-timeout-ms:5000}") long connectTimeoutMs,
+                                       @Value("${upstream.agro.read-timeout-ms:20000}") long readTimeoutMs) {
+        return upstreamHttpClient.newBuilder()
+                .connectTimeout(connectTimeoutMs, TimeUnit.MILLISECONDS)
+                .writeTimeout(connectTimeoutMs, TimeUnit.MILLISECONDS)
+                .readTimeout(readTimeoutMs, TimeUnit.MILLISECONDS)
+                .addInterceptor(new UpstreamMetricsInterceptor(meterRegistry, "agro"))
+                .addInterceptor(quota)
+                .addInterceptor(guard)
+                .build();
+    }
+
+    @Bean
+    public OkHttpClient openAiHttpClient(@Qualifier("upstreamHttpClient") OkHttpClient upstreamHttpClient,
+                                         @Qualifier("openAiUpstreamGuard") UpstreamGuard guard,
+                                         @Qualifier("openAiQuotaScheduler") QuotaScheduler quota,
+                                         MeterRegistry meterRegistry,
+                                         @Value("${upstream.openai.connect-timeout-ms:10000}") long connectTimeoutMs,
+                                         @Value("${upstream.openai.read-timeout-ms:60000}") long readTimeoutMs) {
+        return upstreamHttpClient.newBuilder()
+                .connectTimeout(connectTimeoutMs, TimeUnit.MILLISECONDS)
+                .writeTimeout(connectTimeoutMs, TimeUnit.MILLISECONDS)
+                .readTimeout(readTimeoutMs, TimeUnit.MILLISECONDS)
+                .addInterceptor(new UpstreamMetricsInterceptor(meterRegistry, "openai"))
+                .addInterceptor(quota)
+                .addInterceptor(guard)
+                .build();
+    }
+
+    private static UpstreamGuard upstreamGuard(String upstream, Environment env, MeterRegistry meterRegistry,
+                                               long defaultSlowCallMs) {
+        String prefix = "upstream." + upstream + ".";
+        CircuitBreaker breaker = new CircuitBreaker(
+                env.getProperty(prefix + "breaker.window", Integer.class, 20),
+                env.getProperty(prefix + "breaker.min-calls", Integer.class, 10),
+                env.getProperty(prefix + "breaker.failure-rate", Double.class, 0.5),
+                env.getProperty(prefix + "breaker.open-ms", Long.class, 30000L),
+                env.getProperty(prefix + "breaker.half-open-calls", Integer.class, 3));
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(
+                env.getProperty(prefix + "limit.initial", Integer.class, 16),
+                env.getProperty(prefix + "limit.min", Integer.class, 2),
+                env.getProperty(prefix + "limit.max", Integer.class, 64),
+                env.getProperty(prefix + "limit.backoff", Double.class, 0.9),
+                env.getProperty(prefix + "limit.slow-call-ms", Long.class, defaultSlowCallMs));
+
+        Gauge.builder("upstream.breaker.open", breaker, b -> b.state() == CircuitBreaker.State.CLOSED ? 0 : 1)
+                .description("1, если предохранитель разомкнут или в пробном режиме").tag("upstream", upstream)
+                .register(meterRegistry);
+        Gauge.builder("upstream.concurrency.limit", limiter, AdaptiveConcurrencyLimiter::limit)
+                .description("Текущий адаптивный лимит параллельных вызовов").tag("upstream", upstream)
+                .register(meterRegistry);
+        Gauge.builder("upstream.concurrency.in-flight", limiter, AdaptiveConcurrencyLimiter::inFlight)
+                .tag("upstream", upstream).register(meterRegistry);
+        FunctionCounter.builder("upstream.concurrency.rejected", limiter, AdaptiveConcurrencyLimiter::rejected)
+                .tag("upstream", upstream).register(meterRegistry);
+        return new UpstreamGuard(upstream, breaker, limiter);
+    }
+
+    private static QuotaScheduler quotaScheduler(String upstream, Environment env, MeterRegistry meterRegistry,
+                                                 double defaultPerMinute) {
+        String prefix = "upstream." + upstream + ".quota.";
+        // По умолчанию пользователь ждёт недолго, пакетный анализ — дольше всех, прогрев может и пропустить цикл
+        int[] defaultQueued = {200, 1000, 500};
+        long[] defaultWaitMs = {10000, 120000, 60000};
+        int[] maxQueued = new int[defaultQueued.length];
+        long[] maxWaitMs = new long[defaultWaitMs.length];
+        for (Priority priority : Priority.values()) {
+            String name = priority.name().toLowerCase();
+            maxQueued[priority.ordinal()] = env.getProperty(prefix + "queue." + name, Integer.class,
+                    defaultQueued[priority.ordinal()]);
+            maxWaitMs[priority.ordinal()] = env.getProperty(prefix + "max-wait-ms." + name, Long.class,
+                    defaultWaitMs[priority.ordinal()]);
+        }
+        QuotaScheduler scheduler = new QuotaScheduler(upstream,
+                env.getProperty(prefix + "per-minute", Double.class, defaultPerMinute),
+                env.getProperty(prefix + "burst", Integer.class, 10),
+                maxQueued, maxWaitMs,
+                env.getProperty(prefix + "retry-after-default-ms", Long.class, 20000L),
+                env.getProperty(prefix + "retries", Integer.class, 2));
+
+        for (Priority priority : Priority.values()) {
+            String tag = priority.name().toLowerCase();
+            Gauge.builder("upstream.quota.queued", scheduler, s -> s.queued(priority))
+                    .description("Запросы, ждущие токен квоты").tag("upstream", upstream).tag("priority", tag)
+                    .register(meterRegistry);
+            FunctionCounter.builder("upstream.quota.granted", scheduler, s -> s.granted(priority))
+                    .tag("upstream", upstream).tag("priority", tag).register(meterRegistry);
+            FunctionCounter.builder("upstream.quota.rejected", scheduler, s -> s.rejected(priority))
+                    .description("Отказы по переполнению очереди или сроку ожидания")
+                    .tag("upstream", upstream).tag("priority", tag).register(meterRegistry);
+        }
+        Gauge.builder("upstream.quota.tokens", scheduler, QuotaScheduler::availableTokens)
+                .tag("upstream", upstream).register(meterRegistry);
+        FunctionCounter.builder("upstream.quota.rate-limited", scheduler, QuotaScheduler::rateLimited)
+                .description("Ответы 429/503 с Retry-After").tag("upstream", upstream).register(meterRegistry);
+        FunctionCounter.builder("upstream.quota.retried", scheduler, QuotaScheduler::retried)
+                .tag("upstream", upstream).register(meterRegistry);
+        return scheduler;
+    }
+}
@@ -1,31 +1,90 @@
 package com.agrofarm.backend.controller;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
 
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import com.agrofarm.backend.dto.BatchAnalysisRequest;
 import com.agrofarm.backend.dto.ChatRequest;
-import com.agrofarm.backend.service.AgroMonitoringService;
+import com.agrofarm.backend.dto.Polygon;
+import com.agrofarm.backend.geo.SpatialIndex;
+import com.agrofarm.backend.service.AdviceCache;
+import com.agrofarm.backend.service.AgroPrefetcher;
+import com.agrofarm.backend.service.AgroSnapshotCache;
 import com.agrofarm.backend.service.OpenAiService;
+import com.agrofarm.backend.service.PolygonAnalysisService;
+import com.agrofarm.backend.service.PolygonCatalog;
+import com.agrofarm.backend.upstream.Futures;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import okhttp3.Call;
 
 @RestController
 @RequestMapping("/api/ai")
 @CrossOrigin(origins = "http://localhost:5173")  // или адрес твоего фронтенда
 public class AiController {
 
-    private final AgroMonitoringService agroMonitoringService;
+    private static final MediaType NDJSON = new MediaType("application", "x-ndjson", StandardCharsets.UTF_8);
+
     private final OpenAiService openAiService;
+    private final PolygonAnalysisService polygonAnalysisService;
+    private final PolygonCatalog polygonCatalog;
+    private final AgroSnapshotCache agroSnapshotCache;
+    private final AgroPrefetcher agroPrefetcher;
+    private final AdviceCache adviceCache;
+    private final ExecutorService streamingResponseExecutor;
+
+    @Value("${ai.stream.timeout-ms:180000}")
+    private long streamTimeoutMs;
+
+    @Value("${ai.request.timeout-ms:120000}")
+    private long requestTimeoutMs;
+
+    @Value("${ai.batch.timeout-ms:3600000}")
+    private long batchTimeoutMs;
+
+    @Value("${agro.polygons.nearby.max-radius-km:500}")
+    private double nearbyMaxRadiusKm;
 
-    public AiController(AgroMonitoringService agroMonitoringService, OpenAiService openAiService) {
-        this.agroMonitoringService = agroMonitoringService;
+    @Value("${agro.polygons.nearby.max-results:100}")
+    private int nearbyMaxResults;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    public AiController(OpenAiService openAiService, PolygonAnalysisService polygonAnalysisService,
+                        PolygonCatalog polygonCatalog, AgroSnapshotCache agroSnapshotCache,
+                        AgroPrefetcher agroPrefetcher, AdviceCache adviceCache,
+                        @Qualifier("streamingResponseExecutor") ExecutorService streamingResponseExecutor) {
         this.openAiService = openAiService;
+        this.polygonAnalysisService = polygonAnalysisService;
+        this.polygonCatalog = polygonCatalog;
+        this.agroSnapshotCache = agroSnapshotCache;
+        this.agroPrefetcher = agroPrefetcher;
+        this.adviceCache = adviceCache;
+        this.streamingResponseExecutor = streamingResponseExecutor;
     }
 
     @GetMapping("/polygons")
@@ -33,29 +92,215 @@ public class AiController {
         return openAiService.getPolygonsMap();
     }
 
-    @PostMapping("/chat")
-    public Map<String, String> chat(@RequestBody ChatRequest request) {
-        try {
-            String answer = openAiService.askWithSoilAndWeather(request.getPolygonId(), request.getMessage());
-            return Map.of("advice", answer);
-        } catch (Exception e) {
-            return Map.of("error", "Ошибка: " + e.getMessage());
+    // Сбросить кэш полигонов и сразу загрузить свежий список (например, после создания поля)
+    @PostMapping("/polygons/refresh")
+    public Map<String, String> refreshPolygons() throws IOException {
+        polygonCatalog.invalidate();
+        return polygonCatalog.refresh();
+    }
+
+    // В каком поле точка: поиск по индексу каталога, без запроса к agromonitoring
+    @GetMapping("/polygons/locate")
+    public ResponseEntity<?> locatePolygon(@RequestParam double lat, @RequestParam double lon) throws IOException {
+        if (!validPoint(lat, lon)) {
+            return ResponseEntity.badRequest().body(Map.of("error", "lat must be in [-90, 90], lon in [-180, 180]"));
+        }
+        List<Map<String, Object>> polygons = new ArrayList<>();
+        for (Polygon polygon : polygonCatalog.locate(lat, lon)) {
+            polygons.add(describe(polygon));
         }
+        return ResponseEntity.ok(Map.of("polygons", polygons));
+    }
+
+    // Поля в радиусе radiusKm от точки, ближайшие первыми
+    @GetMapping("/polygons/nearby")
+    public ResponseEntity<?> nearbyPolygons(@RequestParam double lat, @RequestParam double lon,
+                                            @RequestParam double radiusKm,
+                                            @RequestParam(required = false) Integer limit) throws IOException {
+        if (!validPoint(lat, lon)) {
+            return ResponseEntity.badRequest().body(Map.of("error", "lat must be in [-90, 90], lon in [-180, 180]"));
+        }
+        if (!(radiusKm >= 0 && radiusKm <= nearbyMaxRadiusKm)) {
+            return ResponseEntity.badRequest().body(Map.of("error", "radiusKm must be in [0, " + nearbyMaxRadiusKm + "]"));
+        }
+        int max = limit == null || limit <= 0 ? nearbyMaxResults : Math.min(limit, nearbyMaxResults);
+        List<Map<String, Object>> polygons = new ArrayList<>();
+        for (SpatialIndex.Hit<Polygon> hit : polygonCatalog.nearby(lat, lon, radiusKm, max)) {
+            Map<String, Object> item = describe(hit.item());
+            item.put("distanceKm", Math.round(hit.distanceKm() * 1000) / 1000.0);
+            polygons.add(item);
+        }
+        return ResponseEntity.ok(Map.of("polygons", polygons));
+    }
+
+    private static boolean validPoint(double lat, double lon) {
+        return lat >= -90 && lat <= 90 && lon >= -180 && lon <= 180;
+    }
+
+    private static Map<String, Object> describe(Polygon polygon) {
+        Map<String, Object> item = new LinkedHashMap<>();
+        item.put("id", polygon.getId());
+        item.put("name", polygon.getName());
+        item.put("area", polygon.getArea());
+        return item;
+    }
+
+    // Размер и попадания кэша почвы/погоды
+    @GetMapping("/agro-cache/stats")
+    public Map<String, Object> agroCacheStats() {
+        return agroSnapshotCache.stats();
+    }
+
+    // Возраст агроданных по полигонам (от dt upstream) и итог последнего фонового прогрева
+    @GetMapping("/agro-cache/staleness")
+    public Map<String, Object> agroCacheStaleness() throws IOException {
+        return agroPrefetcher.stalenessReport();
+    }
+
+    // Размер и попадания кэша ответов GPT для /polygon-info
+    @GetMapping("/advice-cache/stats")
+    public Map<String, Object> adviceCacheStats() {
+        return adviceCache.stats();
+    }
+
+    // Поток Tomcat освобождается сразу: ответ дописывается из колбэка OkHttp
+    @PostMapping("/chat")
+    public DeferredResult<Map<String, String>> chat(@RequestBody ChatRequest request) {
+        DeferredResult<Map<String, String>> result = new DeferredResult<>(requestTimeoutMs);
+        CompletableFuture<String> answer = openAiService.askWithSoilAndWeatherAsync(request.getPolygonId(), request.getMessage());
+        bind(result, answer);
+        answer.whenComplete((advice, e) -> result.setResult(e == null
+                ? Map.of("advice", advice)
+                : Map.of("error", "Ошибка: " + Futures.unwrap(e).getMessage())));
+        return result;
+    }
+
+    // Тот же чат, но ответ приходит по SSE по мере генерации:
+    // события "token" {"delta": ...}, в конце "done" {"advice": полный ответ} или "error" {"error": ...}
+    @PostMapping(value = "/chat/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter chatStream(@RequestBody ChatRequest request) {
+        SseEmitter emitter = new SseEmitter(streamTimeoutMs);
+        StreamCall openAiCall = new StreamCall();
+        // Таймаут, обрыв соединения и завершение ответа обрывают поток OpenAI и освобождают поток исполнителя
+        emitter.onTimeout(() -> {
+            openAiCall.cancel();
+            emitter.complete();
+        });
+        emitter.onError(e -> openAiCall.cancel());
+        emitter.onCompletion(openAiCall::cancel);
+
+        streamingResponseExecutor.execute(() -> {
+            if (openAiCall.isCancelled()) {
+                return;
+            }
+            try {
+                String answer = openAiService.streamWithSoilAndWeather(request.getPolygonId(), request.getMessage(), delta -> {
+                    try {
+                        emitter.send(SseEmitter.event().name("token").data(Map.of("delta", delta), MediaType.APPLICATION_JSON));
+                    } catch (IOException e) {
+                        // Клиент отключился — прерываем чтение потока OpenAI
+                        throw new UncheckedIOException(e);
+                    }
+                }, openAiCall);
+                emitter.send(SseEmitter.event().name("done").data(Map.of("advice", answer), MediaType.APPLICATION_JSON));
+                emitter.complete();
+            } catch (Exception e) {
+                try {
+                    emitter.send(SseEmitter.event().name("error").data(Map.of("error", "Ошибка: " + e.getMessage()), MediaType.APPLICATION_JSON));
+                    emitter.complete();
+                } catch (Exception ignored) {
+                    emitter.completeWithError(e);
+                }
+            }
+        });
+
+        return emitter;
     }
 
     @PostMapping("/polygon-info")
-    public ResponseEntity<?> getPolygonInfo(@RequestBody Map<String, String> request) throws IOException {
+    public DeferredResult<ResponseEntity<?>> getPolygonInfo(@RequestBody Map<String, String> request) {
+        DeferredResult<ResponseEntity<?>> result = new DeferredResult<>(requestTimeoutMs);
         String polygonId = request.get("polygonId");
         if (polygonId == null || polygonId.isBlank()) {
-            return ResponseEntity.badRequest().body(Map.of("error", "polygonId is required"));
+            result.setResult(ResponseEntity.badRequest().body(Map.of("error", "polygonId is required")));
+            return result;
         }
 
-        String agroData = agroMonitoringService.getAgroDataSafe(polygonId);
+        CompletableFuture<String> analysis = polygonAnalysisService.analyzeAsync(polygonId);
+        bind(result, analysis);
+        analysis.whenComplete((advice, e) -> result.setResult(e == null
+                ? ResponseEntity.ok(Map.of("advice", advice))
+                : ResponseEntity.internalServerError().body(Map.of("error", "Ошибка: " + Futures.unwrap(e).getMessage()))));
+        return result;
+    }
+
+    // Вызов OpenAI потокового чата; отмена до его начала обрывает его сразу при регистрации
+    private static final class StreamCall implements Consumer<Call> {
 
-        String prompt = "Дай агрономический анализ и рекомендации по следующей информации:\n" + agroData;
+        private Call call;
+        private boolean cancelled;
+
+        @Override
+        public void accept(Call call) {
+            synchronized (this) {
+                this.call = call;
+                if (!cancelled) {
+                    return;
+                }
+            }
+            call.cancel();
+        }
+
+        void cancel() {
+            Call current;
+            synchronized (this) {
+                cancelled = true;
+                current = call;
+            }
+            if (current != null) {
+                current.cancel();
+            }
+        }
+
+        synchronized boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    // Таймаут запроса, обрыв соединения клиентом и ошибка записи ответа отменяют future,
+    // а вместе с ним и запросы к upstream, которые ещё в полёте
+    private static <T> void bind(DeferredResult<T> result, CompletableFuture<?> future) {
+        result.onTimeout(() -> {
+            future.cancel(true);
+            result.setErrorResult(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(Map.of("error", "Ошибка: превышено время ожидания ответа")));
+        });
+        result.onError(e -> future.cancel(true));
+        result.onCompletion(() -> future.cancel(true));
+    }
+
+    // Пакетный анализ: {"polygonIds": [...]} или {"all": true}.
+    // Ответ — NDJSON, по строке на полигон по мере готовности, последняя строка — {"done": true, ...}
+    @PostMapping("/polygon-info/batch")
+    public ResponseEntity<?> batchPolygonInfo(@RequestBody BatchAnalysisRequest request) throws IOException {
+        List<String> polygonIds = request.isAll()
+                ? new ArrayList<>(polygonCatalog.getPolygons().keySet())
+                : request.getPolygonIds();
+        if (polygonIds == null || polygonIds.isEmpty()) {
+            return ResponseEntity.badRequest().body(Map.of("error", "polygonIds or all=true is required"));
+        }
 
-        String aiResponse = openAiService.getAgronomicAdvice(prompt);
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(batchTimeoutMs);
+        streamingResponseExecutor.execute(() -> {
+            try {
+                polygonAnalysisService.analyzeAll(polygonIds, result ->
+                        emitter.send(mapper.writeValueAsString(result) + "\n", NDJSON));
+                emitter.complete();
+            } catch (Exception e) {
+                emitter.completeWithError(e);
+            }
+        });
 
-        return ResponseEntity.ok(Map.of("advice", aiResponse));
+        return ResponseEntity.ok().contentType(NDJSON).body(emitter);
     }
 }
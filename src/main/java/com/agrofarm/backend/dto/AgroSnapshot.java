@@ -0,0 +1,59 @@
+package com.agrofarm.backend.dto;
+
+// Почва и погода по полигону, полученные одним параллельным запросом.
+// Любая часть может быть null, если upstream не ответил к дедлайну или вернул ошибку.
+public class AgroSnapshot {
+    private final SoilData soil;
+    private final WeatherData weather;
+
+    public AgroSnapshot(SoilData soil, WeatherData weather) {
+        this.soil = soil;
+        this.weather = weather;
+    }
+
+    public SoilData getSoil() {
+        return soil;
+    }
+
+    public WeatherData getWeather() {
+        return weather;
+    }
+
+    public boolean hasSoil() {
+        return soil != null;
+    }
+
+    public boolean hasWeather() {
+        return weather != null;
+    }
+
+    public boolean isComplete() {
+        return hasSoil() && hasWeather();
+    }
+
+    public String soilPromptString() {
+        return hasSoil() ? soil.toPromptString() : "нет данных";
+    }
+
+    public String weatherPromptString() {
+        return hasWeather() ? weather.toPromptString() : "нет данных";
+    }
+
+    public String toPromptString() {
+        return "Данные почвы: " + soilPromptString() + "\n" +
+               "Данные погоды: " + weatherPromptString();
+    }
+
+    // Значения в той же точности, что и в промпте, но без дат измерений:
+    // снимки, различающиеся только временем обновления, дают одинаковый ключ
+    public String normalizedKey() {
+        String soilKey = hasSoil()
+                ? new SoilData(0, soil.getT0(), soil.getT10(), soil.getMoisture()).toPromptString()
+                : "-";
+        String weatherKey = hasWeather()
+                ? new WeatherData(0, weather.getDescription(), weather.getTemp(), weather.getHumidity(),
+                        weather.getPressure(), weather.getWindSpeed()).toPromptString()
+                : "-";
+        return soilKey + "|" + weatherKey;
+    }
+}
@@ -0,0 +1,79 @@
+package com.agrofarm.backend.dto;
+
+import java.util.Locale;
+
+import com.agrofarm.backend.timeseries.SeriesStats;
+
+// Динамика показателей полигона за последние days суток по локальной истории.
+// Для каждого показателя в промпт идут первое→последнее значение и наклон в сутки.
+public class AgroTrend {
+
+    public static final AgroTrend EMPTY = new AgroTrend(0, SeriesStats.EMPTY, SeriesStats.EMPTY,
+            SeriesStats.EMPTY, SeriesStats.EMPTY);
+
+    private final int days;
+    private final SeriesStats soilMoisture;
+    private final SeriesStats soilT10;
+    private final SeriesStats airTemp;
+    private final SeriesStats airHumidity;
+
+    public AgroTrend(int days, SeriesStats soilMoisture, SeriesStats soilT10, SeriesStats airTemp, SeriesStats airHumidity) {
+        this.days = days;
+        this.soilMoisture = soilMoisture;
+        this.soilT10 = soilT10;
+        this.airTemp = airTemp;
+        this.airHumidity = airHumidity;
+    }
+
+    public int getDays() {
+        return days;
+    }
+
+    public SeriesStats getSoilMoisture() {
+        return soilMoisture;
+    }
+
+    public SeriesStats getSoilT10() {
+        return soilT10;
+    }
+
+    public SeriesStats getAirTemp() {
+        return airTemp;
+    }
+
+    public SeriesStats getAirHumidity() {
+        return airHumidity;
+    }
+
+    public boolean isEmpty() {
+        return soilMoisture.isEmpty() && soilT10.isEmpty() && airTemp.isEmpty() && airHumidity.isEmpty();
+    }
+
+    // Температуры хранятся в K: разность и наклон в K и °C совпадают
+    public String toPromptString() {
+        if (isEmpty()) {
+            return "нет истории";
+        }
+        StringBuilder metrics = new StringBuilder(160);
+        if (soilMoisture.count() > 1) {
+            PromptFormat.append(metrics, "влажность почвы", String.format(Locale.ROOT, "%.3f→%.3f м³/м³ (%+.4f/сут)",
+                    soilMoisture.first(), soilMoisture.last(), soilMoisture.slopePerDay()));
+        }
+        if (soilT10.count() > 1) {
+            PromptFormat.append(metrics, "t почвы на 10 см", PromptFormat.celsius(soilT10.first()) + "→"
+                    + PromptFormat.celsius(soilT10.last()) + String.format(Locale.ROOT, " (%+.1f°C/сут)", soilT10.slopePerDay()));
+        }
+        if (airTemp.count() > 1) {
+            PromptFormat.append(metrics, "t воздуха", "мин " + PromptFormat.celsius(airTemp.min())
+                    + " макс " + PromptFormat.celsius(airTemp.max()) + " средняя " + PromptFormat.celsius(airTemp.mean()));
+        }
+        if (airHumidity.count() > 1) {
+            PromptFormat.append(metrics, "влажность воздуха", String.format(Locale.ROOT, "%d→%d%% (%+.1f%%/сут)",
+                    Math.round(airHumidity.first()), Math.round(airHumidity.last()), airHumidity.slopePerDay()));
+        }
+        if (metrics.length() == 0) {
+            return "мало точек для оценки динамики";
+        }
+        return "за " + days + " сут: " + metrics;
+    }
+}
@@ -0,0 +1,21 @@
+package com.agrofarm.backend.dto;
+
+import java.util.List;
+
+public class BatchAnalysisRequest {
+    private List<String> polygonIds;
+    private boolean all; // true — анализировать все полигоны аккаунта, polygonIds игнорируется
+
+    public List<String> getPolygonIds() {
+        return polygonIds;
+    }
+    public void setPolygonIds(List<String> polygonIds) {
+        this.polygonIds = polygonIds;
+    }
+    public boolean isAll() {
+        return all;
+    }
+    public void setAll(boolean all) {
+        this.all = all;
+    }
+}
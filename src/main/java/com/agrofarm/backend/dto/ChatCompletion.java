@@ -0,0 +1,26 @@
+package com.agrofarm.backend.dto;
+
+// Ответ OpenAI chat/completions (или кусок потока): текст первого варианта и расход токенов из usage
+public class ChatCompletion {
+    private final String content;
+    private final int promptTokens;
+    private final int completionTokens;
+
+    public ChatCompletion(String content, int promptTokens, int completionTokens) {
+        this.content = content;
+        this.promptTokens = promptTokens;
+        this.completionTokens = completionTokens;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public int getPromptTokens() {
+        return promptTokens;
+    }
+
+    public int getCompletionTokens() {
+        return completionTokens;
+    }
+}
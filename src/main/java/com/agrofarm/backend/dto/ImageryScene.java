@@ -0,0 +1,42 @@
+package com.agrofarm.backend.dto;
+
+// Спутниковый снимок полигона из /image/search: дата, спутник, облачность и ссылка на GeoTIFF NDVI.
+// Отсутствующие в ответе числа — NaN (для dt — 0), ссылки — null.
+public class ImageryScene {
+    private final long dt;
+    private final String satellite;
+    private final double cloudPercent;
+    private final double coveragePercent;
+    private final String ndviDataUrl;
+
+    public ImageryScene(long dt, String satellite, double cloudPercent, double coveragePercent, String ndviDataUrl) {
+        this.dt = dt;
+        this.satellite = satellite;
+        this.cloudPercent = cloudPercent;
+        this.coveragePercent = coveragePercent;
+        this.ndviDataUrl = ndviDataUrl;
+    }
+
+    public long getDt() {
+        return dt;
+    }
+
+    public String getSatellite() {
+        return satellite;
+    }
+
+    // Облачность над полигоном, %
+    public double getCloudPercent() {
+        return cloudPercent;
+    }
+
+    // Доля полигона, покрытая снимком, %
+    public double getCoveragePercent() {
+        return coveragePercent;
+    }
+
+    // Значения NDVI в GeoTIFF (data.ndvi); ссылка уже содержит appid
+    public String getNdviDataUrl() {
+        return ndviDataUrl;
+    }
+}
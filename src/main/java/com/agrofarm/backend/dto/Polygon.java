@@ -0,0 +1,62 @@
+package com.agrofarm.backend.dto;
+
+import com.agrofarm.backend.geo.PolygonGeometry;
+
+// Полигон (поле) agromonitoring: только то, что нужно бэкенду
+public class Polygon {
+    private final String id;
+    private final String name;
+    private final double area;
+    private final long createdAt;
+    private final PolygonGeometry geometry;
+    private final double centerLon;
+    private final double centerLat;
+
+    public Polygon(String id, String name, double area, long createdAt) {
+        this(id, name, area, createdAt, null, Double.NaN, Double.NaN);
+    }
+
+    public Polygon(String id, String name, double area, long createdAt,
+                   PolygonGeometry geometry, double centerLon, double centerLat) {
+        this.id = id;
+        this.name = name;
+        this.area = area;
+        this.createdAt = createdAt;
+        this.geometry = geometry;
+        this.centerLon = centerLon;
+        this.centerLat = centerLat;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    // Название; если у полигона его нет — id
+    public String getName() {
+        return name != null ? name : id;
+    }
+
+    // Площадь, га
+    public double getArea() {
+        return area;
+    }
+
+    // Время создания, unix-секунды (0 — неизвестно)
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    // Контур поля из geo_json; null, если API его не прислал или он некорректен
+    public PolygonGeometry getGeometry() {
+        return geometry;
+    }
+
+    // Центр поля, градусы (NaN — неизвестен)
+    public double getCenterLon() {
+        return centerLon;
+    }
+
+    public double getCenterLat() {
+        return centerLat;
+    }
+}
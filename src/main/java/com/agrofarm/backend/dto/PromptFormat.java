@@ -0,0 +1,21 @@
+package com.agrofarm.backend.dto;
+
+import java.util.Locale;
+
+// Общие мелочи компактного форматирования данных для промптов
+final class PromptFormat {
+
+    private PromptFormat() {
+    }
+
+    static void append(StringBuilder sb, String label, String value) {
+        if (sb.length() > 0) {
+            sb.append(", ");
+        }
+        sb.append(label).append(' ').append(value);
+    }
+
+    static String celsius(double kelvin) {
+        return String.format(Locale.ROOT, "%.1f°C", kelvin - 273.15);
+    }
+}
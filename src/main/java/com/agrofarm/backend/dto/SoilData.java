@@ -0,0 +1,49 @@
+package com.agrofarm.backend.dto;
+
+import java.time.Instant;
+import java.util.Locale;
+
+// Почвенные данные agromonitoring (/agro/1.0/soil).
+// Отсутствующие в ответе поля — NaN (для dt — 0).
+public class SoilData {
+    private final long dt;
+    private final double t0;
+    private final double t10;
+    private final double moisture;
+
+    public SoilData(long dt, double t0, double t10, double moisture) {
+        this.dt = dt;
+        this.t0 = t0;
+        this.t10 = t10;
+        this.moisture = moisture;
+    }
+
+    public long getDt() {
+        return dt;
+    }
+
+    // Температура поверхности, K
+    public double getT0() {
+        return t0;
+    }
+
+    // Температура на глубине 10 см, K
+    public double getT10() {
+        return t10;
+    }
+
+    // Влажность почвы, м³/м³
+    public double getMoisture() {
+        return moisture;
+    }
+
+    // Компактная строка для промпта: температуры сразу в °C, без лишних пробелов и JSON-разметки
+    public String toPromptString() {
+        StringBuilder sb = new StringBuilder(96);
+        if (dt > 0) PromptFormat.append(sb, "дата", Instant.ofEpochSecond(dt).toString());
+        if (!Double.isNaN(t0)) PromptFormat.append(sb, "t поверхности", PromptFormat.celsius(t0));
+        if (!Double.isNaN(t10)) PromptFormat.append(sb, "t на 10 см", PromptFormat.celsius(t10));
+        if (!Double.isNaN(moisture)) PromptFormat.append(sb, "влажность", String.format(Locale.ROOT, "%.3f м³/м³", moisture));
+        return sb.length() == 0 ? "нет данных" : sb.toString();
+    }
+}
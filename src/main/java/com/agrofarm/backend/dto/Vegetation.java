@@ -0,0 +1,73 @@
+package com.agrofarm.backend.dto;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Locale;
+
+import com.agrofarm.backend.imagery.RasterStats;
+
+// Сводка NDVI по последнему пригодному снимку полигона: в промпт идут несколько чисел
+// и доли классов растительности вместо самого растра.
+public class Vegetation {
+
+    public static final Vegetation EMPTY = new Vegetation(0, null, Double.NaN, RasterStats.EMPTY);
+
+    private final long dt;
+    private final String satellite;
+    private final double cloudPercent;
+    private final RasterStats ndvi;
+
+    public Vegetation(long dt, String satellite, double cloudPercent, RasterStats ndvi) {
+        this.dt = dt;
+        this.satellite = satellite;
+        this.cloudPercent = cloudPercent;
+        this.ndvi = ndvi;
+    }
+
+    public long getDt() {
+        return dt;
+    }
+
+    public String getSatellite() {
+        return satellite;
+    }
+
+    public double getCloudPercent() {
+        return cloudPercent;
+    }
+
+    public RasterStats getNdvi() {
+        return ndvi;
+    }
+
+    public boolean isEmpty() {
+        return ndvi.isEmpty();
+    }
+
+    // Классы по NDVI: <0.2 — открытая почва, 0.2–0.4 — редкая, 0.4–0.6 — умеренная, ≥0.6 — густая растительность
+    public String toPromptString() {
+        if (isEmpty()) {
+            return "нет снимков";
+        }
+        StringBuilder sb = new StringBuilder(200);
+        sb.append("NDVI по снимку ").append(Instant.ofEpochSecond(dt).atZone(ZoneOffset.UTC).toLocalDate());
+        if (!Double.isNaN(cloudPercent)) {
+            sb.append(String.format(Locale.ROOT, " (облачность %.0f%%)", cloudPercent));
+        }
+        sb.append(": ");
+        StringBuilder metrics = new StringBuilder(160);
+        PromptFormat.append(metrics, "среднее", String.format(Locale.ROOT, "%.2f±%.2f", ndvi.mean(), ndvi.stdDev()));
+        PromptFormat.append(metrics, "медиана", String.format(Locale.ROOT, "%.2f", ndvi.percentile(0.5)));
+        PromptFormat.append(metrics, "p10–p90", String.format(Locale.ROOT, "%.2f–%.2f",
+                ndvi.percentile(0.1), ndvi.percentile(0.9)));
+        PromptFormat.append(metrics, "доли: почва", percent(ndvi.share(-1, 0.2)));
+        PromptFormat.append(metrics, "редкая", percent(ndvi.share(0.2, 0.4)));
+        PromptFormat.append(metrics, "умеренная", percent(ndvi.share(0.4, 0.6)));
+        PromptFormat.append(metrics, "густая", percent(ndvi.share(0.6, 1.01)));
+        return sb.append(metrics).toString();
+    }
+
+    private static String percent(double share) {
+        return Math.round(share * 100) + "%";
+    }
+}
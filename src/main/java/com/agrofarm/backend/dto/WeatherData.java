@@ -0,0 +1,63 @@
+package com.agrofarm.backend.dto;
+
+import java.time.Instant;
+import java.util.Locale;
+
+// Текущая погода agromonitoring (/agro/1.0/weather).
+// Отсутствующие в ответе поля — NaN (для dt — 0, для description — null).
+public class WeatherData {
+    private final long dt;
+    private final String description;
+    private final double temp;
+    private final double humidity;
+    private final double pressure;
+    private final double windSpeed;
+
+    public WeatherData(long dt, String description, double temp, double humidity, double pressure, double windSpeed) {
+        this.dt = dt;
+        this.description = description;
+        this.temp = temp;
+        this.humidity = humidity;
+        this.pressure = pressure;
+        this.windSpeed = windSpeed;
+    }
+
+    public long getDt() {
+        return dt;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    // Температура воздуха, K
+    public double getTemp() {
+        return temp;
+    }
+
+    // Влажность воздуха, %
+    public double getHumidity() {
+        return humidity;
+    }
+
+    // Давление, гПа
+    public double getPressure() {
+        return pressure;
+    }
+
+    // Скорость ветра, м/с
+    public double getWindSpeed() {
+        return windSpeed;
+    }
+
+    public String toPromptString() {
+        StringBuilder sb = new StringBuilder(128);
+        if (dt > 0) PromptFormat.append(sb, "дата", Instant.ofEpochSecond(dt).toString());
+        if (description != null && !description.isEmpty()) PromptFormat.append(sb, "погода", description);
+        if (!Double.isNaN(temp)) PromptFormat.append(sb, "t воздуха", PromptFormat.celsius(temp));
+        if (!Double.isNaN(humidity)) PromptFormat.append(sb, "влажность", Math.round(humidity) + "%");
+        if (!Double.isNaN(pressure)) PromptFormat.append(sb, "давление", Math.round(pressure) + " гПа");
+        if (!Double.isNaN(windSpeed)) PromptFormat.append(sb, "ветер", String.format(Locale.ROOT, "%.1f м/с", windSpeed));
+        return sb.length() == 0 ? "нет данных" : sb.toString();
+    }
+}
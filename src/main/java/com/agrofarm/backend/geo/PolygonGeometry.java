@@ -0,0 +1,130 @@
+package com.agrofarm.backend.geo;
+
+import java.util.List;
+
+// Геометрия поля из geo_json: один или несколько контуров (MultiPolygon), у контура — внешнее кольцо и дыры.
+// Координаты — долгота/широта WGS84 в градусах; кольцо хранится плоским массивом [lon0, lat0, lon1, lat1, ...].
+// Расстояния считаются в локальной равнопромежуточной проекции вокруг точки запроса:
+// для полей и радиусов в десятки километров погрешность — доли процента.
+public final class PolygonGeometry {
+
+    static final double KM_PER_DEGREE = 6371.0088 * Math.PI / 180;
+
+    private final List<double[][]> parts;
+    private final double minLon;
+    private final double minLat;
+    private final double maxLon;
+    private final double maxLat;
+
+    public PolygonGeometry(List<double[][]> parts) {
+        if (parts.isEmpty()) {
+            throw new IllegalArgumentException("Пустая геометрия");
+        }
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (double[][] rings : parts) {
+            if (rings.length == 0 || rings[0].length < 6) {
+                throw new IllegalArgumentException("У контура нет внешнего кольца");
+            }
+            double[] outer = rings[0];
+            for (int i = 0; i < outer.length; i += 2) {
+                minX = Math.min(minX, outer[i]);
+                maxX = Math.max(maxX, outer[i]);
+                minY = Math.min(minY, outer[i + 1]);
+                maxY = Math.max(maxY, outer[i + 1]);
+            }
+        }
+        this.parts = List.copyOf(parts);
+        this.minLon = minX;
+        this.minLat = minY;
+        this.maxLon = maxX;
+        this.maxLat = maxY;
+    }
+
+    public double minLon() {
+        return minLon;
+    }
+
+    public double minLat() {
+        return minLat;
+    }
+
+    public double maxLon() {
+        return maxLon;
+    }
+
+    public double maxLat() {
+        return maxLat;
+    }
+
+    // Точка внутри внешнего кольца какого-либо контура и вне его дыр; граница считается как придётся
+    public boolean contains(double lon, double lat) {
+        if (lon < minLon || lon > maxLon || lat < minLat || lat > maxLat) {
+            return false;
+        }
+        for (double[][] rings : parts) {
+            if (inRing(rings[0], lon, lat)) {
+                boolean inHole = false;
+                for (int h = 1; h < rings.length && !inHole; h++) {
+                    inHole = inRing(rings[h], lon, lat);
+                }
+                if (!inHole) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Расстояние от точки до поля, км; 0 — точка внутри
+    public double distanceKm(double lon, double lat) {
+        if (contains(lon, lat)) {
+            return 0;
+        }
+        double kx = Math.cos(Math.toRadians(lat)) * KM_PER_DEGREE;
+        double best = Double.POSITIVE_INFINITY;
+        for (double[][] rings : parts) {
+            for (double[] ring : rings) {
+                int n = ring.length;
+                for (int i = 0; i < n; i += 2) {
+                    int j = (i + 2) % n;
+                    double ax = (ring[i] - lon) * kx;
+                    double ay = (ring[i + 1] - lat) * KM_PER_DEGREE;
+                    double bx = (ring[j] - lon) * kx;
+                    double by = (ring[j + 1] - lat) * KM_PER_DEGREE;
+                    best = Math.min(best, distanceToOrigin(ax, ay, bx, by));
+                }
+            }
+        }
+        return best;
+    }
+
+    // Чётно-нечётный луч вправо от точки
+    private static boolean inRing(double[] ring, double x, double y) {
+        boolean inside = false;
+        int n = ring.length;
+        for (int i = 0, j = n - 2; i < n; j = i, i += 2) {
+            double xi = ring[i];
+            double yi = ring[i + 1];
+            double xj = ring[j];
+            double yj = ring[j + 1];
+            if ((yi > y) != (yj > y) && x < (xj - xi) * (y - yi) / (yj - yi) + xi) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    // Расстояние от (0, 0) до отрезка AB на плоскости
+    private static double distanceToOrigin(double ax, double ay, double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, -(ax * dx + ay * dy) / lengthSquared));
+        double px = ax + t * dx;
+        double py = ay + t * dy;
+        return Math.sqrt(px * px + py * py);
+    }
+}
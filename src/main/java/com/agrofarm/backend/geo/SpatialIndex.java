@@ -0,0 +1,210 @@
+package com.agrofarm.backend.geo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+
+// Неизменяемое R-дерево по габаритам полей, упакованное Sort-Tile-Recursive.
+// Строится целиком при каждом обновлении каталога и после этого только читается,
+// поэтому запросы идут без блокировок. Кандидаты из дерева проверяются точной геометрией.
+public final class SpatialIndex<T> {
+
+    private static final int NODE_CAPACITY = 16;
+
+    private final List<T> items;
+    private final List<PolygonGeometry> geometries;
+    // levels[0] — листья (по одному боксу на элемент), последний уровень — корень
+    private final Level[] levels;
+
+    private SpatialIndex(List<T> items, List<PolygonGeometry> geometries, Level[] levels) {
+        this.items = items;
+        this.geometries = geometries;
+        this.levels = levels;
+    }
+
+    // Элементы без геометрии в индекс не попадают
+    public static <T> SpatialIndex<T> build(Collection<T> source, Function<T, PolygonGeometry> geometry) {
+        List<T> items = new ArrayList<>();
+        List<PolygonGeometry> geometries = new ArrayList<>();
+        List<Box> boxes = new ArrayList<>();
+        for (T item : source) {
+            PolygonGeometry g = geometry.apply(item);
+            if (g != null) {
+                int index = items.size();
+                items.add(item);
+                geometries.add(g);
+                boxes.add(new Box(g.minLon(), g.minLat(), g.maxLon(), g.maxLat(), index, index + 1));
+            }
+        }
+        List<Level> levels = new ArrayList<>();
+        if (!boxes.isEmpty()) {
+            sortTiles(boxes);
+            levels.add(new Level(boxes));
+            while (boxes.size() > 1) {
+                boxes = parents(boxes);
+                sortTiles(boxes);
+                levels.add(new Level(boxes));
+            }
+        }
+        return new SpatialIndex<>(List.copyOf(items), List.copyOf(geometries), levels.toArray(new Level[0]));
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    // Поля, внутри которых лежит точка
+    public List<T> containing(double lon, double lat) {
+        List<T> result = new ArrayList<>(1);
+        search(lon, lat, lon, lat, i -> {
+            if (geometries.get(i).contains(lon, lat)) {
+                result.add(items.get(i));
+            }
+        });
+        return result;
+    }
+
+    // Поля не дальше radiusKm от точки, ближайшие первыми; limit <= 0 — без ограничения
+    public List<Hit<T>> within(double lon, double lat, double radiusKm, int limit) {
+        double dLat = radiusKm / PolygonGeometry.KM_PER_DEGREE;
+        double dLon = radiusKm / (PolygonGeometry.KM_PER_DEGREE * Math.max(Math.cos(Math.toRadians(lat)), 1e-6));
+        List<Hit<T>> result = new ArrayList<>();
+        search(lon - dLon, lat - dLat, lon + dLon, lat + dLat, i -> {
+            double distance = geometries.get(i).distanceKm(lon, lat);
+            if (distance <= radiusKm) {
+                result.add(new Hit<>(items.get(i), distance));
+            }
+        });
+        result.sort(Comparator.comparingDouble(Hit::distanceKm));
+        return limit > 0 && result.size() > limit ? List.copyOf(result.subList(0, limit)) : result;
+    }
+
+    private void search(double minX, double minY, double maxX, double maxY, LeafVisitor visitor) {
+        if (levels.length == 0) {
+            return;
+        }
+        int[] stackLevel = new int[64];
+        int[] stackNode = new int[64];
+        int top = 0;
+        Level root = levels[levels.length - 1];
+        for (int n = 0; n < root.size(); n++) {
+            if (top == stackLevel.length) {
+                stackLevel = Arrays.copyOf(stackLevel, top * 2);
+                stackNode = Arrays.copyOf(stackNode, top * 2);
+            }
+            stackLevel[top] = levels.length - 1;
+            stackNode[top++] = n;
+        }
+        while (top > 0) {
+            int levelIndex = stackLevel[--top];
+            int node = stackNode[top];
+            Level level = levels[levelIndex];
+            if (!level.intersects(node, minX, minY, maxX, maxY)) {
+                continue;
+            }
+            if (levelIndex == 0) {
+                visitor.visit(level.start[node]);
+                continue;
+            }
+            for (int child = level.start[node]; child < level.end[node]; child++) {
+                if (top == stackLevel.length) {
+                    stackLevel = Arrays.copyOf(stackLevel, top * 2);
+                    stackNode = Arrays.copyOf(stackNode, top * 2);
+                }
+                stackLevel[top] = levelIndex - 1;
+                stackNode[top++] = child;
+            }
+        }
+    }
+
+    // Упорядочить боксы так, чтобы каждые NODE_CAPACITY подряд образовали компактный узел:
+    // вертикальные полосы по центру X, внутри полосы — по центру Y
+    private static void sortTiles(List<Box> boxes) {
+        int nodes = (boxes.size() + NODE_CAPACITY - 1) / NODE_CAPACITY;
+        int sliceSize = (int) Math.ceil(Math.sqrt(nodes)) * NODE_CAPACITY;
+        boxes.sort(Comparator.comparingDouble(Box::centerX));
+        for (int from = 0; from < boxes.size(); from += sliceSize) {
+            boxes.subList(from, Math.min(from + sliceSize, boxes.size())).sort(Comparator.comparingDouble(Box::centerY));
+        }
+    }
+
+    private static List<Box> parents(List<Box> children) {
+        List<Box> parents = new ArrayList<>((children.size() + NODE_CAPACITY - 1) / NODE_CAPACITY);
+        for (int from = 0; from < children.size(); from += NODE_CAPACITY) {
+            int to = Math.min(from + NODE_CAPACITY, children.size());
+            double minX = Double.POSITIVE_INFINITY;
+            double minY = Double.POSITIVE_INFINITY;
+            double maxX = Double.NEGATIVE_INFINITY;
+            double maxY = Double.NEGATIVE_INFINITY;
+            for (int i = from; i < to; i++) {
+                Box child = children.get(i);
+                minX = Math.min(minX, child.minX());
+                minY = Math.min(minY, child.minY());
+                maxX = Math.max(maxX, child.maxX());
+                maxY = Math.max(maxY, child.maxY());
+            }
+            parents.add(new Box(minX, minY, maxX, maxY, from, to));
+        }
+        return parents;
+    }
+
+    public record Hit<T>(T item, double distanceKm) {
+    }
+
+    private interface LeafVisitor {
+        void visit(int item);
+    }
+
+    // start/end — диапазон детей на уровне ниже; у листа start — индекс элемента
+    private record Box(double minX, double minY, double maxX, double maxY, int start, int end) {
+
+        double centerX() {
+            return (minX + maxX) / 2;
+        }
+
+        double centerY() {
+            return (minY + maxY) / 2;
+        }
+    }
+
+    // Уровень дерева в плоских массивах: узлы одного уровня лежат подряд
+    private static final class Level {
+
+        final double[] minX;
+        final double[] minY;
+        final double[] maxX;
+        final double[] maxY;
+        final int[] start;
+        final int[] end;
+
+        Level(List<Box> boxes) {
+            int n = boxes.size();
+            minX = new double[n];
+            minY = new double[n];
+            maxX = new double[n];
+            maxY = new double[n];
+            start = new int[n];
+            end = new int[n];
+            for (int i = 0; i < n; i++) {
+                Box box = boxes.get(i);
+                minX[i] = box.minX();
+                minY[i] = box.minY();
+                maxX[i] = box.maxX();
+                maxY[i] = box.maxY();
+                start[i] = box.start();
+                end[i] = box.end();
+            }
+        }
+
+        int size() {
+            return start.length;
+        }
+
+        boolean intersects(int node, double x0, double y0, double x1, double y1) {
+            return minX[node] <= x1 && maxX[node] >= x0 && minY[node] <= y1 && maxY[node] >= y0;
+        }
+    }
+}
@@ -0,0 +1,398 @@
+package com.agrofarm.backend.imagery;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+// Минимальный читатель GeoTIFF для растров индексов вегетации: первый канал первого изображения в float[].
+// Файл отображается в память; несжатые блоки читаются прямо из отображения, сжатые распаковываются
+// из него же в один переиспользуемый буфер — в куче остаётся только итоговый массив значений.
+//
+// Поддержано: полосы и тайлы, без сжатия и Deflate, предикторы 2 и 3, целые 8–32 бит, float32/64,
+// GDAL_NODATA, привязка ModelTiepoint + ModelPixelScale. BigTIFF, LZW и JPEG — нет (IOException).
+public final class GeoTiffReader {
+
+    private static final int TAG_WIDTH = 256;
+    private static final int TAG_HEIGHT = 257;
+    private static final int TAG_BITS_PER_SAMPLE = 258;
+    private static final int TAG_COMPRESSION = 259;
+    private static final int TAG_STRIP_OFFSETS = 273;
+    private static final int TAG_SAMPLES_PER_PIXEL = 277;
+    private static final int TAG_ROWS_PER_STRIP = 278;
+    private static final int TAG_STRIP_BYTE_COUNTS = 279;
+    private static final int TAG_PLANAR_CONFIGURATION = 284;
+    private static final int TAG_PREDICTOR = 317;
+    private static final int TAG_TILE_WIDTH = 322;
+    private static final int TAG_TILE_LENGTH = 323;
+    private static final int TAG_TILE_OFFSETS = 324;
+    private static final int TAG_TILE_BYTE_COUNTS = 325;
+    private static final int TAG_SAMPLE_FORMAT = 339;
+    private static final int TAG_MODEL_PIXEL_SCALE = 33550;
+    private static final int TAG_MODEL_TIEPOINT = 33922;
+    private static final int TAG_GDAL_NODATA = 42113;
+
+    private static final int COMPRESSION_NONE = 1;
+    private static final int COMPRESSION_DEFLATE = 8;
+    private static final int COMPRESSION_DEFLATE_LEGACY = 32946;
+
+    private static final int PREDICTOR_NONE = 1;
+    private static final int PREDICTOR_HORIZONTAL = 2;
+    private static final int PREDICTOR_FLOATING_POINT = 3;
+
+    private static final int FORMAT_UINT = 1;
+    private static final int FORMAT_INT = 2;
+    private static final int FORMAT_FLOAT = 3;
+
+    // Снимок одного поля — сотни тысяч пикселей; всё, что больше, скорее испорченный заголовок
+    private static final long MAX_PIXELS = 64L << 20;
+
+    private GeoTiffReader() {
+    }
+
+    public static Raster read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Слишком большой GeoTIFF: " + size + " байт");
+            }
+            return decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    static Raster decode(ByteBuffer file) throws IOException {
+        if (file.limit() < 8) {
+            throw new IOException("Не TIFF: файл короче заголовка");
+        }
+        int byteOrder = file.getShort(0) & 0xffff;
+        if (byteOrder == 0x4949) {
+            file.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (byteOrder == 0x4D4D) {
+            file.order(ByteOrder.BIG_ENDIAN);
+        } else {
+            throw new IOException("Не TIFF: неизвестный порядок байт");
+        }
+        int version = file.getShort(2) & 0xffff;
+        if (version != 42) {
+            throw new IOException(version == 43 ? "BigTIFF не поддерживается" : "Не TIFF: версия " + version);
+        }
+        Map<Integer, Field> fields = readDirectory(file, file.getInt(4) & 0xffffffffL);
+
+        int width = (int) single(file, fields, TAG_WIDTH, -1);
+        int height = (int) single(file, fields, TAG_HEIGHT, -1);
+        if (width <= 0 || height <= 0 || (long) width * height > MAX_PIXELS) {
+            throw new IOException("Некорректный размер растра " + width + "x" + height);
+        }
+        int bits = (int) single(file, fields, TAG_BITS_PER_SAMPLE, 1);
+        int format = (int) single(file, fields, TAG_SAMPLE_FORMAT, FORMAT_UINT);
+        int samplesPerPixel = (int) single(file, fields, TAG_SAMPLES_PER_PIXEL, 1);
+        int compression = (int) single(file, fields, TAG_COMPRESSION, COMPRESSION_NONE);
+        int predictor = (int) single(file, fields, TAG_PREDICTOR, PREDICTOR_NONE);
+        boolean planar = single(file, fields, TAG_PLANAR_CONFIGURATION, 1) == 2;
+        checkSampleType(format, bits);
+        if (compression != COMPRESSION_NONE && compression != COMPRESSION_DEFLATE && compression != COMPRESSION_DEFLATE_LEGACY) {
+            throw new IOException("Сжатие " + compression + " не поддерживается");
+        }
+        if (predictor != PREDICTOR_NONE && predictor != PREDICTOR_HORIZONTAL && predictor != PREDICTOR_FLOATING_POINT) {
+            throw new IOException("Предиктор " + predictor + " не поддерживается");
+        }
+
+        boolean tiled = fields.containsKey(TAG_TILE_OFFSETS);
+        int blockWidth = tiled ? (int) single(file, fields, TAG_TILE_WIDTH, -1) : width;
+        int blockHeight = tiled ? (int) single(file, fields, TAG_TILE_LENGTH, -1)
+                : (int) Math.min(single(file, fields, TAG_ROWS_PER_STRIP, height), height);
+        long[] offsets = longs(file, require(fields, tiled ? TAG_TILE_OFFSETS : TAG_STRIP_OFFSETS));
+        long[] byteCounts = longs(file, require(fields, tiled ? TAG_TILE_BYTE_COUNTS : TAG_STRIP_BYTE_COUNTS));
+        if (blockWidth <= 0 || blockHeight <= 0) {
+            throw new IOException("Некорректный размер блока " + blockWidth + "x" + blockHeight);
+        }
+        int blocksAcross = (width + blockWidth - 1) / blockWidth;
+        int blocksDown = (height + blockHeight - 1) / blockHeight;
+        // При раздельных каналах первыми идут блоки канала 0 — только они и нужны
+        int blocks = blocksAcross * blocksDown;
+        if (offsets.length < blocks || byteCounts.length < blocks) {
+            throw new IOException("Блоков в файле меньше, чем нужно: " + offsets.length + " < " + blocks);
+        }
+
+        Layout layout = new Layout(file.order(), bits / 8, format, planar ? 1 : samplesPerPixel, blockWidth,
+                noData(file, fields.get(TAG_GDAL_NODATA)));
+        float[] values = new float[width * height];
+        ByteBuffer scratch = compression == COMPRESSION_NONE && predictor == PREDICTOR_NONE ? null
+                : ByteBuffer.allocate(layout.rowBytes() * blockHeight).order(file.order());
+        Inflater inflater = compression == COMPRESSION_NONE ? null : new Inflater();
+        try {
+            for (int block = 0; block < blocks; block++) {
+                int top = block / blocksAcross * blockHeight;
+                int left = block % blocksAcross * blockWidth;
+                // Последняя полоса бывает короче; тайлы всегда полного размера
+                int rows = tiled ? blockHeight : Math.min(blockHeight, height - top);
+                ByteBuffer data = blockData(file, offsets[block], byteCounts[block], layout.rowBytes() * rows,
+                        inflater, scratch);
+                if (predictor == PREDICTOR_HORIZONTAL) {
+                    undoHorizontal(data, layout, rows);
+                } else if (predictor == PREDICTOR_FLOATING_POINT) {
+                    undoFloatingPoint(data, layout, rows);
+                }
+                copyBlock(data, layout, rows, top, left, width, height, values);
+            }
+        } finally {
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+        return georeference(file, fields, width, height, values);
+    }
+
+    private static ByteBuffer blockData(ByteBuffer file, long offset, long byteCount, int expected,
+                                        Inflater inflater, ByteBuffer scratch) throws IOException {
+        if (offset < 0 || byteCount < 0 || offset + byteCount > file.limit()) {
+            throw new IOException("Блок за пределами файла: " + offset + "+" + byteCount);
+        }
+        ByteBuffer raw = file.slice((int) offset, (int) byteCount).order(file.order());
+        if (inflater == null) {
+            if (byteCount < expected) {
+                throw new IOException("Обрезанный блок: " + byteCount + " < " + expected);
+            }
+            if (scratch == null) {
+                return raw;
+            }
+            scratch.clear();
+            scratch.put(raw.limit(expected));
+            return scratch.flip();
+        }
+        inflater.reset();
+        inflater.setInput(raw);
+        scratch.clear().limit(expected);
+        try {
+            while (scratch.hasRemaining() && !inflater.finished()) {
+                if (inflater.inflate(scratch) == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Повреждённый Deflate-блок: " + e.getMessage(), e);
+        }
+        if (scratch.hasRemaining()) {
+            throw new IOException("Обрезанный блок: распаковано " + scratch.position() + " из " + expected);
+        }
+        return scratch.flip();
+    }
+
+    // Предиктор 2: каждый отсчёт хранится разностью с тем же каналом соседнего пикселя слева
+    private static void undoHorizontal(ByteBuffer data, Layout layout, int rows) {
+        int size = layout.bytesPerSample();
+        int stride = layout.pixelStride() * size;
+        for (int row = 0; row < rows; row++) {
+            int start = row * layout.rowBytes();
+            int end = start + layout.rowBytes();
+            for (int pos = start + stride; pos < end; pos += size) {
+                switch (size) {
+                    case 1 -> data.put(pos, (byte) (data.get(pos) + data.get(pos - stride)));
+                    case 2 -> data.putShort(pos, (short) (data.getShort(pos) + data.getShort(pos - stride)));
+                    case 4 -> data.putInt(pos, data.getInt(pos) + data.getInt(pos - stride));
+                    default -> data.putLong(pos, data.getLong(pos) + data.getLong(pos - stride));
+                }
+            }
+        }
+    }
+
+    // Предиктор 3: байты строки разложены по плоскостям (сначала старшие байты всех отсчётов)
+    // и закодированы побайтовой разностью; собираем отсчёты обратно в порядке байт файла
+    private static void undoFloatingPoint(ByteBuffer data, Layout layout, int rows) {
+        int size = layout.bytesPerSample();
+        int rowBytes = layout.rowBytes();
+        int samples = rowBytes / size;
+        int stride = layout.pixelStride();
+        boolean littleEndian = layout.order() == ByteOrder.LITTLE_ENDIAN;
+        byte[] row = new byte[rowBytes];
+        for (int r = 0; r < rows; r++) {
+            int start = r * rowBytes;
+            data.get(start, row);
+            for (int i = stride; i < rowBytes; i++) {
+                row[i] += row[i - stride];
+            }
+            for (int s = 0; s < samples; s++) {
+                for (int b = 0; b < size; b++) {
+                    int plane = littleEndian ? size - 1 - b : b;
+                    data.put(start + s * size + b, row[plane * samples + s]);
+                }
+            }
+        }
+    }
+
+    private static void copyBlock(ByteBuffer data, Layout layout, int rows, int top, int left,
+                                  int width, int height, float[] values) {
+        int pixelBytes = layout.pixelStride() * layout.bytesPerSample();
+        int columns = Math.min(layout.blockWidth(), width - left);
+        for (int r = 0; r < rows && top + r < height; r++) {
+            int base = r * layout.rowBytes();
+            int target = (top + r) * width + left;
+            for (int c = 0; c < columns; c++) {
+                double value = layout.sample(data, base + c * pixelBytes);
+                // NODATA записан текстом: сравниваем с точностью float, в которой хранится большинство растров
+                values[target + c] = (float) value == (float) layout.noData() || !Double.isFinite(value)
+                        ? Float.NaN : (float) value;
+            }
+        }
+    }
+
+    private static Raster georeference(ByteBuffer file, Map<Integer, Field> fields, int width, int height,
+                                       float[] values) throws IOException {
+        Field scaleField = fields.get(TAG_MODEL_PIXEL_SCALE);
+        Field tiepointField = fields.get(TAG_MODEL_TIEPOINT);
+        if (scaleField == null || tiepointField == null) {
+            return new Raster(width, height, values, Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+        }
+        double[] scale = doubles(file, scaleField);
+        double[] tiepoint = doubles(file, tiepointField);
+        if (scale.length < 2 || tiepoint.length < 6) {
+            return new Raster(width, height, values, Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+        }
+        // Тайпойнт связывает пиксель (i, j) с точкой (x, y); переносим его в угол (0, 0)
+        double originLon = tiepoint[3] - tiepoint[0] * scale[0];
+        double originLat = tiepoint[4] + tiepoint[1] * scale[1];
+        return new Raster(width, height, values, originLon, originLat, scale[0], scale[1]);
+    }
+
+    private static void checkSampleType(int format, int bits) throws IOException {
+        boolean integer = (format == FORMAT_UINT || format == FORMAT_INT) && (bits == 8 || bits == 16 || bits == 32);
+        boolean floating = format == FORMAT_FLOAT && (bits == 32 || bits == 64);
+        if (!integer && !floating) {
+            throw new IOException("Тип отсчёта не поддерживается: формат " + format + ", " + bits + " бит");
+        }
+    }
+
+    private static double noData(ByteBuffer file, Field field) throws IOException {
+        if (field == null) {
+            return Double.NaN;
+        }
+        byte[] text = new byte[(int) field.count()];
+        file.get(field.position(), text);
+        try {
+            return Double.parseDouble(new String(text, StandardCharsets.US_ASCII).replace("\0", "").trim());
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    // IFD: число записей, затем записи по 12 байт (тег, тип, количество, значение или смещение)
+    private static Map<Integer, Field> readDirectory(ByteBuffer file, long offset) throws IOException {
+        if (offset < 8 || offset + 2 > file.limit()) {
+            throw new IOException("Некорректное смещение каталога: " + offset);
+        }
+        int entries = file.getShort((int) offset) & 0xffff;
+        if (offset + 2 + entries * 12L > file.limit()) {
+            throw new IOException("Каталог тегов за пределами файла");
+        }
+        Map<Integer, Field> fields = new HashMap<>();
+        for (int i = 0; i < entries; i++) {
+            int entry = (int) offset + 2 + i * 12;
+            int tag = file.getShort(entry) & 0xffff;
+            int type = file.getShort(entry + 2) & 0xffff;
+            long count = file.getInt(entry + 4) & 0xffffffffL;
+            int size = typeSize(type);
+            if (size == 0) {
+                continue;
+            }
+            long bytes = count * size;
+            long position = bytes <= 4 ? entry + 8 : file.getInt(entry + 8) & 0xffffffffL;
+            if (position + bytes > file.limit()) {
+                throw new IOException("Значение тега " + tag + " за пределами файла");
+            }
+            fields.put(tag, new Field(type, count, (int) position));
+        }
+        return fields;
+    }
+
+    private static int typeSize(int type) {
+        return switch (type) {
+            case 1, 2, 6, 7 -> 1;
+            case 3, 8 -> 2;
+            case 4, 9, 11 -> 4;
+            case 5, 10, 12 -> 8;
+            default -> 0;
+        };
+    }
+
+    private static Field require(Map<Integer, Field> fields, int tag) throws IOException {
+        Field field = fields.get(tag);
+        if (field == null) {
+            throw new IOException("Нет обязательного тега " + tag);
+        }
+        return field;
+    }
+
+    private static long single(ByteBuffer file, Map<Integer, Field> fields, int tag, long defaultValue) throws IOException {
+        Field field = fields.get(tag);
+        if (field == null || field.count() == 0) {
+            if (defaultValue < 0) {
+                throw new IOException("Нет обязательного тега " + tag);
+            }
+            return defaultValue;
+        }
+        return longs(file, field)[0];
+    }
+
+    private static long[] longs(ByteBuffer file, Field field) throws IOException {
+        if (field.count() > MAX_PIXELS) {
+            throw new IOException("Слишком длинный тег: " + field.count());
+        }
+        long[] result = new long[(int) field.count()];
+        int size = typeSize(field.type());
+        for (int i = 0; i < result.length; i++) {
+            int pos = field.position() + i * size;
+            result[i] = switch (field.type()) {
+                case 1, 7 -> file.get(pos) & 0xff;
+                case 3 -> file.getShort(pos) & 0xffff;
+                case 4 -> file.getInt(pos) & 0xffffffffL;
+                case 6 -> file.get(pos);
+                case 8 -> file.getShort(pos);
+                case 9 -> file.getInt(pos);
+                default -> throw new IOException("Тег типа " + field.type() + " не целочисленный");
+            };
+        }
+        return result;
+    }
+
+    private static double[] doubles(ByteBuffer file, Field field) throws IOException {
+        if (field.type() != 12) {
+            throw new IOException("Ожидался тег типа DOUBLE, а не " + field.type());
+        }
+        double[] result = new double[(int) Math.min(field.count(), 64)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = file.getDouble(field.position() + i * 8);
+        }
+        return result;
+    }
+
+    private record Field(int type, long count, int position) {
+    }
+
+    // Раскладка блока: pixelStride — отсчётов на пиксель внутри блока (при раздельных каналах — 1)
+    private record Layout(ByteOrder order, int bytesPerSample, int format, int pixelStride, int blockWidth,
+                          double noData) {
+
+        int rowBytes() {
+            return blockWidth * pixelStride * bytesPerSample;
+        }
+
+        double sample(ByteBuffer data, int pos) {
+            if (format == FORMAT_FLOAT) {
+                return bytesPerSample == 4 ? data.getFloat(pos) : data.getDouble(pos);
+            }
+            boolean signed = format == FORMAT_INT;
+            return switch (bytesPerSample) {
+                case 1 -> signed ? data.get(pos) : data.get(pos) & 0xff;
+                case 2 -> signed ? data.getShort(pos) : data.getShort(pos) & 0xffff;
+                default -> signed ? data.getInt(pos) : data.getInt(pos) & 0xffffffffL;
+            };
+        }
+    }
+}
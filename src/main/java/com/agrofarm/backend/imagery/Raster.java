@@ -0,0 +1,74 @@
+package com.agrofarm.backend.imagery;
+
+// Одноканальный растр: значения по строкам сверху вниз, NaN — нет данных.
+// Привязка — левый верхний угол пикселя (0, 0) и размер пикселя в градусах;
+// без привязки (NaN) растр считается целиком относящимся к полю.
+public final class Raster {
+
+    private final int width;
+    private final int height;
+    private final float[] values;
+    private final double originLon;
+    private final double originLat;
+    private final double pixelWidth;
+    private final double pixelHeight;
+
+    public Raster(int width, int height, float[] values,
+                  double originLon, double originLat, double pixelWidth, double pixelHeight) {
+        if (values.length != (long) width * height) {
+            throw new IllegalArgumentException("Размер массива не совпадает с " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.values = values;
+        this.originLon = originLon;
+        this.originLat = originLat;
+        this.pixelWidth = pixelWidth;
+        this.pixelHeight = pixelHeight;
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    public float value(int row, int col) {
+        return values[row * width + col];
+    }
+
+    float[] values() {
+        return values;
+    }
+
+    public boolean isGeoreferenced() {
+        return !Double.isNaN(originLon) && !Double.isNaN(originLat) && pixelWidth > 0 && pixelHeight > 0;
+    }
+
+    // Координаты центра пикселя
+    public double lon(int col) {
+        return originLon + (col + 0.5) * pixelWidth;
+    }
+
+    public double lat(int row) {
+        return originLat - (row + 0.5) * pixelHeight;
+    }
+
+    public double minLon() {
+        return originLon;
+    }
+
+    public double maxLon() {
+        return originLon + width * pixelWidth;
+    }
+
+    public double minLat() {
+        return originLat - height * pixelHeight;
+    }
+
+    public double maxLat() {
+        return originLat;
+    }
+}
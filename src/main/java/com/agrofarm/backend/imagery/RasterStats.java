@@ -0,0 +1,211 @@
+package com.agrofarm.backend.imagery;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import com.agrofarm.backend.geo.PolygonGeometry;
+
+// Статистика индекса вегетации (NDVI/EVI, диапазон [-1, 1]) по пикселям поля:
+// среднее, разброс, перцентили и гистограмма с шагом 0.01. Значения вне диапазона и NaN не учитываются.
+// Считается fork-join по полосам строк: каждая полоса копит свою гистограмму, результаты сливаются.
+// Перцентили берутся из гистограммы с линейной интерполяцией внутри корзины — точность не хуже шага.
+public final class RasterStats {
+
+    static final int BINS = 200;
+    private static final double MIN_VALUE = -1.0;
+    private static final double BIN_WIDTH = 2.0 / BINS;
+
+    public static final RasterStats EMPTY = new RasterStats(0, 0, 0, Double.NaN, Double.NaN, new long[BINS]);
+
+    // Меньше этого пикселей полоса считается в одном потоке
+    private static final int LEAF_PIXELS = 32 * 1024;
+
+    private final long count;
+    private final double sum;
+    private final double sumSquares;
+    private final double min;
+    private final double max;
+    private final long[] histogram;
+
+    private RasterStats(long count, double sum, double sumSquares, double min, double max, long[] histogram) {
+        this.count = count;
+        this.sum = sum;
+        this.sumSquares = sumSquares;
+        this.min = min;
+        this.max = max;
+        this.histogram = histogram;
+    }
+
+    // mask — контур поля: учитываются только пиксели с центром внутри него.
+    // Без маски или если растр не привязан к координатам поля — все пиксели с данными.
+    public static RasterStats compute(Raster raster, PolygonGeometry mask, ForkJoinPool pool) {
+        PolygonGeometry effectiveMask = mask != null && overlaps(raster, mask) ? mask : null;
+        Accumulator total = pool.invoke(new RowsTask(raster, effectiveMask, 0, raster.height()));
+        return total.result();
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public double mean() {
+        return count > 0 ? sum / count : Double.NaN;
+    }
+
+    public double stdDev() {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        double mean = sum / count;
+        return Math.sqrt(Math.max(0, sumSquares / count - mean * mean));
+    }
+
+    public double min() {
+        return min;
+    }
+
+    public double max() {
+        return max;
+    }
+
+    // p в [0, 1]
+    public double percentile(double p) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        double rank = p * count;
+        long seen = 0;
+        for (int bin = 0; bin < BINS; bin++) {
+            long inBin = histogram[bin];
+            if (inBin > 0 && seen + inBin >= rank) {
+                double fraction = (rank - seen) / inBin;
+                double value = MIN_VALUE + (bin + fraction) * BIN_WIDTH;
+                return Math.max(min, Math.min(max, value));
+            }
+            seen += inBin;
+        }
+        return max;
+    }
+
+    // Доля пикселей со значением в [from, to)
+    public double share(double from, double to) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        long inRange = 0;
+        for (int bin = binOf(from); bin < BINS && MIN_VALUE + bin * BIN_WIDTH < to - 1e-9; bin++) {
+            inRange += histogram[bin];
+        }
+        return (double) inRange / count;
+    }
+
+    public long[] histogram() {
+        return histogram.clone();
+    }
+
+    private static int binOf(double value) {
+        // Допуск на округление: значение ровно на границе (0.2) должно попасть в корзину выше
+        int bin = (int) Math.floor((value - MIN_VALUE) / BIN_WIDTH + 1e-9);
+        return Math.max(0, Math.min(BINS - 1, bin));
+    }
+
+    private static boolean overlaps(Raster raster, PolygonGeometry mask) {
+        return raster.isGeoreferenced()
+                && raster.minLon() <= mask.maxLon() && raster.maxLon() >= mask.minLon()
+                && raster.minLat() <= mask.maxLat() && raster.maxLat() >= mask.minLat();
+    }
+
+    private static final class RowsTask extends RecursiveTask<Accumulator> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Raster raster;
+        private final PolygonGeometry mask;
+        private final int fromRow;
+        private final int toRow;
+
+        RowsTask(Raster raster, PolygonGeometry mask, int fromRow, int toRow) {
+            this.raster = raster;
+            this.mask = mask;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+        }
+
+        @Override
+        protected Accumulator compute() {
+            int rows = toRow - fromRow;
+            if (rows <= 1 || (long) rows * raster.width() <= LEAF_PIXELS) {
+                return scan();
+            }
+            int middle = fromRow + rows / 2;
+            RowsTask upper = new RowsTask(raster, mask, fromRow, middle);
+            upper.fork();
+            Accumulator lower = new RowsTask(raster, mask, middle, toRow).compute();
+            return upper.join().merge(lower);
+        }
+
+        private Accumulator scan() {
+            Accumulator acc = new Accumulator();
+            float[] values = raster.values();
+            int width = raster.width();
+            for (int row = fromRow; row < toRow; row++) {
+                double lat = mask != null ? raster.lat(row) : 0;
+                if (mask != null && (lat < mask.minLat() || lat > mask.maxLat())) {
+                    continue;
+                }
+                int base = row * width;
+                for (int col = 0; col < width; col++) {
+                    float value = values[base + col];
+                    // NaN не проходит ни одно сравнение
+                    if (!(value >= MIN_VALUE && value <= 1.0)) {
+                        continue;
+                    }
+                    if (mask != null && !mask.contains(raster.lon(col), lat)) {
+                        continue;
+                    }
+                    acc.add(value);
+                }
+            }
+            return acc;
+        }
+    }
+
+    private static final class Accumulator {
+
+        private long count;
+        private double sum;
+        private double sumSquares;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+        private final long[] histogram = new long[BINS];
+
+        void add(double value) {
+            count++;
+            sum += value;
+            sumSquares += value * value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            histogram[binOf(value)]++;
+        }
+
+        Accumulator merge(Accumulator other) {
+            count += other.count;
+            sum += other.sum;
+            sumSquares += other.sumSquares;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+            for (int bin = 0; bin < BINS; bin++) {
+                histogram[bin] += other.histogram[bin];
+            }
+            return this;
+        }
+
+        RasterStats result() {
+            return count == 0 ? EMPTY : new RasterStats(count, sum, sumSquares, min, max, histogram);
+        }
+    }
+}
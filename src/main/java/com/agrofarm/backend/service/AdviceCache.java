@@ -0,0 +1,64 @@
+package com.agrofarm.backend.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.agrofarm.backend.cache.BoundedTtlCache;
+import com.agrofarm.backend.cache.CacheMetrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+// Кэш ответов GPT для getAgronomicAdviceAsync.
+// Ключ — SHA-256 от модели, шаблона промпта и нормализованных агроданных:
+// одинаковый запрос к OpenAI даёт тот же ключ и не оплачивается повторно.
+@Component
+public class AdviceCache implements MeterBinder {
+
+    private final BoundedTtlCache<String, String> cache;
+    private final long ttlMillis;
+
+    public AdviceCache(@Value("${ai.advice-cache.max-entries:2000}") int maxEntries,
+                       @Value("${ai.advice-cache.ttl-minutes:60}") long ttlMinutes) {
+        this.cache = new BoundedTtlCache<>(maxEntries);
+        this.ttlMillis = TimeUnit.MINUTES.toMillis(ttlMinutes);
+    }
+
+    public static String key(String model, String template, String normalizedData) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(model.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(template.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(normalizedData.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+    }
+
+    public String get(String key) {
+        return cache.get(key);
+    }
+
+    public void put(String key, String advice) {
+        cache.put(key, advice, System.currentTimeMillis() + ttlMillis);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CacheMetrics.bind(registry, "advice", cache);
+    }
+
+    public Map<String, Object> stats() {
+        return CacheMetrics.stats(cache);
+    }
+}
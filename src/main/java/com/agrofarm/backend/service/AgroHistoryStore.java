@@ -0,0 +1,237 @@
+package com.agrofarm.backend.service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.agrofarm.backend.dto.SoilData;
+import com.agrofarm.backend.dto.WeatherData;
+import com.agrofarm.backend.timeseries.SeriesStats;
+import com.agrofarm.backend.timeseries.TimeSeriesFile;
+
+import jakarta.annotation.PreDestroy;
+
+// Локальная история почвы и погоды по полигонам: на полигон два ряда
+// <dir>/<polygonId>.soil и <dir>/<polygonId>.weather (см. TimeSeriesFile).
+// Пополняется каждым ответом upstream и загрузкой истории; время — dt upstream в секундах.
+// Ошибки диска не ломают основной путь: точка теряется, в лог пишется предупреждение.
+// Открытые ряды (канал и отображение) держатся в LRU на max-open-files; вытесненный ряд закрывается.
+// Чтение файл не создаёт: для полигона без истории сразу пустой результат.
+@Component
+public class AgroHistoryStore {
+
+    private static final Logger log = LoggerFactory.getLogger(AgroHistoryStore.class);
+
+    // id agromonitoring — hex; всё прочее в имя файла не пускаем
+    private static final Pattern SAFE_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    public static final int SOIL_T0 = 0;
+    public static final int SOIL_T10 = 1;
+    public static final int SOIL_MOISTURE = 2;
+    private static final int SOIL_COLUMNS = 3;
+
+    public static final int WEATHER_TEMP = 0;
+    public static final int WEATHER_HUMIDITY = 1;
+    public static final int WEATHER_PRESSURE = 2;
+    public static final int WEATHER_WIND_SPEED = 3;
+    private static final int WEATHER_COLUMNS = 4;
+
+    private final boolean enabled;
+    private final Path dir;
+
+    // Ключ — имя файла ряда (<polygonId>.soil, <polygonId>.weather)
+    private final LinkedHashMap<String, TimeSeriesFile> open;
+
+    public AgroHistoryStore(@Value("${agro.history.enabled:true}") boolean enabled,
+                            @Value("${agro.history.dir:data/agro-history}") String dir,
+                            @Value("${agro.history.max-open-files:512}") int maxOpenFiles) {
+        this.enabled = enabled;
+        this.dir = Paths.get(dir);
+        this.open = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, TimeSeriesFile> eldest) {
+                if (size() > maxOpenFiles) {
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void recordSoil(String polygonId, SoilData data) {
+        TimeSeriesFile series = soilSeries(polygonId, true);
+        if (series == null || data.getDt() <= 0) {
+            return;
+        }
+        try {
+            series.append(data.getDt(), soilValues(data));
+        } catch (IOException e) {
+            log.warn("Не удалось записать почву полигона {} в {}: {}", polygonId, series, e.getMessage());
+        }
+    }
+
+    public void recordWeather(String polygonId, WeatherData data) {
+        TimeSeriesFile series = weatherSeries(polygonId, true);
+        if (series == null || data.getDt() <= 0) {
+            return;
+        }
+        try {
+            series.append(data.getDt(), weatherValues(data));
+        } catch (IOException e) {
+            log.warn("Не удалось записать погоду полигона {} в {}: {}", polygonId, series, e.getMessage());
+        }
+    }
+
+    // Загрузка истории: точки могут быть старше уже записанных — вливаются слиянием
+    public int backfillSoil(String polygonId, List<SoilData> history) throws IOException {
+        TimeSeriesFile series = soilSeries(polygonId, true);
+        if (series == null) {
+            return 0;
+        }
+        Map<Long, double[]> points = new LinkedHashMap<>();
+        for (SoilData data : history) {
+            if (data.getDt() > 0) {
+                points.put(data.getDt(), soilValues(data));
+            }
+        }
+        return series.merge(points);
+    }
+
+    public int backfillWeather(String polygonId, List<WeatherData> history) throws IOException {
+        TimeSeriesFile series = weatherSeries(polygonId, true);
+        if (series == null) {
+            return 0;
+        }
+        Map<Long, double[]> points = new LinkedHashMap<>();
+        for (WeatherData data : history) {
+            if (data.getDt() > 0) {
+                points.put(data.getDt(), weatherValues(data));
+            }
+        }
+        return series.merge(points);
+    }
+
+    // Самая ранняя точка почвы или Long.MIN_VALUE, если истории нет
+    public long firstSoilDt(String polygonId) {
+        TimeSeriesFile series = soilSeries(polygonId);
+        return series == null ? Long.MIN_VALUE : series.firstTimestamp();
+    }
+
+    public long firstWeatherDt(String polygonId) {
+        TimeSeriesFile series = weatherSeries(polygonId);
+        return series == null ? Long.MIN_VALUE : series.firstTimestamp();
+    }
+
+    public List<SoilData> soilRange(String polygonId, long fromDt, long toDt) {
+        TimeSeriesFile series = soilSeries(polygonId);
+        List<SoilData> result = new ArrayList<>();
+        if (series != null) {
+            series.forEach(fromDt, toDt, (dt, v) ->
+                    result.add(new SoilData(dt, v[SOIL_T0], v[SOIL_T10], v[SOIL_MOISTURE])));
+        }
+        return result;
+    }
+
+    // Описание погоды в ряду не хранится — только числовые колонки
+    public List<WeatherData> weatherRange(String polygonId, long fromDt, long toDt) {
+        TimeSeriesFile series = weatherSeries(polygonId);
+        List<WeatherData> result = new ArrayList<>();
+        if (series != null) {
+            series.forEach(fromDt, toDt, (dt, v) -> result.add(new WeatherData(dt, null,
+                    v[WEATHER_TEMP], v[WEATHER_HUMIDITY], v[WEATHER_PRESSURE], v[WEATHER_WIND_SPEED])));
+        }
+        return result;
+    }
+
+    public SeriesStats soilStats(String polygonId, int column, long fromDt, long toDt) {
+        TimeSeriesFile series = soilSeries(polygonId);
+        return series == null ? SeriesStats.EMPTY : series.stats(column, fromDt, toDt);
+    }
+
+    public SeriesStats weatherStats(String polygonId, int column, long fromDt, long toDt) {
+        TimeSeriesFile series = weatherSeries(polygonId);
+        return series == null ? SeriesStats.EMPTY : series.stats(column, fromDt, toDt);
+    }
+
+    @PreDestroy
+    public void close() {
+        synchronized (open) {
+            open.values().forEach(AgroHistoryStore::closeQuietly);
+            open.clear();
+        }
+    }
+
+    private TimeSeriesFile soilSeries(String polygonId) {
+        return soilSeries(polygonId, false);
+    }
+
+    private TimeSeriesFile soilSeries(String polygonId, boolean create) {
+        return series(polygonId, ".soil", SOIL_COLUMNS, create);
+    }
+
+    private TimeSeriesFile weatherSeries(String polygonId) {
+        return weatherSeries(polygonId, false);
+    }
+
+    private TimeSeriesFile weatherSeries(String polygonId, boolean create) {
+        return series(polygonId, ".weather", WEATHER_COLUMNS, create);
+    }
+
+    // create=false — только существующий файл: чтение по полигону без истории ничего не открывает
+    private TimeSeriesFile series(String polygonId, String suffix, int columns, boolean create) {
+        if (!enabled || polygonId == null || !SAFE_ID.matcher(polygonId).matches()) {
+            return null;
+        }
+        String name = polygonId + suffix;
+        synchronized (open) {
+            TimeSeriesFile series = open.get(name);
+            if (series != null) {
+                return series;
+            }
+            Path path = dir.resolve(name);
+            if (!create && !Files.exists(path)) {
+                return null;
+            }
+            try {
+                series = TimeSeriesFile.open(path, columns);
+            } catch (IOException e) {
+                log.warn("Не удалось открыть ряд {} полигона {}: {}", suffix, polygonId, e.getMessage());
+                return null;
+            }
+            open.put(name, series);
+            return series;
+        }
+    }
+
+    private static double[] soilValues(SoilData data) {
+        return new double[] {data.getT0(), data.getT10(), data.getMoisture()};
+    }
+
+    private static double[] weatherValues(WeatherData data) {
+        return new double[] {data.getTemp(), data.getHumidity(), data.getPressure(), data.getWindSpeed()};
+    }
+
+    private static void closeQuietly(TimeSeriesFile file) {
+        try {
+            file.close();
+        } catch (IOException e) {
+            log.warn("Не удалось закрыть {}: {}", file, e.getMessage());
+        }
+    }
+}
@@ -1,128 +1,345 @@
 package com.agrofarm.backend.service;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.agrofarm.backend.dto.AgroSnapshot;
+import com.agrofarm.backend.dto.ImageryScene;
+import com.agrofarm.backend.dto.Polygon;
+import com.agrofarm.backend.dto.SoilData;
+import com.agrofarm.backend.dto.WeatherData;
+import com.agrofarm.backend.upstream.Futures;
+import com.agrofarm.backend.upstream.Priority;
+import com.agrofarm.backend.upstream.QuotaScheduler;
+import com.agrofarm.backend.upstream.SingleFlight;
+import com.agrofarm.backend.upstream.UpstreamMetricsInterceptor;
+import com.agrofarm.backend.upstream.UpstreamUnavailableException;
 
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import okhttp3.Call;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
-import okhttp3.Response;
 
 @Service
-public class AgroMonitoringService {
+public class AgroMonitoringService implements MeterBinder {
 
-    private final String apiKey = "e38bbe663df68e5f56afbc969a1b9176";
+    private static final Logger log = LoggerFactory.getLogger(AgroMonitoringService.class);
 
-    private final OkHttpClient client = new OkHttpClient.Builder()
-            .connectTimeout(60, TimeUnit.SECONDS)
-            .writeTimeout(60, TimeUnit.SECONDS)
-            .readTimeout(120, TimeUnit.SECONDS)
-            .build();
+    private final String apiKey;
 
-    private final ObjectMapper mapper = new ObjectMapper();
+    private final String baseUrl;
+
+    private final OkHttpClient client;
+
+    private final QuotaScheduler quota;
+
+    private final AgroSnapshotCache snapshotCache;
+
+    private final AgroHistoryStore historyStore;
+
+    private final MeterRegistry meterRegistry;
+
+    // Одинаковые одновременные запросы к agromonitoring уходят в upstream один раз
+    private final SingleFlight<String, List<Polygon>> polygonsFlight = new SingleFlight<>();
+    private final SingleFlight<String, Polygon> polygonFlight = new SingleFlight<>();
+    private final SingleFlight<String, SoilData> soilFlight = new SingleFlight<>();
+    private final SingleFlight<String, WeatherData> weatherFlight = new SingleFlight<>();
+
+    // Общий дедлайн на параллельную загрузку почвы и погоды
+    @Value("${agro.snapshot.deadline-ms:8000}")
+    private long snapshotDeadlineMs;
+
+    // Таймауты на весь вызов по каждому эндпоинту
+    @Value("${agro.timeouts.polygons-ms:30000}")
+    private long polygonsTimeoutMs;
+
+    @Value("${agro.timeouts.data-ms:15000}")
+    private long dataTimeoutMs;
+
+    @Value("${agro.timeouts.history-ms:30000}")
+    private long historyTimeoutMs;
+
+    @Value("${agro.timeouts.imagery-ms:60000}")
+    private long imageryTimeoutMs;
+
+    public AgroMonitoringService(@Qualifier("agroHttpClient") OkHttpClient client,
+                                 @Qualifier("agroQuotaScheduler") QuotaScheduler quota,
+                                 AgroSnapshotCache snapshotCache, AgroHistoryStore historyStore,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${agro.api.key:e38bbe663df68e5f56afbc969a1b9176}") String apiKey,
+                                 @Value("${agro.api.base-url:https://api.agromonitoring.com/agro/1.0}") String baseUrl) {
+        this.client = client;
+        this.quota = quota;
+        this.snapshotCache = snapshotCache;
+        this.historyStore = historyStore;
+        this.meterRegistry = meterRegistry;
+        this.apiKey = apiKey;
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+    }
 
     // Получить список полигонов
-    public String listPolygons() throws IOException {
-        String url = "https://api.agromonitoring.com/agro/1.0/polygons?appid=" + apiKey;
-        Request request = new Request.Builder().url(url).build();
+    public List<Polygon> listPolygons() throws IOException {
+        String url = baseUrl + "/polygons?appid=" + apiKey;
+        return Futures.await(polygonsFlight.execute("all", () ->
+                fetchAsync("polygons", url, Priority.INTERACTIVE, polygonsTimeoutMs, "Ошибка получения полигонов", UpstreamJsonParser::parsePolygons)));
+    }
 
-        try (Response response = client.newCall(request).execute()) {
-            if (!response.isSuccessful()) {
-                throw new IOException("Ошибка получения полигонов: " + response.code());
-            }
-            return response.body().string();
-        }
+    // Получить один полигон (название, площадь, дата создания)
+    public Polygon getPolygon(String polygonId) throws IOException {
+        String url = baseUrl + "/polygons/" + polygonId + "?appid=" + apiKey;
+        return Futures.await(polygonFlight.execute(polygonId, () ->
+                fetchAsync("polygon", url, Priority.INTERACTIVE, dataTimeoutMs, "Ошибка получения данных полигона", UpstreamJsonParser::parsePolygon)));
     }
 
     // Получить данные погоды для полигона
-    public String getWeatherData(String polygonId) throws IOException {
-        String url = "https://api.agromonitoring.com/agro/1.0/weather?polyid=" + polygonId + "&appid=" + apiKey;
-        Request request = new Request.Builder().url(url).build();
-
-        try (Response response = client.newCall(request).execute()) {
-            if (!response.isSuccessful()) {
-                throw new IOException("Ошибка получения погоды: " + response.code());
-            }
-            return response.body().string();
-        }
+    public WeatherData getWeatherData(String polygonId) throws IOException {
+        return Futures.await(getWeatherDataAsync(polygonId));
     }
 
     // Получить данные почвы для полигона
-    public String getSoilData(String polygonId) throws IOException {
-        String url = "https://api.agromonitoring.com/agro/1.0/soil?polyid=" + polygonId + "&appid=" + apiKey;
-        Request request = new Request.Builder().url(url).build();
+    public SoilData getSoilData(String polygonId) throws IOException {
+        return Futures.await(getSoilDataAsync(polygonId));
+    }
 
-        try (Response response = client.newCall(request).execute()) {
+    // Асинхронные варианты: запрос уходит в диспетчер OkHttp, отмена future отменяет HTTP-вызов
+    // (если к нему не присоединились другие вызывающие)
+    // Каждый ответ upstream (один на все присоединившиеся вызовы) дописывается в локальную историю
+    public CompletableFuture<WeatherData> getWeatherDataAsync(String polygonId) {
+        return getWeatherDataAsync(polygonId, Priority.INTERACTIVE);
+    }
+
+    // priority — очерёдность при нехватке квоты agromonitoring
+    public CompletableFuture<WeatherData> getWeatherDataAsync(String polygonId, Priority priority) {
+        return weatherFlight.execute(flightKey(polygonId, priority), () -> {
+            CompletableFuture<WeatherData> weather = fetchAsync("weather", weatherUrl(polygonId), priority, dataTimeoutMs,
+                    "Ошибка получения погоды", UpstreamJsonParser::parseWeather);
+            weather.thenAccept(data -> historyStore.recordWeather(polygonId, data));
+            return weather;
+        });
+    }
+
+    public CompletableFuture<SoilData> getSoilDataAsync(String polygonId) {
+        return getSoilDataAsync(polygonId, Priority.INTERACTIVE);
+    }
+
+    public CompletableFuture<SoilData> getSoilDataAsync(String polygonId, Priority priority) {
+        return soilFlight.execute(flightKey(polygonId, priority), () -> {
+            CompletableFuture<SoilData> soil = fetchAsync("soil", soilUrl(polygonId), priority, dataTimeoutMs,
+                    "Ошибка получения данных почвы", UpstreamJsonParser::parseSoil);
+            soil.thenAccept(data -> historyStore.recordSoil(polygonId, data));
+            return soil;
+        });
+    }
+
+    // История за [start, end] (unix-секунды) — для заполнения локальных рядов
+    public CompletableFuture<List<SoilData>> getSoilHistoryAsync(String polygonId, long start, long end) {
+        String url = baseUrl + "/soil/history?polyid=" + polygonId + "&start=" + start + "&end=" + end + "&appid=" + apiKey;
+        return fetchAsync("soil_history", url, Priority.BACKGROUND, historyTimeoutMs, "Ошибка получения истории почвы",
+                UpstreamJsonParser::parseSoilHistory);
+    }
+
+    public CompletableFuture<List<WeatherData>> getWeatherHistoryAsync(String polygonId, long start, long end) {
+        String url = baseUrl + "/weather/history?polyid=" + polygonId + "&start=" + start + "&end=" + end + "&appid=" + apiKey;
+        return fetchAsync("weather_history", url, Priority.BACKGROUND, historyTimeoutMs, "Ошибка получения истории погоды",
+                UpstreamJsonParser::parseWeatherHistory);
+    }
+
+    // Спутниковые снимки полигона за [start, end] (unix-секунды); поиск и загрузка — фоновые запросы
+    public CompletableFuture<List<ImageryScene>> searchImageryAsync(String polygonId, long start, long end) {
+        String url = baseUrl + "/image/search?polyid=" + polygonId + "&start=" + start + "&end=" + end + "&appid=" + apiKey;
+        return fetchAsync("image_search", url, Priority.BACKGROUND, dataTimeoutMs, "Ошибка поиска снимков", UpstreamJsonParser::parseImageryScenes);
+    }
+
+    // Скачать файл снимка (GeoTIFF) в target. Тело пишется во временный файл рядом и переименовывается,
+    // так что недокачанный файл под именем target не появляется никогда
+    public CompletableFuture<Path> downloadImageryAsync(String url, Path target) {
+        return quota.execute(Priority.BACKGROUND, newCall("image_data", url, imageryTimeoutMs), response -> {
             if (!response.isSuccessful()) {
-                throw new IOException("Ошибка получения данных почвы: " + response.code());
+                throw new IOException("Ошибка загрузки снимка: " + response.code());
             }
-            return response.body().string();
-        }
+            Files.createDirectories(target.getParent());
+            Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".part");
+            try {
+                try (InputStream in = response.body().byteStream()) {
+                    Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+                }
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            return target;
+        });
     }
 
-    // Для дебага: выводит список полигонов с ID и именами
-    public void printPolygonNamesAndIds() throws IOException {
-        String polygonsJson = listPolygons();
-        JsonNode root = mapper.readTree(polygonsJson);
+    // Почва и погода одновременно, с общим дедлайном.
+    // Свежие данные берутся из кэша, в upstream идут только недостающие части.
+    // Что не успело к дедлайну или упало — берётся из просроченной записи кэша, если она есть, иначе остаётся null.
+    public AgroSnapshot fetchAgroSnapshot(String polygonId) {
+        return fetchAgroSnapshotAsync(polygonId).join();
+    }
 
-        System.out.println("Список полигонов:");
-        for (JsonNode polygon : root) {
-            String id = polygon.path("id").asText();
-            String name = polygon.path("name").asText();
-            System.out.println("Название: " + name + ", ID: " + id);
-        }
+    // Почва и погода параллельно с общим дедлайном; future завершается всегда успешно,
+    // недостающие части — из устаревшего кэша или null. Отмена результата отменяет запросы к upstream.
+    public CompletableFuture<AgroSnapshot> fetchAgroSnapshotAsync(String polygonId) {
+        return fetchAgroSnapshotAsync(polygonId, Priority.INTERACTIVE);
     }
 
-    // Безопасное получение и форматирование данных по полигону
-    public String getAgroDataSafe(String polygonId) {
-        String soilJson = "{}";
-        String weatherJson = "{}";
+    public CompletableFuture<AgroSnapshot> fetchAgroSnapshotAsync(String polygonId, Priority priority) {
+        SoilData cachedSoil = snapshotCache.getSoil(polygonId);
+        WeatherData cachedWeather = snapshotCache.getWeather(polygonId);
+        if (cachedSoil != null && cachedWeather != null) {
+            return CompletableFuture.completedFuture(new AgroSnapshot(cachedSoil, cachedWeather));
+        }
 
-        try {
-            soilJson = getSoilData(polygonId);
-        } catch (IOException e) {
-            if (!e.getMessage().contains("404")) {
-                e.printStackTrace();
-            }
+        CompletableFuture<SoilData> soil;
+        if (cachedSoil != null) {
+            soil = CompletableFuture.completedFuture(cachedSoil);
+        } else {
+            soil = getSoilDataAsync(polygonId, priority);
+            soil.thenAccept(data -> snapshotCache.putSoil(polygonId, data));
         }
 
-        try {
-            weatherJson = getWeatherData(polygonId);
-        } catch (IOException e) {
-            if (!e.getMessage().contains("404")) {
-                e.printStackTrace();
-            }
+        CompletableFuture<WeatherData> weather;
+        if (cachedWeather != null) {
+            weather = CompletableFuture.completedFuture(cachedWeather);
+        } else {
+            weather = getWeatherDataAsync(polygonId, priority);
+            weather.thenAccept(data -> snapshotCache.putWeather(polygonId, data));
         }
 
-        // Форматируем JSON в удобочитаемый вид
-        String soilInfo = formatSoilData(soilJson);
-        String weatherInfo = formatWeatherData(weatherJson);
+        // Частичный результат разбирается в assemble по каждому запросу отдельно
+        CompletableFuture<AgroSnapshot> snapshot = CompletableFuture.allOf(soil, weather)
+                .handle((v, e) -> (Void) null)
+                .completeOnTimeout(null, snapshotDeadlineMs, TimeUnit.MILLISECONDS)
+                .thenApply(v -> assemble(polygonId, soil, weather));
+        snapshot.whenComplete((result, e) -> {
+            if (snapshot.isCancelled()) {
+                soil.cancel(true);
+                weather.cancel(true);
+            }
+        });
+        return snapshot;
+    }
 
-        return "Данные почвы: " + soilInfo + "\n" +
-               "Данные погоды: " + weatherInfo;
+    private AgroSnapshot assemble(String polygonId, CompletableFuture<SoilData> soil,
+                                  CompletableFuture<WeatherData> weather) {
+        SoilData soilData = resultOrNull(soil, polygonId, "soil");
+        if (soilData == null) {
+            soilData = staleOrNull(snapshotCache.getStaleSoil(polygonId), "soil");
+        }
+        WeatherData weatherData = resultOrNull(weather, polygonId, "weather");
+        if (weatherData == null) {
+            weatherData = staleOrNull(snapshotCache.getStaleWeather(polygonId), "weather");
+        }
+        return new AgroSnapshot(soilData, weatherData);
     }
 
-    // Метод форматирования почвенных данных — просто красиво печатаем JSON
-    private String formatSoilData(String soilJson) {
-        try {
-            Object json = mapper.readValue(soilJson, Object.class);
-            return mapper.writerWithDefaultPrettyPrinter().writeValueAsString(json);
-        } catch (Exception e) {
-            return "Ошибка форматирования почвенных данных";
+    private <T> T staleOrNull(T stale, String kind) {
+        if (stale != null) {
+            meterRegistry.counter("agro.snapshot.stale", "part", kind).increment();
         }
+        return stale;
     }
 
-    // Метод форматирования погодных данных — просто красиво печатаем JSON
-    private String formatWeatherData(String weatherJson) {
+    private <T> T resultOrNull(CompletableFuture<T> future, String polygonId, String kind) {
+        if (!future.isDone()) {
+            future.cancel(true);
+            meterRegistry.counter("agro.snapshot.partial", "part", kind, "reason", "deadline").increment();
+            log.warn("Данные {} для полигона {} не успели к дедлайну {} мс", kind, polygonId, snapshotDeadlineMs);
+            return null;
+        }
         try {
-            Object json = mapper.readValue(weatherJson, Object.class);
-            return mapper.writerWithDefaultPrettyPrinter().writeValueAsString(json);
+            return future.getNow(null);
         } catch (Exception e) {
-            return "Ошибка форматирования погодных данных";
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof UpstreamUnavailableException) {
+                // Предохранитель или лимит — причина уже видна в метриках upstream, лог не засоряем
+                meterRegistry.counter("agro.snapshot.partial", "part", kind, "reason", "rejected").increment();
+                return null;
+            }
+            meterRegistry.counter("agro.snapshot.partial", "part", kind, "reason", "error").increment();
+            if (cause.getMessage() == null || !cause.getMessage().contains("404")) {
+                log.warn("Не удалось получить данные {} для полигона {}", kind, polygonId, cause);
+            }
+            return null;
         }
     }
+
+    // Запрос ждёт токен квоты в очереди QuotaScheduler, а не в потоке; 429 повторяется там же
+    private <T> CompletableFuture<T> fetchAsync(String endpoint, String url, Priority priority, long timeoutMs,
+                                                String errorMessage, BodyParser<T> parser) {
+        return quota.execute(priority, newCall(endpoint, url, timeoutMs), response -> {
+            if (!response.isSuccessful()) {
+                throw new IOException(errorMessage + ": " + response.code());
+            }
+            return parser.parse(response.body().byteStream());
+        });
+    }
+
+    private Call newCall(String endpoint, String url, long timeoutMs) {
+        Request request = UpstreamMetricsInterceptor.endpoint(new Request.Builder().url(url), endpoint).build();
+        Call call = client.newCall(request);
+        call.timeout().timeout(timeoutMs, TimeUnit.MILLISECONDS);
+        return call;
+    }
+
+    // Интерактивный запрос не присоединяется к фоновому: тот мог встать в конец очереди квоты
+    private static String flightKey(String polygonId, Priority priority) {
+        return priority == Priority.INTERACTIVE ? polygonId : polygonId + "@" + priority;
+    }
+
+    private String weatherUrl(String polygonId) {
+        return baseUrl + "/weather?polyid=" + polygonId + "&appid=" + apiKey;
+    }
+
+    private String soilUrl(String polygonId) {
+        return baseUrl + "/soil?polyid=" + polygonId + "&appid=" + apiKey;
+    }
+
+    // Сколько вызовов присоединились к уже летящему запросу, по эндпоинтам
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        bindSingleFlight(registry, "polygons", polygonsFlight);
+        bindSingleFlight(registry, "polygon", polygonFlight);
+        bindSingleFlight(registry, "soil", soilFlight);
+        bindSingleFlight(registry, "weather", weatherFlight);
+    }
+
+    private static void bindSingleFlight(MeterRegistry registry, String endpoint, SingleFlight<?, ?> flight) {
+        FunctionCounter.builder("upstream.coalesced", flight, SingleFlight::coalescedCount)
+                .tag("upstream", "agro").tag("endpoint", endpoint)
+                .register(registry);
+    }
+
+    // Для дебага: выводит список полигонов с ID и именами
+    public void printPolygonNamesAndIds() throws IOException {
+        System.out.println("Список полигонов:");
+        for (Polygon polygon : listPolygons()) {
+            System.out.println("Название: " + polygon.getName() + ", ID: " + polygon.getId());
+        }
+    }
+
+    // Безопасное получение и форматирование данных по полигону
+    public String getAgroDataSafe(String polygonId) {
+        return fetchAgroSnapshot(polygonId).toPromptString();
+    }
+
+    // Тело ответа разбирается прямо из потока, без промежуточной строки
+    private interface BodyParser<T> {
+        T parse(InputStream in) throws IOException;
+    }
 }
@@ -0,0 +1,252 @@
+package com.agrofarm.backend.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.agrofarm.backend.dto.Polygon;
+import com.agrofarm.backend.dto.SoilData;
+import com.agrofarm.backend.dto.WeatherData;
+import com.agrofarm.backend.upstream.Priority;
+import com.agrofarm.backend.upstream.UpstreamUnavailableException;
+
+// Фоновый прогрев кэша почвы и погоды по всем полигонам каталога.
+// Обновляются только записи, которые истекут в пределах refresh-ahead, небольшими пачками
+// с паузой и случайным сдвигом — нагрузка на agromonitoring ровная, а запросы пользователей
+// (fetchAgroSnapshot читает кэш первым) не ждут upstream.
+@Component
+public class AgroPrefetcher {
+
+    private static final Logger log = LoggerFactory.getLogger(AgroPrefetcher.class);
+
+    private static final int STALEST_IN_REPORT = 10;
+
+    private final PolygonCatalog polygonCatalog;
+    private final AgroMonitoringService agroMonitoringService;
+    private final AgroSnapshotCache snapshotCache;
+
+    private final boolean enabled;
+    private final int batchSize;
+    private final long batchPauseMillis;
+    private final long jitterMillis;
+    private final long refreshAheadMillis;
+    private final long batchTimeoutMillis;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile Run lastRun;
+
+    public AgroPrefetcher(PolygonCatalog polygonCatalog, AgroMonitoringService agroMonitoringService,
+                          AgroSnapshotCache snapshotCache,
+                          @Value("${agro.prefetch.enabled:true}") boolean enabled,
+                          @Value("${agro.prefetch.batch-size:10}") int batchSize,
+                          @Value("${agro.prefetch.batch-pause-ms:1000}") long batchPauseMillis,
+                          @Value("${agro.prefetch.jitter-ms:5000}") long jitterMillis,
+                          @Value("${agro.prefetch.refresh-ahead-ms:120000}") long refreshAheadMillis,
+                          @Value("${agro.prefetch.batch-timeout-ms:20000}") long batchTimeoutMillis) {
+        this.polygonCatalog = polygonCatalog;
+        this.agroMonitoringService = agroMonitoringService;
+        this.snapshotCache = snapshotCache;
+        this.enabled = enabled;
+        this.batchSize = Math.max(1, batchSize);
+        this.batchPauseMillis = batchPauseMillis;
+        this.jitterMillis = jitterMillis;
+        this.refreshAheadMillis = refreshAheadMillis;
+        this.batchTimeoutMillis = batchTimeoutMillis;
+    }
+
+    @Scheduled(initialDelayString = "${agro.prefetch.initial-delay-ms:15000}",
+               fixedDelayString = "${agro.prefetch.interval-ms:60000}")
+    public void scheduledPrefetch() {
+        if (enabled) {
+            sleep(jitter(jitterMillis));
+            prefetchAll();
+        }
+    }
+
+    // Один проход по каталогу; параллельный второй проход не запускается
+    public Run prefetchAll() {
+        if (!running.compareAndSet(false, true)) {
+            return lastRun;
+        }
+        long startedAt = System.currentTimeMillis();
+        try {
+            Collection<Polygon> polygons;
+            try {
+                polygons = polygonCatalog.getAll();
+            } catch (IOException e) {
+                log.warn("Прогрев агроданных пропущен: нет списка полигонов: {}", e.getMessage());
+                return lastRun;
+            }
+
+            long horizon = startedAt + refreshAheadMillis;
+            List<String> due = new ArrayList<>();
+            for (Polygon polygon : polygons) {
+                if (snapshotCache.soilExpiresAt(polygon.getId()) < horizon
+                        || snapshotCache.weatherExpiresAt(polygon.getId()) < horizon) {
+                    due.add(polygon.getId());
+                }
+            }
+
+            AtomicInteger refreshed = new AtomicInteger();
+            AtomicInteger failed = new AtomicInteger();
+            AtomicBoolean rejected = new AtomicBoolean();
+            for (int from = 0; from < due.size() && !rejected.get(); from += batchSize) {
+                if (from > 0) {
+                    sleep(batchPauseMillis + jitter(batchPauseMillis / 2));
+                }
+                List<String> batch = due.subList(from, Math.min(from + batchSize, due.size()));
+                runBatch(batch, horizon, refreshed, failed, rejected);
+            }
+            if (rejected.get()) {
+                log.warn("Прогрев агроданных прерван: agromonitoring отклоняет запросы");
+            }
+
+            Run run = new Run(startedAt, System.currentTimeMillis() - startedAt, polygons.size(), due.size(),
+                    refreshed.get(), failed.get());
+            lastRun = run;
+            return run;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    // Свежесть данных по каждому полигону каталога: возраст считается от dt самих данных
+    public Map<String, Object> stalenessReport() throws IOException {
+        Collection<Polygon> polygons = polygonCatalog.getAll();
+        long now = System.currentTimeMillis();
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("polygons", polygons.size());
+        report.put("soil", partReport(polygons, now, snapshotCache::getStaleSoil, SoilData::getDt,
+                snapshotCache::soilExpiresAt));
+        report.put("weather", partReport(polygons, now, snapshotCache::getStaleWeather, WeatherData::getDt,
+                snapshotCache::weatherExpiresAt));
+        report.put("lastRun", lastRun);
+        return report;
+    }
+
+    // Ждём пачку целиком (но не дольше batch-timeout), чтобы в полёте было не больше одной пачки
+    private void runBatch(List<String> batch, long horizon, AtomicInteger refreshed, AtomicInteger failed,
+                          AtomicBoolean rejected) {
+        List<CompletableFuture<?>> requests = new ArrayList<>();
+        List<CompletableFuture<?>> tracked = new ArrayList<>();
+        for (String polygonId : batch) {
+            if (snapshotCache.soilExpiresAt(polygonId) < horizon) {
+                CompletableFuture<SoilData> soil = agroMonitoringService.getSoilDataAsync(polygonId, Priority.BACKGROUND);
+                requests.add(soil);
+                tracked.add(track(soil.thenAccept(data -> snapshotCache.putSoil(polygonId, data)),
+                        refreshed, failed, rejected));
+            }
+            if (snapshotCache.weatherExpiresAt(polygonId) < horizon) {
+                CompletableFuture<WeatherData> weather = agroMonitoringService.getWeatherDataAsync(polygonId,
+                        Priority.BACKGROUND);
+                requests.add(weather);
+                tracked.add(track(weather.thenAccept(data -> snapshotCache.putWeather(polygonId, data)),
+                        refreshed, failed, rejected));
+            }
+        }
+
+        try {
+            CompletableFuture.allOf(tracked.toArray(CompletableFuture[]::new)).get(batchTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // Отменяем сами запросы: отмена зависимых стадий до HTTP-вызова не доходит
+            requests.forEach(request -> request.cancel(true));
+        } catch (ExecutionException e) {
+            // Ошибки уже посчитаны в track
+        } catch (InterruptedException e) {
+            requests.forEach(request -> request.cancel(true));
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static CompletableFuture<?> track(CompletableFuture<Void> part, AtomicInteger refreshed,
+                                              AtomicInteger failed, AtomicBoolean rejected) {
+        return part.whenComplete((ignored, e) -> {
+            if (e == null) {
+                refreshed.incrementAndGet();
+                return;
+            }
+            failed.incrementAndGet();
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof UpstreamUnavailableException) {
+                rejected.set(true);
+            }
+        });
+    }
+
+    private static <T> Map<String, Object> partReport(Collection<Polygon> polygons, long now,
+                                                      Function<String, T> lookup, ToLongFunction<T> dt,
+                                                      ToLongFunction<String> expiresAt) {
+        int fresh = 0;
+        int expired = 0;
+        int missing = 0;
+        List<Map<String, Object>> ages = new ArrayList<>();
+        for (Polygon polygon : polygons) {
+            T data = lookup.apply(polygon.getId());
+            if (data == null) {
+                missing++;
+                continue;
+            }
+            if (expiresAt.applyAsLong(polygon.getId()) > now) {
+                fresh++;
+            } else {
+                expired++;
+            }
+            long dataDt = dt.applyAsLong(data);
+            if (dataDt > 0) {
+                Map<String, Object> age = new LinkedHashMap<>();
+                age.put("polygonId", polygon.getId());
+                age.put("ageSeconds", Math.max(0, now / 1000 - dataDt));
+                ages.add(age);
+            }
+        }
+        ages.sort(Comparator.comparingLong((Map<String, Object> age) -> (Long) age.get("ageSeconds")).reversed());
+
+        Map<String, Object> part = new LinkedHashMap<>();
+        part.put("fresh", fresh);
+        part.put("expired", expired);
+        part.put("missing", missing);
+        part.put("maxAgeSeconds", ages.isEmpty() ? null : ages.get(0).get("ageSeconds"));
+        part.put("stalest", ages.subList(0, Math.min(STALEST_IN_REPORT, ages.size())));
+        return part;
+    }
+
+    private static long jitter(long bound) {
+        return bound > 0 ? ThreadLocalRandom.current().nextLong(bound) : 0;
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Итог последнего прохода: сколько полигонов в каталоге, сколько требовали обновления,
+    // сколько запросов почвы/погоды прошло и упало
+    public record Run(long startedAt, long durationMs, int polygons, int due, int refreshed, int failed) {
+    }
+}
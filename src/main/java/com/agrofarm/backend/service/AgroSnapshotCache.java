@@ -0,0 +1,104 @@
+package com.agrofarm.backend.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.agrofarm.backend.cache.BoundedTtlCache;
+import com.agrofarm.backend.cache.CacheMetrics;
+import com.agrofarm.backend.dto.SoilData;
+import com.agrofarm.backend.dto.WeatherData;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+// Кэш почвы и погоды по id полигона.
+// Срок жизни считается от dt самих данных: agromonitoring обновляет почву примерно дважды в сутки,
+// погоду — раз в ~10 минут, поэтому запись живёт до ожидаемого следующего обновления.
+@Component
+public class AgroSnapshotCache implements MeterBinder {
+
+    private final BoundedTtlCache<String, SoilData> soil;
+    private final BoundedTtlCache<String, WeatherData> weather;
+
+    private final long soilCadenceMillis;
+    private final long weatherCadenceMillis;
+    private final long minTtlMillis;
+
+    public AgroSnapshotCache(@Value("${agro.cache.max-polygons:5000}") int maxPolygons,
+                             @Value("${agro.cache.soil-cadence-minutes:720}") long soilCadenceMinutes,
+                             @Value("${agro.cache.weather-cadence-minutes:10}") long weatherCadenceMinutes,
+                             @Value("${agro.cache.min-ttl-seconds:60}") long minTtlSeconds) {
+        this.soil = new BoundedTtlCache<>(maxPolygons);
+        this.weather = new BoundedTtlCache<>(maxPolygons);
+        this.soilCadenceMillis = TimeUnit.MINUTES.toMillis(soilCadenceMinutes);
+        this.weatherCadenceMillis = TimeUnit.MINUTES.toMillis(weatherCadenceMinutes);
+        this.minTtlMillis = TimeUnit.SECONDS.toMillis(minTtlSeconds);
+    }
+
+    public SoilData getSoil(String polygonId) {
+        return soil.get(polygonId);
+    }
+
+    public WeatherData getWeather(String polygonId) {
+        return weather.get(polygonId);
+    }
+
+    // Последние известные данные, даже просроченные, — для ответа при недоступном upstream
+    public SoilData getStaleSoil(String polygonId) {
+        return soil.getStale(polygonId);
+    }
+
+    public WeatherData getStaleWeather(String polygonId) {
+        return weather.getStale(polygonId);
+    }
+
+    // Момент истечения записи в мс или 0, если записи нет
+    public long soilExpiresAt(String polygonId) {
+        return soil.expiresAt(polygonId);
+    }
+
+    public long weatherExpiresAt(String polygonId) {
+        return weather.expiresAt(polygonId);
+    }
+
+    public void putSoil(String polygonId, SoilData data) {
+        soil.put(polygonId, data, expiresAt(data.getDt(), soilCadenceMillis));
+    }
+
+    public void putWeather(String polygonId, WeatherData data) {
+        weather.put(polygonId, data, expiresAt(data.getDt(), weatherCadenceMillis));
+    }
+
+    public void invalidate(String polygonId) {
+        soil.invalidate(polygonId);
+        weather.invalidate(polygonId);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CacheMetrics.bind(registry, "agro_soil", soil);
+        CacheMetrics.bind(registry, "agro_weather", weather);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("soil", CacheMetrics.stats(soil));
+        stats.put("weather", CacheMetrics.stats(weather));
+        return stats;
+    }
+
+    // Следующее обновление ожидается через cadence после dt.
+    // Если оно уже должно было случиться (upstream запаздывает), перепроверяем не раньше чем через minTtl.
+    private long expiresAt(long dt, long cadenceMillis) {
+        long now = System.currentTimeMillis();
+        if (dt <= 0) {
+            return now + minTtlMillis;
+        }
+        long expected = TimeUnit.SECONDS.toMillis(dt) + cadenceMillis;
+        return Math.min(Math.max(expected, now + minTtlMillis), now + cadenceMillis);
+    }
+}
@@ -0,0 +1,115 @@
+package com.agrofarm.backend.service;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.agrofarm.backend.dto.AgroTrend;
+
+// Динамика показателей полигона для промпта — только из локальной истории, без сетевых вызовов.
+// При первом обращении к полигону недостающая история догружается из agromonitoring в фоне
+// и попадает в ответы начиная со следующего запроса.
+// Только для полигонов из каталога: произвольный id не создаёт файлов и не вызывает загрузку истории.
+@Service
+public class AgroTrendService {
+
+    private static final Logger log = LoggerFactory.getLogger(AgroTrendService.class);
+
+    private static final long SECONDS_PER_DAY = TimeUnit.DAYS.toSeconds(1);
+
+    private final AgroMonitoringService agroMonitoringService;
+    private final AgroHistoryStore historyStore;
+    private final PolygonCatalog polygonCatalog;
+
+    private final int trendDays;
+    private final int backfillDays;
+    private final boolean backfillEnabled;
+
+    // Полигоны, для которых загрузка истории уже запускалась в этом процессе (не больше каталога)
+    private final Set<String> backfilled = ConcurrentHashMap.newKeySet();
+
+    public AgroTrendService(AgroMonitoringService agroMonitoringService, AgroHistoryStore historyStore,
+                            PolygonCatalog polygonCatalog,
+                            @Value("${agro.history.trend-days:7}") int trendDays,
+                            @Value("${agro.history.backfill-days:30}") int backfillDays,
+                            @Value("${agro.history.backfill-enabled:true}") boolean backfillEnabled) {
+        this.agroMonitoringService = agroMonitoringService;
+        this.historyStore = historyStore;
+        this.polygonCatalog = polygonCatalog;
+        this.trendDays = trendDays;
+        this.backfillDays = backfillDays;
+        this.backfillEnabled = backfillEnabled;
+    }
+
+    public AgroTrend trend(String polygonId) {
+        if (!historyStore.isEnabled() || !known(polygonId)) {
+            return AgroTrend.EMPTY;
+        }
+        backfill(polygonId);
+
+        long to = System.currentTimeMillis() / 1000;
+        long from = to - trendDays * SECONDS_PER_DAY;
+        return new AgroTrend(trendDays,
+                historyStore.soilStats(polygonId, AgroHistoryStore.SOIL_MOISTURE, from, to),
+                historyStore.soilStats(polygonId, AgroHistoryStore.SOIL_T10, from, to),
+                historyStore.weatherStats(polygonId, AgroHistoryStore.WEATHER_TEMP, from, to),
+                historyStore.weatherStats(polygonId, AgroHistoryStore.WEATHER_HUMIDITY, from, to));
+    }
+
+    // Догрузка истории за backfill-days, если локальный ряд начинается позже; не чаще раза на полигон за процесс
+    public CompletableFuture<Void> backfill(String polygonId) {
+        if (!backfillEnabled || !historyStore.isEnabled() || !known(polygonId) || !backfilled.add(polygonId)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        long end = System.currentTimeMillis() / 1000;
+        long start = end - backfillDays * SECONDS_PER_DAY;
+
+        CompletableFuture<Void> soil = CompletableFuture.completedFuture(null);
+        if (needsBackfill(historyStore.firstSoilDt(polygonId), start)) {
+            soil = agroMonitoringService.getSoilHistoryAsync(polygonId, start, end)
+                    .thenAccept(history -> store(polygonId, "почвы", () -> historyStore.backfillSoil(polygonId, history)));
+        }
+        CompletableFuture<Void> weather = CompletableFuture.completedFuture(null);
+        if (needsBackfill(historyStore.firstWeatherDt(polygonId), start)) {
+            weather = agroMonitoringService.getWeatherHistoryAsync(polygonId, start, end)
+                    .thenAccept(history -> store(polygonId, "погоды", () -> historyStore.backfillWeather(polygonId, history)));
+        }
+
+        return CompletableFuture.allOf(soil, weather).exceptionally(e -> {
+            // Исторические эндпоинты есть не на всех тарифах — без истории просто нет динамики в промпте
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            log.info("История по полигону {} не загружена: {}", polygonId, cause.getMessage());
+            return null;
+        });
+    }
+
+    // Без ожидания сети: пока каталог не загружен, полигон считается неизвестным
+    private boolean known(String polygonId) {
+        return polygonCatalog.containsIfLoaded(polygonId);
+    }
+
+    private static boolean needsBackfill(long firstDt, long start) {
+        return firstDt == Long.MIN_VALUE || firstDt > start + SECONDS_PER_DAY;
+    }
+
+    private static void store(String polygonId, String kind, HistoryWrite write) {
+        try {
+            int added = write.run();
+            log.debug("История {} полигона {}: добавлено {} точек", kind, polygonId, added);
+        } catch (IOException e) {
+            log.warn("Не удалось сохранить историю {} полигона {}: {}", kind, polygonId, e.getMessage());
+        }
+    }
+
+    @FunctionalInterface
+    private interface HistoryWrite {
+        int run() throws IOException;
+    }
+}
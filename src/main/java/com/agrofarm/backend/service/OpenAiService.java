@@ -1,33 +1,47 @@
 package com.agrofarm.backend.service;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.time.Instant;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import com.agrofarm.backend.AiChat.ChatMessage;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.agrofarm.backend.AiChat.ConversationMemory;
+import com.agrofarm.backend.AiChat.PromptBudget;
+import com.agrofarm.backend.AiChat.PromptBudget.Prompt;
+import com.agrofarm.backend.dto.AgroSnapshot;
+import com.agrofarm.backend.dto.AgroTrend;
+import com.agrofarm.backend.dto.Vegetation;
+import com.agrofarm.backend.dto.ChatCompletion;
+import com.agrofarm.backend.dto.Polygon;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.agrofarm.backend.upstream.Futures;
+import com.agrofarm.backend.upstream.Priority;
+import com.agrofarm.backend.upstream.QuotaScheduler;
+import com.agrofarm.backend.upstream.UpstreamMetricsInterceptor;
+import com.agrofarm.backend.upstream.UpstreamUnavailableException;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import okhttp3.Call;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
+import okio.BufferedSource;
 
 @Service
 public class OpenAiService {
@@ -35,132 +49,339 @@ public class OpenAiService {
     @Value("${openai.api.key}")
     private String openAiApiKey;
 
-    @Value("${agro.api.key}")
-    private String agroApiKey;
+    @Value("${openai.api.url:https://api.openai.com/v1/chat/completions}")
+    private String openAiEndpoint;
 
-    private static final String OPENAI_ENDPOINT = "https://api.openai.com/v1/chat/completions";
+    private static final String CHAT_ONLY_PROMPT = "Ты дружелюбный цифровой помощник. Общайся понятно и по-человечески.";
+    private static final String DEFAULT_FIELD_QUESTION = "Дай рекомендации по текущему состоянию поля";
+    private static final String ADVICE_TEMPLATE =
+            "На основе следующих данных о полигоне дай очень краткую статистику по ключевым параметрам: температура почвы, влажность почвы, температура воздуха, влажность воздуха, давление и скорость ветра. " +
+            "В конце добавь 2-3 короткие рекомендации для агронома. " +
+            "Пожалуйста, используй простой и лаконичный стиль.\n";
+    private static final String POLYGON_ANALYSIS_PREFIX = "Дай агрономический анализ и рекомендации по следующей информации:\n";
 
-    private final OkHttpClient client = new OkHttpClient.Builder()
-            .connectTimeout(30, TimeUnit.SECONDS)
-            .writeTimeout(30, TimeUnit.SECONDS)
-            .readTimeout(60, TimeUnit.SECONDS)
-            .build();
+    @Value("${openai.model:gpt-4}")
+    private String model;
+
+    @Autowired
+    @Qualifier("openAiHttpClient")
+    private OkHttpClient client;
+
+    // Квота OpenAI: ответы пользователю идут вперёд пакетного анализа и прогрева
+    @Autowired
+    @Qualifier("openAiQuotaScheduler")
+    private QuotaScheduler quota;
+
+    // Таймаут на весь обычный (не потоковый) вызов; у потока его нет — там работает read-timeout между кусками
+    @Value("${upstream.openai.completion-timeout-ms:90000}")
+    private long completionTimeoutMs;
 
     private final ObjectMapper mapper = new ObjectMapper();
 
     @Autowired
     private AgroMonitoringService agroMonitoringService;
 
-    private final Map<String, List<ChatMessage>> conversationHistory = new ConcurrentHashMap<>();
+    @Autowired
+    private PolygonCatalog polygonCatalog;
+
+    @Autowired
+    private AgroTrendService agroTrendService;
+
+    @Autowired
+    private VegetationService vegetationService;
+
+    @Autowired
+    private ConversationMemory conversationMemory;
+
+    @Autowired
+    private PromptBudget promptBudget;
+
+    @Autowired
+    private AdviceCache adviceCache;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Сборка промпта (история диалога, ряды, подсчёт токенов) и запись ответа в историю — здесь,
+    // а не в потоке, завершившем предыдущий этап (колбэк OkHttp, таймер дедлайна снимка)
+    @Autowired
+    @Qualifier("promptExecutor")
+    private ExecutorService promptExecutor;
 
     public String askWithSoilAndWeather(String polygonId, String userMessage) throws IOException {
+        return Futures.await(askWithSoilAndWeatherAsync(polygonId, userMessage));
+    }
+
+    // Без блокировки потока: ожидание agromonitoring и OpenAI идёт на колбэках OkHttp,
+    // работа с диском и подсчёт токенов — в promptExecutor. Отмена future (клиент отключился, таймаут запроса) отменяет HTTP-вызовы.
+    public CompletableFuture<String> askWithSoilAndWeatherAsync(String polygonId, String userMessage) {
         if (polygonId == null || polygonId.isBlank()) {
-            return askChatOnly("anonymous", userMessage);
+            return askChatOnlyAsync("anonymous", userMessage);
         }
 
         if (userMessage == null || userMessage.isBlank()) {
-            userMessage = "Дай рекомендации по текущему состоянию поля";
+            userMessage = DEFAULT_FIELD_QUESTION;
         }
 
-        return answerWithAgroData(polygonId, userMessage);
+        return answerWithAgroDataAsync(polygonId, userMessage);
     }
 
+    // Потоковый вариант askWithSoilAndWeather: куски ответа уходят в onDelta по мере генерации,
+    // полный ответ возвращается и сохраняется в историю после окончания потока.
+    // onCall получает вызов OpenAI до его начала — через него вызывающий обрывает поток
+    public String streamWithSoilAndWeather(String polygonId, String userMessage, Consumer<String> onDelta,
+                                           Consumer<Call> onCall) throws IOException {
+        if (polygonId == null || polygonId.isBlank()) {
+            return streamOpenAiWithContext("anonymous", CHAT_ONLY_PROMPT, userMessage, onDelta, onCall);
+        }
+
+        if (userMessage == null || userMessage.isBlank()) {
+            userMessage = DEFAULT_FIELD_QUESTION;
+        }
+
+        AgroSnapshot snapshot = agroMonitoringService.fetchAgroSnapshot(polygonId);
+        try {
+            return streamOpenAiWithContext(polygonId, buildAgroSystemPrompt(polygonId, snapshot), userMessage, onDelta, onCall);
+        } catch (UpstreamUnavailableException e) {
+            String answer = withoutAdvice(snapshot.toPromptString());
+            onDelta.accept(answer);
+            return answer;
+        }
+    }
+
+    // Если OpenAI недоступен (предохранитель, лимит), отвечаем хотя бы агроданными без рекомендаций
     public String answerWithAgroData(String polygonId, String userMessage) throws IOException {
-        String polygonsJson = agroMonitoringService.listPolygons();
-        JsonNode polygons = mapper.readTree(polygonsJson);
-
-        String polygonName = polygonId;
-        for (JsonNode p : polygons) {
-            if (polygonId.equals(p.path("id").asText())) {
-                polygonName = p.has("name") ? p.get("name").asText() : polygonId;
-                break;
-            }
+        return Futures.await(answerWithAgroDataAsync(polygonId, userMessage));
+    }
+
+    public CompletableFuture<String> answerWithAgroDataAsync(String polygonId, String userMessage) {
+        return Futures.composeCancellableAsync(agroMonitoringService.fetchAgroSnapshotAsync(polygonId), snapshot ->
+                Futures.handle(callOpenAiWithContextAsync(polygonId, buildAgroSystemPrompt(polygonId, snapshot), userMessage),
+                        (reply, e) -> {
+                            if (e == null) {
+                                return reply;
+                            }
+                            if (e instanceof UpstreamUnavailableException) {
+                                return withoutAdvice(snapshot.toPromptString());
+                            }
+                            throw new CompletionException(e);
+                        }), promptExecutor);
+    }
+
+    public String askChatOnly(String sessionId, String userMessage) throws IOException {
+        return Futures.await(askChatOnlyAsync(sessionId, userMessage));
+    }
+
+    public CompletableFuture<String> askChatOnlyAsync(String sessionId, String userMessage) {
+        return Futures.composeCancellableAsync(CompletableFuture.completedFuture(null), v ->
+                callOpenAiWithContextAsync(sessionId, CHAT_ONLY_PROMPT, userMessage), promptExecutor);
+    }
+
+    // Название полигона нужно только для текста промпта: пока каталог не загружен, обойдёмся его id
+    private String buildAgroSystemPrompt(String polygonId, AgroSnapshot snapshot) {
+        String polygonName = polygonCatalog.getNameIfLoaded(polygonId);
+        Vegetation vegetation = vegetationService.vegetation(polygonId);
+        String prompt = agroSystemPrompt(polygonName, polygonId, snapshot, agroTrendService.trend(polygonId), vegetation);
+        // Сверх лимита первой жертвой идёт динамика, затем снимки: текущие значения важнее всего
+        if (!promptBudget.fitsSystem(prompt)) {
+            prompt = agroSystemPrompt(polygonName, polygonId, snapshot, AgroTrend.EMPTY, vegetation);
         }
+        if (!promptBudget.fitsSystem(prompt)) {
+            prompt = agroSystemPrompt(polygonName, polygonId, snapshot, AgroTrend.EMPTY, Vegetation.EMPTY);
+        }
+        return prompt;
+    }
 
-        String soilText = formatSoilData(agroMonitoringService.getSoilData(polygonId));
-        String weatherText = formatWeatherData(agroMonitoringService.getWeatherData(polygonId));
+    static String agroSystemPrompt(String polygonName, String polygonId, AgroSnapshot snapshot, AgroTrend trend,
+                                   Vegetation vegetation) {
+        String soilText = snapshot.soilPromptString();
+        String weatherText = snapshot.weatherPromptString();
+        String trendText = trend.toPromptString();
+        String vegetationText = vegetation.toPromptString();
 
-        String systemPrompt = String.format("""
+        return String.format("""
             Ты — цифровой агроном. Помогаешь пользователю управлять полем.
             Полигон: '%s' (ID: %s)
             Данные почвы: %s
             Данные погоды: %s
+            Динамика: %s
+            Вегетация: %s
             Отвечай просто и по делу.
-            """, polygonName, polygonId, soilText, weatherText);
-
-        return callOpenAiWithContext(polygonId, systemPrompt, userMessage);
-    }
-
-    public String askChatOnly(String sessionId, String userMessage) throws IOException {
-        String systemPrompt = "Ты дружелюбный цифровой помощник. Общайся понятно и по-человечески.";
-        return callOpenAiWithContext(sessionId, systemPrompt, userMessage);
+            """, polygonName, polygonId, soilText, weatherText, trendText, vegetationText);
     }
 
     public String getPolygonInfo(String polygonId) throws IOException {
-        String apiUrl = "https://api.agromonitoring.com/agro/1.0/polygons/" + polygonId + "?appid=" + agroApiKey;
-        HttpURLConnection conn = (HttpURLConnection) new URL(apiUrl).openConnection();
-        conn.setRequestMethod("GET");
-    
-        int responseCode = conn.getResponseCode();
-        if (responseCode != 200) {
-            return "Ошибка получения данных полигона: HTTP " + responseCode;
-        }
+        Polygon polygon = agroMonitoringService.getPolygon(polygonId);
+
+        String name = polygon.getName();
+        double area = polygon.getArea();
+        long createdUnix = polygon.getCreatedAt();
+        String createdAt = createdUnix > 0 ? Instant.ofEpochSecond(createdUnix).toString() : "Неизвестно";
+
+        return String.format(
+                "Название полигона: %s\nПлощадь: %.2f м²\nСоздан: %s",
+                name, area, createdAt
+        );
+    }
     
-        try (BufferedReader in = new BufferedReader(new InputStreamReader(conn.getInputStream()))) {
-            StringBuilder content = new StringBuilder();
-            String inputLine;
-            while ((inputLine = in.readLine()) != null) {
-                content.append(inputLine);
+    private CompletableFuture<String> callOpenAiWithContextAsync(String sessionId, String systemPrompt, String userMessage) {
+        Prompt prompt = fitPrompt("chat", systemPrompt, conversationMemory.history(sessionId), userMessage);
+
+        ObjectNode requestJson = buildChatRequest(prompt);
+
+        Request request = UpstreamMetricsInterceptor.endpoint(new Request.Builder(), "chat")
+                .url(openAiEndpoint)
+                .addHeader("Authorization", "Bearer " + openAiApiKey)
+                .addHeader("Content-Type", "application/json")
+                .post(RequestBody.create(requestJson.toString(), MediaType.parse("application/json")))
+                .build();
+
+        CompletableFuture<Reply> call = quota.execute(Priority.INTERACTIVE, newCompletionCall(request), response -> {
+            if (!response.isSuccessful()) {
+                String body = response.body() != null ? response.body().string() : "Пустой ответ";
+                return new Reply("Ошибка OpenAI: " + response.code() + " - " + body, false);
             }
-    
-            JsonNode root = mapper.readTree(content.toString());
-    
-            String name = root.path("name").asText("Неизвестно");
-            double area = root.path("area").asDouble(0.0);
-            long createdUnix = root.path("created_at").asLong(0);
-            String createdAt = createdUnix > 0 ? Instant.ofEpochSecond(createdUnix).toString() : "Неизвестно";
-    
-            return String.format(
-                    "Название полигона: %s\nПлощадь: %.2f м²\nСоздан: %s",
-                    name, area, createdAt
-            );
-        }
+
+            ChatCompletion completion = UpstreamJsonParser.parseCompletion(response.body().byteStream());
+            recordUsage("chat", completion);
+            return new Reply(completion.getContent(), true);
+        });
+        // Запись в историю (файловое хранилище с блокировкой) — не в потоке OkHttp
+        return Futures.composeCancellableAsync(call, reply -> {
+            if (reply.answered()) {
+                conversationMemory.append(sessionId, new ChatMessage("user", userMessage), new ChatMessage("assistant", reply.text()));
+            }
+            return CompletableFuture.completedFuture(reply.text());
+        }, promptExecutor);
     }
-    
-    private String callOpenAiWithContext(String sessionId, String systemPrompt, String userMessage) throws IOException {
-        List<ChatMessage> history = conversationHistory.computeIfAbsent(sessionId, k -> new ArrayList<>());
 
-        ObjectNode requestJson = mapper.createObjectNode();
-        requestJson.put("model", "gpt-4");
-        ArrayNode messagesNode = requestJson.putArray("messages");
+    // Текст для пользователя; answered — ответ модели, а не сообщение об ошибке, и он идёт в историю
+    private record Reply(String text, boolean answered) {
+    }
 
-        messagesNode.add(createMessage("system", systemPrompt));
-        for (ChatMessage msg : history) {
-            messagesNode.add(createMessage(msg.getRole(), msg.getContent()));
-        }
-        messagesNode.add(createMessage("user", userMessage));
+    // stream=true: OpenAI присылает ответ кусками в формате SSE ("data: {...}" ... "data: [DONE]")
+    private String streamOpenAiWithContext(String sessionId, String systemPrompt, String userMessage,
+                                           Consumer<String> onDelta, Consumer<Call> onCall) throws IOException {
+        Prompt prompt = fitPrompt("chat_stream", systemPrompt, conversationMemory.history(sessionId), userMessage);
+
+        ObjectNode requestJson = buildChatRequest(prompt);
+        requestJson.put("stream", true);
+        // Последним куском OpenAI пришлёт usage — иначе расход токенов потока не узнать
+        requestJson.putObject("stream_options").put("include_usage", true);
 
-        Request request = new Request.Builder()
-                .url(OPENAI_ENDPOINT)
+        Request request = UpstreamMetricsInterceptor.endpoint(new Request.Builder(), "chat_stream")
+                .url(openAiEndpoint)
                 .addHeader("Authorization", "Bearer " + openAiApiKey)
-                .addHeader("Content-Type", "application/json")
+                .addHeader("Accept", "text/event-stream")
                 .post(RequestBody.create(requestJson.toString(), MediaType.parse("application/json")))
                 .build();
 
-        try (Response response = client.newCall(request).execute()) {
+        // Поток синхронный: токен квоты ждём здесь, повтор после 429 не делаем — часть ответа могла уйти клиенту
+        Futures.await(quota.acquire(Priority.INTERACTIVE));
+        Call call = client.newCall(request);
+        onCall.accept(call);
+        try (Response response = call.execute()) {
+            if (response.code() == 429) {
+                throw new UpstreamUnavailableException("openai", "openai перегружен: квота запросов исчерпана (HTTP 429)");
+            }
             if (!response.isSuccessful()) {
-                return "Ошибка OpenAI: " + response.code() + " - " + (response.body() != null ? response.body().string() : "Пустой ответ");
+                throw new IOException("Ошибка OpenAI: " + response.code() + " - " + (response.body() != null ? response.body().string() : "Пустой ответ"));
             }
 
-            String body = response.body().string();
-            JsonNode jsonResponse = mapper.readTree(body);
-            String reply = jsonResponse.path("choices").get(0).path("message").path("content").asText();
+            StringBuilder reply = new StringBuilder();
+            BufferedSource source = response.body().source();
+            String line;
+            while ((line = source.readUtf8Line()) != null) {
+                if (!line.startsWith("data:")) {
+                    continue;
+                }
+                String data = line.substring(5).trim();
+                if ("[DONE]".equals(data)) {
+                    break;
+                }
+
+                ChatCompletion chunk = UpstreamJsonParser.parseStreamChunk(data);
+                String delta = chunk.getContent();
+                if (delta != null && !delta.isEmpty()) {
+                    reply.append(delta);
+                    onDelta.accept(delta);
+                }
+                recordUsage("chat_stream", chunk);
+            }
+
+            conversationMemory.append(sessionId, new ChatMessage("user", userMessage), new ChatMessage("assistant", reply.toString()));
+
+            return reply.toString();
+        }
+    }
+
+    // Прогрев: TLS и HTTP/2-соединение с OpenAI без платного запроса. HEAD на chat/completions
+    // отвечает 4xx без тела — код (он и возвращается) не важен, соединение остаётся в общем пуле.
+    // Запрос всё же идёт через квоту, как и все остальные, — фоновым
+    public int warmUpConnection() throws IOException {
+        Request request = UpstreamMetricsInterceptor.endpoint(new Request.Builder(), "warmup")
+                .url(openAiEndpoint)
+                .head()
+                .build();
+        Futures.await(quota.acquire(Priority.BACKGROUND));
+        try (Response response = newCompletionCall(request).execute()) {
+            return response.code();
+        }
+    }
 
-            history.add(new ChatMessage("user", userMessage));
-            history.add(new ChatMessage("assistant", reply));
+    // Счётчики openai.tokens{type=prompt|completion, operation} по полю usage ответа
+    private void recordUsage(String operation, ChatCompletion completion) {
+        if (completion.getPromptTokens() > 0) {
+            meterRegistry.counter("openai.tokens", "type", "prompt", "operation", operation)
+                    .increment(completion.getPromptTokens());
+        }
+        if (completion.getCompletionTokens() > 0) {
+            meterRegistry.counter("openai.tokens", "type", "completion", "operation", operation)
+                    .increment(completion.getCompletionTokens());
+        }
+    }
+
+    private Call newCompletionCall(Request request) {
+        Call call = client.newCall(request);
+        call.timeout().timeout(completionTimeoutMs, TimeUnit.MILLISECONDS);
+        return call;
+    }
 
-            return reply;
+    // Запрос укладывается в окно контекста (см. PromptBudget); размер и ужатие видны в метриках
+    private Prompt fitPrompt(String operation, String systemPrompt, List<ChatMessage> history, String userMessage) {
+        Prompt prompt = promptBudget.fit(systemPrompt, history, userMessage);
+        DistributionSummary.builder("ai.prompt.tokens")
+                .description("Размер запроса к OpenAI по локальному подсчёту, токены")
+                .tag("operation", operation)
+                .register(meterRegistry)
+                .record(prompt.tokens());
+        if (prompt.droppedMessages() > 0) {
+            meterRegistry.counter("ai.prompt.trimmed", "part", "history_dropped", "operation", operation)
+                    .increment(prompt.droppedMessages());
+        }
+        if (prompt.compressedMessages() > 0) {
+            meterRegistry.counter("ai.prompt.trimmed", "part", "history_compressed", "operation", operation)
+                    .increment(prompt.compressedMessages());
+        }
+        if (prompt.truncated()) {
+            meterRegistry.counter("ai.prompt.trimmed", "part", "text", "operation", operation).increment();
+        }
+        return prompt;
+    }
+
+    ObjectNode buildChatRequest(Prompt prompt) {
+        ObjectNode requestJson = mapper.createObjectNode();
+        requestJson.put("model", model);
+        // Ответ не может вылезти за окно контекста: под него оставлен ровно этот запас
+        requestJson.put("max_tokens", promptBudget.completionTokens());
+        ArrayNode messagesNode = requestJson.putArray("messages");
+
+        messagesNode.add(createMessage("system", prompt.systemPrompt()));
+        for (ChatMessage msg : prompt.history()) {
+            messagesNode.add(createMessage(msg.getRole(), msg.getContent()));
         }
+        messagesNode.add(createMessage("user", prompt.userMessage()));
+        return requestJson;
     }
 
     private ObjectNode createMessage(String role, String content) {
@@ -170,97 +391,85 @@ public class OpenAiService {
         return msg;
     }
 
-    private String formatSoilData(String soilJson) throws IOException {
-        JsonNode soil = mapper.readTree(soilJson);
-        List<String> details = new ArrayList<>();
-
-        if (soil.has("dt")) details.add("Дата: " + Instant.ofEpochSecond(soil.get("dt").asLong()));
-        if (soil.has("t0")) details.add("Температура поверхности: " + soil.get("t0").asDouble() + " K");
-        if (soil.has("t10")) details.add("Температура на 10 см: " + soil.get("t10").asDouble() + " K");
-        if (soil.has("moisture")) details.add("Влажность почвы: " + soil.get("moisture").asDouble());
-
-        return String.join(", ", details);
-    }
+    // Одиночный запрос без истории; при ошибке HTTP future завершается с IOException
+    private CompletableFuture<String> requestCompletionAsync(String prompt, Priority priority) {
+        ObjectNode requestJson = mapper.createObjectNode();
+        requestJson.put("model", model);
 
-    private String formatWeatherData(String weatherJson) throws IOException {
-        JsonNode weather = mapper.readTree(weatherJson);
-        List<String> details = new ArrayList<>();
+        ArrayNode messagesNode = requestJson.putArray("messages");
+        // Один системный запрос, который задаёт стиль и цель
+        messagesNode.add(createMessage("system", "Ты — цифровой агроном. Отвечай просто и кратко."));
+        // Пользовательский запрос — это наш prompt
+        messagesNode.add(createMessage("user", prompt));
 
-        if (weather.has("dt")) details.add("Дата: " + Instant.ofEpochSecond(weather.get("dt").asLong()));
+        Request request = UpstreamMetricsInterceptor.endpoint(new Request.Builder(), "advice")
+                .url(openAiEndpoint)
+                .addHeader("Authorization", "Bearer " + openAiApiKey)
+                .addHeader("Content-Type", "application/json")
+                .post(RequestBody.create(requestJson.toString(), MediaType.parse("application/json")))
+                .build();
 
-        JsonNode descNode = weather.path("weather");
-        if (descNode.isArray() && descNode.size() > 0) {
-            details.add("Погода: " + descNode.get(0).path("description").asText());
-        }
+        return quota.execute(priority, newCompletionCall(request), response -> {
+            if (!response.isSuccessful()) {
+                throw new IOException("Ошибка OpenAI: " + response.code() + " - " + (response.body() != null ? response.body().string() : "Пустой ответ"));
+            }
 
-        JsonNode main = weather.path("main");
-        if (main.has("temp")) details.add("Температура: " + main.get("temp").asDouble() + " K");
-        if (main.has("humidity")) details.add("Влажность: " + main.get("humidity").asInt() + "%");
-        if (main.has("pressure")) details.add("Давление: " + main.get("pressure").asInt() + " гПа");
+            ChatCompletion completion = UpstreamJsonParser.parseCompletion(response.body().byteStream());
+            recordUsage("advice", completion);
+            return completion.getContent();
+        });
+    }
 
-        JsonNode wind = weather.path("wind");
-        if (wind.has("speed")) details.add("Ветер: " + wind.get("speed").asDouble() + " м/с");
+    // Анализ по снимку агроданных. В ключ кэша идут округлённые значения без дат,
+    // поэтому повторный просмотр поля с неизменившимися данными не вызывает OpenAI.
+    // Неполные снимки не кэшируются, чтобы ответ без части данных не залипал до конца TTL.
+    // Ошибки OpenAI превращаются в текст ответа, так что future завершается с ошибкой только при отмене
+    public CompletableFuture<String> getAgronomicAdviceAsync(AgroSnapshot snapshot) {
+        return getAgronomicAdviceAsync(snapshot, Priority.INTERACTIVE);
+    }
 
-        return String.join(", ", details);
+    // priority — очерёдность в квоте OpenAI; пакетный анализ уступает ответам в чате
+    public CompletableFuture<String> getAgronomicAdviceAsync(AgroSnapshot snapshot, Priority priority) {
+        String template = ADVICE_TEMPLATE + POLYGON_ANALYSIS_PREFIX;
+        return adviceForAsync(template, snapshot.toPromptString(), snapshot.isComplete() ? snapshot.normalizedKey() : null,
+                priority);
     }
 
-    private String callOpenAiApi(String prompt) {
-        try {
-            ObjectNode requestJson = mapper.createObjectNode();
-            requestJson.put("model", "gpt-4");
-    
-            ArrayNode messagesNode = requestJson.putArray("messages");
-            // Один системный запрос, который задаёт стиль и цель
-            messagesNode.add(createMessage("system", "Ты — цифровой агроном. Отвечай просто и кратко."));
-            // Пользовательский запрос — это наш prompt
-            messagesNode.add(createMessage("user", prompt));
-    
-            Request request = new Request.Builder()
-                    .url(OPENAI_ENDPOINT)
-                    .addHeader("Authorization", "Bearer " + openAiApiKey)
-                    .addHeader("Content-Type", "application/json")
-                    .post(RequestBody.create(requestJson.toString(), MediaType.parse("application/json")))
-                    .build();
-    
-            try (Response response = client.newCall(request).execute()) {
-                if (!response.isSuccessful()) {
-                    return "Ошибка OpenAI: " + response.code() + " - " + (response.body() != null ? response.body().string() : "Пустой ответ");
-                }
-    
-                String body = response.body().string();
-                JsonNode jsonResponse = mapper.readTree(body);
-                return jsonResponse.path("choices").get(0).path("message").path("content").asText();
+    private CompletableFuture<String> adviceForAsync(String template, String agroData, String normalizedData,
+                                                     Priority priority) {
+        String prompt = template + agroData;
+        String key = normalizedData != null ? AdviceCache.key(model, template, normalizedData) : null;
+        if (key != null) {
+            String cached = adviceCache.get(key);
+            if (cached != null) {
+                return CompletableFuture.completedFuture(cached);
             }
-        } catch (IOException e) {
-            return "Ошибка вызова OpenAI: " + e.getMessage();
         }
+
+        return Futures.handle(requestCompletionAsync(prompt, priority), (advice, e) -> {
+            if (e == null) {
+                if (key != null) {
+                    adviceCache.put(key, advice);
+                }
+                return advice;
+            }
+            if (e instanceof UpstreamUnavailableException) {
+                return withoutAdvice(agroData);
+            }
+            if (e instanceof IOException) {
+                return e.getMessage() != null && e.getMessage().startsWith("Ошибка OpenAI")
+                        ? e.getMessage()
+                        : "Ошибка вызова OpenAI: " + e.getMessage();
+            }
+            throw new CompletionException(e);
+        });
     }
-    
-    public String getAgronomicAdvice(String agroData) {
-        String prompt = "На основе следующих данных о полигоне дай очень краткую статистику по ключевым параметрам: температура почвы, влажность почвы, температура воздуха, влажность воздуха, давление и скорость ветра. " +
-                        "В конце добавь 2-3 короткие рекомендации для агронома. " +
-                        "Пожалуйста, используй простой и лаконичный стиль.\n" + agroData;
-    
-        // вызов OpenAI с этим prompt
-        return callOpenAiApi(prompt);
+
+    private static String withoutAdvice(String agroData) {
+        return "Рекомендации ИИ временно недоступны. Данные поля:\n" + agroData;
     }
-    
 
     public Map<String, String> getPolygonsMap() throws IOException {
-        String polygonsJson = agroMonitoringService.listPolygons();
-        JsonNode polygons = mapper.readTree(polygonsJson);
-
-        Map<String, String> map = new HashMap<>();
-        if (polygons.isArray()) {
-            for (JsonNode p : polygons) {
-                String id = p.get("id").asText();
-                String name = p.has("name") ? p.get("name").asText() : id;
-                map.put(id, name);
-            }
-        }
-        return map;
+        return polygonCatalog.getPolygons();
     }
 }
-
-
-
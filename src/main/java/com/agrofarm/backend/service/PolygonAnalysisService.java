@@ -0,0 +1,102 @@
+package com.agrofarm.backend.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import com.agrofarm.backend.upstream.Futures;
+import com.agrofarm.backend.upstream.Priority;
+
+// Агрономический анализ полигона: агроданные + рекомендации GPT.
+// Пакетный режим прогоняет много полигонов через общий пул с ограниченным параллелизмом
+// и отдаёт результаты по мере готовности.
+@Service
+public class PolygonAnalysisService {
+
+    private final AgroMonitoringService agroMonitoringService;
+    private final OpenAiService openAiService;
+    private final PolygonCatalog polygonCatalog;
+    private final ExecutorService batchAnalysisExecutor;
+
+    public PolygonAnalysisService(AgroMonitoringService agroMonitoringService, OpenAiService openAiService,
+                                  PolygonCatalog polygonCatalog,
+                                  @Qualifier("batchAnalysisExecutor") ExecutorService batchAnalysisExecutor) {
+        this.agroMonitoringService = agroMonitoringService;
+        this.openAiService = openAiService;
+        this.polygonCatalog = polygonCatalog;
+        this.batchAnalysisExecutor = batchAnalysisExecutor;
+    }
+
+    // Без блокировки потока; отмена future отменяет запросы к agromonitoring и OpenAI
+    public CompletableFuture<String> analyzeAsync(String polygonId) {
+        return Futures.composeCancellable(agroMonitoringService.fetchAgroSnapshotAsync(polygonId),
+                openAiService::getAgronomicAdviceAsync);
+    }
+
+    // Анализ списка полигонов. sink вызывается в потоке вызывающего, по одному результату
+    // в порядке завершения; если sink бросает исключение (клиент отключился) — оставшиеся задачи отменяются.
+    public void analyzeAll(List<String> polygonIds, ResultSink sink) throws IOException {
+        CompletionService<Map<String, Object>> completion = new ExecutorCompletionService<>(batchAnalysisExecutor);
+        List<Future<Map<String, Object>>> futures = new ArrayList<>(polygonIds.size());
+        for (String polygonId : polygonIds) {
+            futures.add(completion.submit(() -> analyzeForBatch(polygonId)));
+        }
+
+        int failed = 0;
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                Map<String, Object> result = completion.take().get();
+                if (result.containsKey("error")) {
+                    failed++;
+                }
+                sink.accept(result);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Пакетный анализ прерван", e);
+        } catch (ExecutionException e) {
+            // analyzeForBatch сам ловит ошибки, сюда попадаем только при сбое пула
+            throw new IOException("Ошибка пакетного анализа", e.getCause());
+        } finally {
+            for (Future<Map<String, Object>> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("done", true);
+        summary.put("total", polygonIds.size());
+        summary.put("failed", failed);
+        sink.accept(summary);
+    }
+
+    private Map<String, Object> analyzeForBatch(String polygonId) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("polygonId", polygonId);
+        try {
+            result.put("name", polygonCatalog.getName(polygonId));
+            // Пакетный приоритет в квотах обоих upstream: чат не ждёт, пока разойдётся пачка
+            result.put("advice", Futures.await(Futures.composeCancellable(
+                    agroMonitoringService.fetchAgroSnapshotAsync(polygonId, Priority.BATCH),
+                    snapshot -> openAiService.getAgronomicAdviceAsync(snapshot, Priority.BATCH))));
+        } catch (Exception e) {
+            result.put("error", "Ошибка: " + e.getMessage());
+        }
+        return result;
+    }
+
+    public interface ResultSink {
+        void accept(Map<String, Object> result) throws IOException;
+    }
+}
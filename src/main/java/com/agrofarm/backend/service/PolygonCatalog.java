@@ -0,0 +1,233 @@
+package com.agrofarm.backend.service;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.agrofarm.backend.dto.Polygon;
+import com.agrofarm.backend.geo.SpatialIndex;
+
+import jakarta.annotation.PreDestroy;
+
+// Кэш каталога полигонов: id -> название.
+// Список живёт ttl, после refresh-ahead доли ttl обновляется в фоне; по истечении ttl до конца
+// фонового обновления отдаётся прежний список, но не дольше max-stale: дальше запрос ждёт одну общую загрузку.
+// После неудачной загрузки следующая начинается не раньше чем через retry-seconds.
+// Вместе со списком пересобирается R-дерево по контурам полей: поиск поля по точке
+// и полей в радиусе тоже обходится без запросов к API.
+@Service
+public class PolygonCatalog {
+
+    private static final Logger log = LoggerFactory.getLogger(PolygonCatalog.class);
+
+    private final AgroMonitoringService agroMonitoringService;
+
+    private final long ttlMillis;
+    private final long refreshAheadMillis;
+    private final long maxStaleMillis;
+    private final long retryMillis;
+
+    private final ExecutorService refresher = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "polygon-catalog-refresh");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    private volatile Snapshot snapshot;
+    // Раньше этого момента после неудачной загрузки список заново не запрашивается
+    private volatile long retryAt;
+
+    public PolygonCatalog(AgroMonitoringService agroMonitoringService,
+                          @Value("${agro.polygons.ttl-seconds:600}") long ttlSeconds,
+                          @Value("${agro.polygons.refresh-ahead-ratio:0.8}") double refreshAheadRatio,
+                          @Value("${agro.polygons.max-stale-seconds:3600}") long maxStaleSeconds,
+                          @Value("${agro.polygons.retry-seconds:30}") long retrySeconds) {
+        this.agroMonitoringService = agroMonitoringService;
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+        this.refreshAheadMillis = (long) (ttlMillis * Math.min(refreshAheadRatio, 1.0));
+        this.maxStaleMillis = Math.max(ttlMillis, TimeUnit.SECONDS.toMillis(maxStaleSeconds));
+        this.retryMillis = TimeUnit.SECONDS.toMillis(retrySeconds);
+    }
+
+    // Все полигоны в порядке, в котором их вернул API
+    public Map<String, String> getPolygons() throws IOException {
+        return current().names;
+    }
+
+    // Название полигона по id; если полигон неизвестен — сам id
+    public String getName(String polygonId) throws IOException {
+        return current().names.getOrDefault(polygonId, polygonId);
+    }
+
+    // Полигон целиком (площадь, дата создания) или null, если его нет в каталоге
+    public Polygon getPolygon(String polygonId) throws IOException {
+        return current().polygons.get(polygonId);
+    }
+
+    public Collection<Polygon> getAll() throws IOException {
+        return current().polygons.values();
+    }
+
+    // Поля, внутри которых лежит точка (обычно одно; несколько — если контуры пересекаются)
+    public List<Polygon> locate(double lat, double lon) throws IOException {
+        return current().index.containing(lon, lat);
+    }
+
+    // Поля не дальше radiusKm от точки (расстояние до границы, 0 — точка внутри), ближайшие первыми
+    public List<SpatialIndex.Hit<Polygon>> nearby(double lat, double lon, double radiusKm, int limit) throws IOException {
+        return current().index.within(lon, lat, radiusKm, limit);
+    }
+
+    // Название без ожидания сети: пока список не загружен — сам id, а загрузка уходит в фон
+    public String getNameIfLoaded(String polygonId) {
+        Snapshot s = snapshotIfLoaded();
+        return s != null ? s.names.getOrDefault(polygonId, polygonId) : polygonId;
+    }
+
+    // id полигонов без ожидания сети; null, пока список не загружен или слишком устарел
+    public Set<String> idsIfLoaded() {
+        Snapshot s = snapshotIfLoaded();
+        return s != null ? s.names.keySet() : null;
+    }
+
+    public boolean containsIfLoaded(String polygonId) {
+        Set<String> ids = idsIfLoaded();
+        return ids != null && ids.contains(polygonId);
+    }
+
+    public boolean contains(String polygonId) throws IOException {
+        return current().names.containsKey(polygonId);
+    }
+
+    // Сбросить кэш: следующий запрос заново загрузит список
+    public void invalidate() {
+        snapshot = null;
+    }
+
+    // Принудительно перезагрузить список прямо сейчас
+    public Map<String, String> refresh() throws IOException {
+        return reload().names;
+    }
+
+    private Snapshot current() throws IOException {
+        Snapshot s = snapshot;
+        if (s == null || expired(s)) {
+            return loadIfExpired();
+        }
+        refreshIfAging(s);
+        return s;
+    }
+
+    // Загруженный и не слишком устаревший список или null; сам в сеть не ходит, только запускает фоновую загрузку
+    private Snapshot snapshotIfLoaded() {
+        Snapshot s = snapshot;
+        if (s == null || expired(s)) {
+            refreshInBackground();
+            return null;
+        }
+        refreshIfAging(s);
+        return s;
+    }
+
+    // Истёкший ttl тоже обновляется в фоне: загрузка каталога под блокировкой выстроила бы
+    // в очередь все запросы. Устаревший список лучше ожидания, пока он не старше max-stale
+    private void refreshIfAging(Snapshot s) {
+        if (System.currentTimeMillis() - s.loadedAt >= refreshAheadMillis) {
+            refreshInBackground();
+        }
+    }
+
+    private boolean expired(Snapshot s) {
+        return System.currentTimeMillis() - s.loadedAt >= maxStaleMillis;
+    }
+
+    // Одна загрузка на всех ждущих: остальные после блокировки получают уже свежий список.
+    // В паузе после неудачи сразу отказ, без запроса к API
+    private synchronized Snapshot loadIfExpired() throws IOException {
+        Snapshot s = snapshot;
+        if (s != null && !expired(s)) {
+            return s;
+        }
+        if (System.currentTimeMillis() < retryAt) {
+            throw new IOException("Список полигонов недоступен: повтор загрузки после паузы");
+        }
+        return reload();
+    }
+
+    private synchronized Snapshot reload() throws IOException {
+        List<Polygon> list;
+        try {
+            list = agroMonitoringService.listPolygons();
+        } catch (IOException | RuntimeException e) {
+            retryAt = System.currentTimeMillis() + retryMillis;
+            throw e;
+        }
+        retryAt = 0;
+
+        Map<String, Polygon> polygons = new LinkedHashMap<>();
+        Map<String, String> names = new LinkedHashMap<>();
+        for (Polygon p : list) {
+            polygons.put(p.getId(), p);
+            names.put(p.getId(), p.getName());
+        }
+
+        SpatialIndex<Polygon> index = SpatialIndex.build(polygons.values(), Polygon::getGeometry);
+        if (index.size() < polygons.size()) {
+            log.debug("Без геометрии в пространственный индекс не попали {} полигонов", polygons.size() - index.size());
+        }
+
+        Snapshot s = new Snapshot(Collections.unmodifiableMap(polygons), Collections.unmodifiableMap(names),
+                index, System.currentTimeMillis());
+        snapshot = s;
+        return s;
+    }
+
+    private void refreshInBackground() {
+        if (System.currentTimeMillis() < retryAt || !refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        refresher.execute(() -> {
+            try {
+                reload();
+            } catch (IOException e) {
+                log.warn("Фоновое обновление списка полигонов не удалось: {}", e.getMessage());
+            } finally {
+                refreshing.set(false);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refresher.shutdownNow();
+    }
+
+    private static final class Snapshot {
+        private final Map<String, Polygon> polygons;
+        private final Map<String, String> names;
+        private final SpatialIndex<Polygon> index;
+        private final long loadedAt;
+
+        private Snapshot(Map<String, Polygon> polygons, Map<String, String> names, SpatialIndex<Polygon> index,
+                         long loadedAt) {
+            this.polygons = polygons;
+            this.names = names;
+            this.index = index;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
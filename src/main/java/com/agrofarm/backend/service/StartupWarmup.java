@@ -0,0 +1,163 @@
+package com.agrofarm.backend.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import com.agrofarm.backend.AiChat.ChatMessage;
+import com.agrofarm.backend.AiChat.PromptBudget;
+import com.agrofarm.backend.dto.AgroSnapshot;
+import com.agrofarm.backend.dto.AgroTrend;
+import com.agrofarm.backend.dto.Polygon;
+import com.agrofarm.backend.dto.Vegetation;
+import com.agrofarm.backend.upstream.Priority;
+
+// Прогрев перед приёмом трафика: каталог полигонов, соединения с agromonitoring и OpenAI
+// (TLS и HTTP/2 поднимаются здесь, а не на первом запросе пользователя), агроданные первых полигонов
+// и многократный прогон разбора JSON и сборки промпта, чтобы горячие пути успел скомпилировать JIT.
+//
+// ApplicationRunner выполняется до того, как Spring Boot переводит readiness в ACCEPTING_TRAFFIC,
+// поэтому /actuator/health/readiness отвечает OUT_OF_SERVICE, пока прогрев не закончится.
+// Ошибки upstream старт не ломают: сервис поднимается и работает в деградированном режиме.
+// Флаг проверяется здесь, а не условием на бин, чтобы его можно было менять и в AOT-сборке.
+@Component
+public class StartupWarmup implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(StartupWarmup.class);
+
+    // Ответ chat/completions в той же форме, что у OpenAI, — для прогона парсера без платного запроса
+    private static final byte[] SAMPLE_COMPLETION = """
+            {"id":"chatcmpl-warmup","object":"chat.completion","model":"gpt-4",
+             "choices":[{"index":0,"message":{"role":"assistant","content":"Полив не требуется."},"finish_reason":"stop"}],
+             "usage":{"prompt_tokens":120,"completion_tokens":8,"total_tokens":128}}
+            """.getBytes(StandardCharsets.UTF_8);
+    private static final String SAMPLE_CHUNK =
+            "{\"choices\":[{\"index\":0,\"delta\":{\"content\":\"Полив\"}}],\"usage\":null}";
+
+    private final PolygonCatalog polygonCatalog;
+    private final AgroMonitoringService agroMonitoringService;
+    private final OpenAiService openAiService;
+    private final PromptBudget promptBudget;
+
+    private final boolean enabled;
+    private final int polygons;
+    private final int iterations;
+    private final long timeoutMillis;
+
+    public StartupWarmup(PolygonCatalog polygonCatalog, AgroMonitoringService agroMonitoringService,
+                         OpenAiService openAiService, PromptBudget promptBudget,
+                         @Value("${app.warmup.enabled:true}") boolean enabled,
+                         @Value("${app.warmup.polygons:3}") int polygons,
+                         @Value("${app.warmup.iterations:500}") int iterations,
+                         @Value("${app.warmup.timeout-ms:20000}") long timeoutMillis) {
+        this.polygonCatalog = polygonCatalog;
+        this.agroMonitoringService = agroMonitoringService;
+        this.openAiService = openAiService;
+        this.promptBudget = promptBudget;
+        this.enabled = enabled;
+        this.polygons = polygons;
+        this.iterations = iterations;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (enabled) {
+            warmUp();
+        }
+    }
+
+    public void warmUp() {
+        long startedAt = System.nanoTime();
+        long deadline = startedAt + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+        // Соединение с OpenAI поднимается параллельно с загрузкой каталога
+        CompletableFuture<Void> openAi = CompletableFuture.runAsync(() -> {
+            try {
+                log.debug("Прогрев: OpenAI ответил {} на HEAD", openAiService.warmUpConnection());
+            } catch (IOException e) {
+                log.warn("Прогрев: соединение с OpenAI не установлено: {}", e.getMessage());
+            }
+        });
+
+        List<AgroSnapshot> snapshots = new ArrayList<>();
+        List<Polygon> sample = new ArrayList<>();
+        try {
+            polygonCatalog.refresh();
+            Iterator<Polygon> it = polygonCatalog.getAll().iterator();
+            while (sample.size() < polygons && it.hasNext()) {
+                sample.add(it.next());
+            }
+            List<CompletableFuture<AgroSnapshot>> loads = new ArrayList<>();
+            for (Polygon polygon : sample) {
+                loads.add(agroMonitoringService.fetchAgroSnapshotAsync(polygon.getId(), Priority.BATCH));
+            }
+            for (CompletableFuture<AgroSnapshot> load : loads) {
+                snapshots.add(load.get(remainingMillis(deadline), TimeUnit.MILLISECONDS));
+            }
+        } catch (IOException | ExecutionException e) {
+            log.warn("Прогрев: агроданные не загружены: {}", e.getMessage());
+        } catch (TimeoutException e) {
+            log.warn("Прогрев: агроданные не успели за {} мс", timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        int exercised = exerciseHotPaths(snapshots.isEmpty() ? null : snapshots.get(0),
+                sample.isEmpty() ? null : sample.get(0), deadline);
+
+        try {
+            openAi.get(remainingMillis(deadline), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            log.warn("Прогрев: соединение с OpenAI не успело за {} мс", timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        log.info("Прогрев за {} мс: полигонов {}, агроданных {}, прогонов JSON/промпта {}",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt), sample.size(), snapshots.size(), exercised);
+    }
+
+    // Разбор ответа OpenAI и сборка запроса с историей — без сети; прерывается по дедлайну
+    private int exerciseHotPaths(AgroSnapshot snapshot, Polygon polygon, long deadline) {
+        AgroSnapshot data = snapshot != null ? snapshot : new AgroSnapshot(null, null);
+        String name = polygon != null ? polygon.getName() : "warmup";
+        String id = polygon != null ? polygon.getId() : "warmup";
+        List<ChatMessage> history = List.of(
+                new ChatMessage("user", "Нужен ли полив на этой неделе?"),
+                new ChatMessage("assistant", "Влажность почвы в норме, полив не требуется."));
+
+        int i = 0;
+        try {
+            for (; i < iterations && System.nanoTime() < deadline; i++) {
+                UpstreamJsonParser.parseCompletion(new ByteArrayInputStream(SAMPLE_COMPLETION));
+                UpstreamJsonParser.parseStreamChunk(SAMPLE_CHUNK);
+                data.normalizedKey();
+                String systemPrompt = OpenAiService.agroSystemPrompt(name, id, data, AgroTrend.EMPTY, Vegetation.EMPTY);
+                openAiService.buildChatRequest(promptBudget.fit(systemPrompt, history, "Что делать с полем?")).toString();
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Прогрев горячих путей остановлен: {}", e.toString());
+        }
+        return i;
+    }
+
+    private static long remainingMillis(long deadline) {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+    }
+}
@@ -0,0 +1,425 @@
+package com.agrofarm.backend.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.agrofarm.backend.dto.ChatCompletion;
+import com.agrofarm.backend.dto.ImageryScene;
+import com.agrofarm.backend.dto.Polygon;
+import com.agrofarm.backend.dto.SoilData;
+import com.agrofarm.backend.dto.WeatherData;
+import com.agrofarm.backend.geo.PolygonGeometry;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+// Разбор ответов agromonitoring и OpenAI потоковым API Jackson прямо из тела ответа:
+// без промежуточной строки и дерева JsonNode, ненужные поля пропускаются целиком.
+public final class UpstreamJsonParser {
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private UpstreamJsonParser() {
+    }
+
+    public static SoilData parseSoil(InputStream in) throws IOException {
+        try (JsonParser p = FACTORY.createParser(in)) {
+            return readSoil(p);
+        }
+    }
+
+    public static WeatherData parseWeather(InputStream in) throws IOException {
+        try (JsonParser p = FACTORY.createParser(in)) {
+            return readWeather(p);
+        }
+    }
+
+    // История (/soil/history, /weather/history) — массив объектов того же вида, что текущие данные
+    public static List<SoilData> parseSoilHistory(InputStream in) throws IOException {
+        try (JsonParser p = FACTORY.createParser(in)) {
+            List<SoilData> history = new ArrayList<>();
+            if (p.nextToken() != JsonToken.START_ARRAY) {
+                return history;
+            }
+            while (p.nextToken() == JsonToken.START_OBJECT) {
+                history.add(readSoilFields(p));
+            }
+            return history;
+        }
+    }
+
+    public static List<WeatherData> parseWeatherHistory(InputStream in) throws IOException {
+        try (JsonParser p = FACTORY.createParser(in)) {
+            List<WeatherData> history = new ArrayList<>();
+            if (p.nextToken() != JsonToken.START_ARRAY) {
+                return history;
+            }
+            while (p.nextToken() == JsonToken.START_OBJECT) {
+                history.add(readWeatherFields(p));
+            }
+            return history;
+        }
+    }
+
+    public static List<Polygon> parsePolygons(InputStream in) throws IOException {
+        try (JsonParser p = FACTORY.createParser(in)) {
+            List<Polygon> polygons = new ArrayList<>();
+            if (p.nextToken() != JsonToken.START_ARRAY) {
+                return polygons;
+            }
+            while (p.nextToken() == JsonToken.START_OBJECT) {
+                polygons.add(readPolygonFields(p));
+            }
+            return polygons;
+        }
+    }
+
+    public static Polygon parsePolygon(InputStream in) throws IOException {
+        try (JsonParser p = FACTORY.createParser(in)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Некорректный ответ: ожидался объект полигона");
+            }
+            return readPolygonFields(p);
+        }
+    }
+
+    // /image/search: массив снимков; из вложенных объектов нужна только ссылка data.ndvi
+    public static List<ImageryScene> parseImageryScenes(InputStream in) throws IOException {
+        try (JsonParser p = FACTORY.createParser(in)) {
+            List<ImageryScene> scenes = new ArrayList<>();
+            if (p.nextToken() != JsonToken.START_ARRAY) {
+                return scenes;
+            }
+            while (p.nextToken() == JsonToken.START_OBJECT) {
+                scenes.add(readImagerySceneFields(p));
+            }
+            return scenes;
+        }
+    }
+
+    public static ChatCompletion parseCompletion(InputStream in) throws IOException {
+        try (JsonParser p = FACTORY.createParser(in)) {
+            ChatCompletion completion = readCompletion(p, "message");
+            return completion.getContent() != null
+                    ? completion
+                    : new ChatCompletion("", completion.getPromptTokens(), completion.getCompletionTokens());
+        }
+    }
+
+    // Кусок потока целиком: content — текст delta (может быть null),
+    // usage приходит только в последнем куске при stream_options.include_usage
+    public static ChatCompletion parseStreamChunk(String data) throws IOException {
+        try (JsonParser p = FACTORY.createParser(data)) {
+            return readCompletion(p, "delta");
+        }
+    }
+
+    private static ChatCompletion readCompletion(JsonParser p, String container) throws IOException {
+        String content = null;
+        int promptTokens = 0;
+        int completionTokens = 0;
+
+        expectObject(p);
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            p.nextToken();
+            if ("choices".equals(field) && p.currentToken() == JsonToken.START_ARRAY) {
+                content = readFirstChoice(p, container);
+            } else if ("usage".equals(field) && p.currentToken() == JsonToken.START_OBJECT) {
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    String usageField = p.currentName();
+                    p.nextToken();
+                    if ("prompt_tokens".equals(usageField)) {
+                        promptTokens = p.getValueAsInt();
+                    } else if ("completion_tokens".equals(usageField)) {
+                        completionTokens = p.getValueAsInt();
+                    } else {
+                        p.skipChildren();
+                    }
+                }
+            } else {
+                p.skipChildren();
+            }
+        }
+        return new ChatCompletion(content, promptTokens, completionTokens);
+    }
+
+    private static SoilData readSoil(JsonParser p) throws IOException {
+        expectObject(p);
+        return readSoilFields(p);
+    }
+
+    // Парсер стоит на START_OBJECT; читаем до его END_OBJECT
+    private static SoilData readSoilFields(JsonParser p) throws IOException {
+        long dt = 0;
+        double t0 = Double.NaN;
+        double t10 = Double.NaN;
+        double moisture = Double.NaN;
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            p.nextToken();
+            switch (field) {
+                case "dt" -> dt = p.getValueAsLong();
+                case "t0" -> t0 = readDouble(p);
+                case "t10" -> t10 = readDouble(p);
+                case "moisture" -> moisture = readDouble(p);
+                default -> p.skipChildren();
+            }
+        }
+        return new SoilData(dt, t0, t10, moisture);
+    }
+
+    private static WeatherData readWeather(JsonParser p) throws IOException {
+        expectObject(p);
+        return readWeatherFields(p);
+    }
+
+    private static WeatherData readWeatherFields(JsonParser p) throws IOException {
+        long dt = 0;
+        String description = null;
+        double temp = Double.NaN;
+        double humidity = Double.NaN;
+        double pressure = Double.NaN;
+        double windSpeed = Double.NaN;
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            JsonToken value = p.nextToken();
+            if ("dt".equals(field)) {
+                dt = p.getValueAsLong();
+            } else if ("weather".equals(field) && value == JsonToken.START_ARRAY) {
+                // Берём описание из первого элемента, остальные пропускаем
+                while (p.nextToken() == JsonToken.START_OBJECT) {
+                    while (p.nextToken() == JsonToken.FIELD_NAME) {
+                        String weatherField = p.currentName();
+                        p.nextToken();
+                        if (description == null && "description".equals(weatherField)) {
+                            description = p.getValueAsString();
+                        } else {
+                            p.skipChildren();
+                        }
+                    }
+                }
+            } else if ("main".equals(field) && value == JsonToken.START_OBJECT) {
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    String mainField = p.currentName();
+                    p.nextToken();
+                    switch (mainField) {
+                        case "temp" -> temp = readDouble(p);
+                        case "humidity" -> humidity = readDouble(p);
+                        case "pressure" -> pressure = readDouble(p);
+                        default -> p.skipChildren();
+                    }
+                }
+            } else if ("wind".equals(field) && value == JsonToken.START_OBJECT) {
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    String windField = p.currentName();
+                    p.nextToken();
+                    if ("speed".equals(windField)) {
+                        windSpeed = readDouble(p);
+                    } else {
+                        p.skipChildren();
+                    }
+                }
+            } else {
+                p.skipChildren();
+            }
+        }
+        return new WeatherData(dt, description, temp, humidity, pressure, windSpeed);
+    }
+
+    // Парсер стоит на START_OBJECT полигона; читаем до его END_OBJECT
+    private static Polygon readPolygonFields(JsonParser p) throws IOException {
+        String id = null;
+        String name = null;
+        double area = 0.0;
+        long createdAt = 0;
+        List<double[][]> parts = null;
+        double[] center = null;
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            JsonToken value = p.nextToken();
+            switch (field) {
+                case "id" -> id = p.getValueAsString();
+                case "name" -> name = p.getValueAsString();
+                case "area" -> area = p.getValueAsDouble();
+                case "created_at" -> createdAt = p.getValueAsLong();
+                case "geo_json" -> parts = value == JsonToken.START_OBJECT ? readGeoJson(p) : skip(p);
+                case "center" -> center = value == JsonToken.START_ARRAY && readNested(p) instanceof double[] point ? point : skip(p);
+                default -> p.skipChildren();
+            }
+        }
+        return new Polygon(id, name, area, createdAt, toGeometry(parts),
+                center != null ? center[0] : Double.NaN, center != null ? center[1] : Double.NaN);
+    }
+
+    // geo_json — Feature с geometry внутри или сама geometry; Polygon и MultiPolygon.
+    // Парсер стоит на START_OBJECT; возвращает контуры (кольца плоскими массивами lon/lat) или null
+    private static List<double[][]> readGeoJson(JsonParser p) throws IOException {
+        List<double[][]> parts = null;
+        String type = null;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            JsonToken value = p.nextToken();
+            if ("geometry".equals(field) && value == JsonToken.START_OBJECT) {
+                parts = readGeoJson(p);
+            } else if ("type".equals(field)) {
+                type = p.getValueAsString();
+            } else if ("coordinates".equals(field) && value == JsonToken.START_ARRAY) {
+                parts = new ArrayList<>();
+                // coordinates может идти раньше type, поэтому вложенность определяем по самим данным
+                collectParts(readNested(p), parts);
+            } else {
+                p.skipChildren();
+            }
+        }
+        // Точки и линии полем не считаем
+        return "Point".equals(type) || "LineString".equals(type) || "MultiPoint".equals(type)
+                || "MultiLineString".equals(type) ? null : parts;
+    }
+
+    // Парсер стоит на START_ARRAY; читает вложенные массивы до точек. Точка — double[] {lon, lat},
+    // остальные уровни — списки: кольцо, контур (Polygon), список контуров (MultiPolygon)
+    private static Object readNested(JsonParser p) throws IOException {
+        JsonToken token = p.nextToken();
+        if (token != null && token.isNumeric()) {
+            double[] point = {readDouble(p), Double.NaN};
+            // Высота и прочее после широты не нужны
+            int index = 1;
+            for (token = p.nextToken(); token != null && token != JsonToken.END_ARRAY; token = p.nextToken()) {
+                if (index++ == 1) {
+                    point[1] = readDouble(p);
+                }
+                p.skipChildren();
+            }
+            return point;
+        }
+        List<Object> items = new ArrayList<>();
+        for (; token != null && token != JsonToken.END_ARRAY; token = p.nextToken()) {
+            if (token == JsonToken.START_ARRAY) {
+                items.add(readNested(p));
+            } else {
+                p.skipChildren();
+            }
+        }
+        return items;
+    }
+
+    // Разложить coordinates на контуры: контур — список колец, кольцо — список точек
+    private static void collectParts(Object node, List<double[][]> parts) {
+        if (!(node instanceof List<?> list) || list.isEmpty() || !(list.get(0) instanceof List<?> first)) {
+            return;
+        }
+        if (first.isEmpty() || !(first.get(0) instanceof double[])) {
+            for (Object child : list) {
+                collectParts(child, parts);
+            }
+            return;
+        }
+        double[][] rings = new double[list.size()][];
+        for (int r = 0; r < rings.length; r++) {
+            List<?> points = (List<?>) list.get(r);
+            double[] ring = new double[points.size() * 2];
+            for (int i = 0; i < points.size(); i++) {
+                if (!(points.get(i) instanceof double[] point)) {
+                    return;
+                }
+                ring[2 * i] = point[0];
+                ring[2 * i + 1] = point[1];
+            }
+            rings[r] = ring;
+        }
+        parts.add(rings);
+    }
+
+    private static PolygonGeometry toGeometry(List<double[][]> parts) {
+        if (parts == null || parts.isEmpty()) {
+            return null;
+        }
+        try {
+            return new PolygonGeometry(parts);
+        } catch (IllegalArgumentException e) {
+            // Вырожденный контур: поле останется в каталоге, но без геометрии
+            return null;
+        }
+    }
+
+    private static <T> T skip(JsonParser p) throws IOException {
+        p.skipChildren();
+        return null;
+    }
+
+    private static ImageryScene readImagerySceneFields(JsonParser p) throws IOException {
+        long dt = 0;
+        String satellite = null;
+        double cloud = Double.NaN;
+        double coverage = Double.NaN;
+        String ndviUrl = null;
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            JsonToken value = p.nextToken();
+            if ("data".equals(field) && value == JsonToken.START_OBJECT) {
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    String dataField = p.currentName();
+                    p.nextToken();
+                    if ("ndvi".equals(dataField) && p.currentToken() == JsonToken.VALUE_STRING) {
+                        ndviUrl = p.getText();
+                    } else {
+                        p.skipChildren();
+                    }
+                }
+                continue;
+            }
+            switch (field) {
+                case "dt" -> dt = p.getValueAsLong();
+                case "type" -> satellite = p.getValueAsString();
+                case "cl" -> cloud = readDouble(p);
+                case "dc" -> coverage = readDouble(p);
+                default -> p.skipChildren();
+            }
+        }
+        return new ImageryScene(dt, satellite, cloud, coverage, ndviUrl);
+    }
+
+    // Парсер стоит на START_ARRAY choices; возвращает choices[0].<container>.content
+    private static String readFirstChoice(JsonParser p, String container) throws IOException {
+        String content = null;
+        boolean first = true;
+        while (p.nextToken() == JsonToken.START_OBJECT) {
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                JsonToken value = p.nextToken();
+                if (first && container.equals(field) && value == JsonToken.START_OBJECT) {
+                    while (p.nextToken() == JsonToken.FIELD_NAME) {
+                        String messageField = p.currentName();
+                        p.nextToken();
+                        if ("content".equals(messageField) && p.currentToken() == JsonToken.VALUE_STRING) {
+                            content = p.getText();
+                        } else {
+                            p.skipChildren();
+                        }
+                    }
+                } else {
+                    p.skipChildren();
+                }
+            }
+            first = false;
+        }
+        return content;
+    }
+
+    private static double readDouble(JsonParser p) throws IOException {
+        return p.currentToken().isNumeric() ? p.getDoubleValue() : Double.NaN;
+    }
+
+    private static void expectObject(JsonParser p) throws IOException {
+        if (p.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Некорректный ответ: ожидался JSON-объект");
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.agrofarm.backend.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.agrofarm.backend.dto.ImageryScene;
+import com.agrofarm.backend.dto.Polygon;
+import com.agrofarm.backend.dto.Vegetation;
+import com.agrofarm.backend.geo.PolygonGeometry;
+import com.agrofarm.backend.imagery.GeoTiffReader;
+import com.agrofarm.backend.imagery.Raster;
+import com.agrofarm.backend.imagery.RasterStats;
+import com.agrofarm.backend.upstream.Futures;
+import com.agrofarm.backend.upstream.SingleFlight;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+
+// Сводка NDVI по спутниковым снимкам для промпта — только из памяти, без сетевых вызовов на пути запроса.
+// Отсутствующая или устаревшая сводка пересчитывается в фоне и попадает в ответы со следующего запроса:
+// поиск последнего пригодного снимка, загрузка его GeoTIFF на диск (один раз на снимок),
+// чтение через отображение в память и подсчёт статистики fork-join по маске контура поля.
+// Растр живёт только на время подсчёта; в памяти остаётся сводка на пару сотен чисел.
+// Сводки только по полигонам каталога: произвольный id не вызывает поиск снимков и не занимает память,
+// сводки удалённых из каталога полигонов вычищаются.
+@Service
+public class VegetationService {
+
+    private static final Logger log = LoggerFactory.getLogger(VegetationService.class);
+
+    private static final long SECONDS_PER_DAY = TimeUnit.DAYS.toSeconds(1);
+
+    // id agromonitoring — hex; всё прочее в имя каталога не пускаем
+    private static final Pattern SAFE_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    private final AgroMonitoringService agroMonitoringService;
+    private final PolygonCatalog polygonCatalog;
+
+    private final boolean enabled;
+    private final Path dir;
+    private final int lookbackDays;
+    private final double maxCloudPercent;
+    private final double minCoveragePercent;
+    private final long ttlMillis;
+    private final long retryMillis;
+
+    private final ForkJoinPool statsPool;
+    private final Timer statsTimer;
+
+    private final Map<String, Entry> latest = new ConcurrentHashMap<>();
+    private final SingleFlight<String, Vegetation> refreshFlight = new SingleFlight<>();
+
+    public VegetationService(AgroMonitoringService agroMonitoringService, PolygonCatalog polygonCatalog,
+                             MeterRegistry meterRegistry,
+                             @Value("${agro.imagery.enabled:true}") boolean enabled,
+                             @Value("${agro.imagery.dir:data/imagery}") String dir,
+                             @Value("${agro.imagery.lookback-days:30}") int lookbackDays,
+                             @Value("${agro.imagery.max-cloud-percent:30}") double maxCloudPercent,
+                             @Value("${agro.imagery.min-coverage-percent:70}") double minCoveragePercent,
+                             @Value("${agro.imagery.ttl-hours:12}") long ttlHours,
+                             @Value("${agro.imagery.retry-minutes:30}") long retryMinutes,
+                             @Value("${agro.imagery.parallelism:0}") int parallelism) {
+        this.agroMonitoringService = agroMonitoringService;
+        this.polygonCatalog = polygonCatalog;
+        this.enabled = enabled;
+        this.dir = Paths.get(dir);
+        this.lookbackDays = lookbackDays;
+        this.maxCloudPercent = maxCloudPercent;
+        this.minCoveragePercent = minCoveragePercent;
+        this.ttlMillis = TimeUnit.HOURS.toMillis(ttlHours);
+        this.retryMillis = TimeUnit.MINUTES.toMillis(retryMinutes);
+        this.statsPool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors(),
+                pool -> {
+                    ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                    t.setName("vegetation-stats-" + t.getPoolIndex());
+                    t.setDaemon(true);
+                    return t;
+                }, null, false);
+        this.statsTimer = Timer.builder("agro.imagery.stats")
+                .description("Чтение GeoTIFF и подсчёт статистики NDVI по полигону")
+                .register(meterRegistry);
+    }
+
+    // Последняя посчитанная сводка; если её нет или она устарела — пересчёт в фоне
+    public Vegetation vegetation(String polygonId) {
+        if (!enabled || !SAFE_ID.matcher(polygonId).matches()) {
+            return Vegetation.EMPTY;
+        }
+        Set<String> ids = polygonCatalog.idsIfLoaded();
+        if (ids == null) {
+            // Каталог не загружен: ответ без сводки, загрузка каталога уже ушла в фон
+            return Vegetation.EMPTY;
+        }
+        if (!ids.contains(polygonId)) {
+            latest.remove(polygonId);
+            return Vegetation.EMPTY;
+        }
+        Entry entry = latest.get(polygonId);
+        if (entry == null || System.currentTimeMillis() >= entry.nextCheckAt()) {
+            refresh(polygonId);
+        }
+        return entry != null ? entry.value() : Vegetation.EMPTY;
+    }
+
+    // Пересчитать сводку по последнему пригодному снимку; одновременные вызовы по полигону схлопываются.
+    // Future завершается успешно всегда: при ошибке остаётся прежняя сводка, повтор — через retry-minutes
+    public CompletableFuture<Vegetation> refresh(String polygonId) {
+        if (!enabled || !SAFE_ID.matcher(polygonId).matches() || !polygonCatalog.containsIfLoaded(polygonId)) {
+            return CompletableFuture.completedFuture(Vegetation.EMPTY);
+        }
+        return refreshFlight.execute(polygonId, () -> {
+            long end = System.currentTimeMillis() / 1000;
+            long start = end - lookbackDays * SECONDS_PER_DAY;
+            return Futures.composeCancellable(agroMonitoringService.searchImageryAsync(polygonId, start, end),
+                            scenes -> summarizeLatest(polygonId, scenes))
+                    .handle((vegetation, e) -> {
+                        long now = System.currentTimeMillis();
+                        if (e == null) {
+                            store(polygonId, new Entry(vegetation, now + ttlMillis));
+                            return vegetation;
+                        }
+                        Entry previous = latest.get(polygonId);
+                        Vegetation kept = previous != null ? previous.value() : Vegetation.EMPTY;
+                        store(polygonId, new Entry(kept, now + retryMillis));
+                        log.info("Снимки полигона {} не обработаны: {}", polygonId, Futures.unwrap(e).getMessage());
+                        return kept;
+                    });
+        });
+    }
+
+    // Сводок не больше, чем полигонов в каталоге: при переполнении уходят полигоны, удалённые из него.
+    // Пока каталог не загружен, чистка откладывается
+    private void store(String polygonId, Entry entry) {
+        latest.put(polygonId, entry);
+        Set<String> ids = polygonCatalog.idsIfLoaded();
+        if (ids != null && latest.size() > ids.size()) {
+            latest.keySet().retainAll(ids);
+        }
+    }
+
+    private CompletableFuture<Vegetation> summarizeLatest(String polygonId, List<ImageryScene> scenes) {
+        ImageryScene scene = scenes.stream()
+                .filter(this::usable)
+                .max(Comparator.comparingLong(ImageryScene::getDt))
+                .orElse(null);
+        if (scene == null) {
+            return CompletableFuture.completedFuture(Vegetation.EMPTY);
+        }
+        Path tile = dir.resolve(polygonId).resolve(scene.getDt() + "-ndvi.tif");
+        CompletableFuture<Path> file = Files.exists(tile)
+                ? CompletableFuture.completedFuture(tile)
+                : agroMonitoringService.downloadImageryAsync(scene.getNdviDataUrl(), tile);
+        return file.thenApplyAsync(path -> summarize(polygonId, scene, path), statsPool);
+    }
+
+    private boolean usable(ImageryScene scene) {
+        return scene.getNdviDataUrl() != null && scene.getDt() > 0
+                && !(scene.getCloudPercent() > maxCloudPercent)
+                && !(scene.getCoveragePercent() < minCoveragePercent);
+    }
+
+    // Выполняется в statsPool: подзадачи RasterStats идут в тот же пул
+    private Vegetation summarize(String polygonId, ImageryScene scene, Path tile) {
+        Timer.Sample sample = Timer.start();
+        try {
+            Raster raster = GeoTiffReader.read(tile);
+            RasterStats ndvi = RasterStats.compute(raster, geometry(polygonId), statsPool);
+            removeOtherTiles(tile);
+            return new Vegetation(scene.getDt(), scene.getSatellite(), scene.getCloudPercent(), ndvi);
+        } catch (IOException e) {
+            // Битый файл не должен навсегда занять место нового снимка с тем же dt
+            deleteQuietly(tile);
+            throw new UncheckedIOException(e);
+        } finally {
+            sample.stop(statsTimer);
+        }
+    }
+
+    private PolygonGeometry geometry(String polygonId) {
+        try {
+            Polygon polygon = polygonCatalog.getPolygon(polygonId);
+            return polygon != null ? polygon.getGeometry() : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // На диске по полигону хранится только снимок, по которому посчитана текущая сводка
+    private static void removeOtherTiles(Path tile) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(tile.getParent(), "*.tif")) {
+            for (Path file : files) {
+                if (!file.getFileName().equals(tile.getFileName())) {
+                    deleteQuietly(file);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Не удалось убрать старые снимки в {}: {}", tile.getParent(), e.getMessage());
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Не удалось удалить {}: {}", file, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        statsPool.shutdownNow();
+    }
+
+    private record Entry(Vegetation value, long nextCheckAt) {
+    }
+}
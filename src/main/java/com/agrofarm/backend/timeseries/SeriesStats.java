@@ -0,0 +1,63 @@
+package com.agrofarm.backend.timeseries;
+
+// Агрегат колонки ряда на интервале. NaN-значения (поле не пришло от upstream) не учитываются.
+// slopePerDay — наклон линейной регрессии по времени, единиц колонки в сутки.
+public record SeriesStats(int count, double min, double max, double mean,
+                          long firstTimestamp, double first, long lastTimestamp, double last,
+                          double slopePerDay) {
+
+    public static final SeriesStats EMPTY = new SeriesStats(0, Double.NaN, Double.NaN, Double.NaN,
+            0, Double.NaN, 0, Double.NaN, Double.NaN);
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    // Однопроходный подсчёт; время — секунды (dt upstream), для регрессии сдвигается к первой точке
+    static final class Accumulator {
+        private static final double SECONDS_PER_DAY = 86_400.0;
+
+        private int count;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+        private double sum;
+        private long firstTimestamp;
+        private double first;
+        private long lastTimestamp;
+        private double last;
+
+        private double sumX;
+        private double sumXX;
+        private double sumXY;
+
+        void add(long timestamp, double value) {
+            if (Double.isNaN(value)) {
+                return;
+            }
+            if (count == 0) {
+                firstTimestamp = timestamp;
+                first = value;
+            }
+            count++;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            sum += value;
+            lastTimestamp = timestamp;
+            last = value;
+
+            double x = (timestamp - firstTimestamp) / SECONDS_PER_DAY;
+            sumX += x;
+            sumXX += x * x;
+            sumXY += x * value;
+        }
+
+        SeriesStats result() {
+            if (count == 0) {
+                return EMPTY;
+            }
+            double denominator = count * sumXX - sumX * sumX;
+            double slope = count > 1 && denominator > 0 ? (count * sumXY - sumX * sum) / denominator : Double.NaN;
+            return new SeriesStats(count, min, max, sum / count, firstTimestamp, first, lastTimestamp, last, slope);
+        }
+    }
+}
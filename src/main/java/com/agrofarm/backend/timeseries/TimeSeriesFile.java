@@ -0,0 +1,337 @@
+package com.agrofarm.backend.timeseries;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Временной ряд в отображённом в память файле: записи фиксированной длины
+// (метка времени long + columns значений double), отсортированные по времени.
+//
+// Формат: заголовок 32 байта (magic, версия, число колонок, число записей), затем записи подряд.
+// Файл растёт удвоением отображённой области; число записей в заголовке обновляется после записи
+// самой записи, так что оборванная запись при падении просто не видна.
+// Новые точки только дописываются в конец; более старые (загрузка истории) вливаются слиянием:
+// объединённый ряд пишется во временный файл рядом и атомарно подменяет прежний,
+// так что падение посреди слияния оставляет старый ряд целым.
+// force() на каждую запись не вызывается — сброс на диск оставлен ОС и close().
+// После close() чтение ещё работает (отображение живёт до сборки мусора), запись — IOException:
+// закрытый ряд мог быть уже открыт заново, и две копии не должны писать в один файл.
+public class TimeSeriesFile implements Closeable {
+
+    private static final int MAGIC = 0x41475453; // "AGTS"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int COUNT_OFFSET = 16;
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final Path path;
+    private final int columns;
+    private final int recordSize;
+    private FileChannel channel;
+
+    private MappedByteBuffer buffer;
+    private long capacity;
+    private long count;
+    private boolean closed;
+
+    private TimeSeriesFile(Path path, int columns) throws IOException {
+        this.path = path;
+        this.columns = columns;
+        this.recordSize = Long.BYTES + columns * Double.BYTES;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    public static TimeSeriesFile open(Path path, int columns) throws IOException {
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        TimeSeriesFile file = new TimeSeriesFile(path, columns);
+        try {
+            file.init();
+        } catch (IOException | RuntimeException e) {
+            file.channel.close();
+            throw e;
+        }
+        return file;
+    }
+
+    public int columns() {
+        return columns;
+    }
+
+    public synchronized long count() {
+        return count;
+    }
+
+    // Метка времени последней записи или Long.MIN_VALUE для пустого ряда
+    public synchronized long lastTimestamp() {
+        return count == 0 ? Long.MIN_VALUE : timestampAt(count - 1);
+    }
+
+    public synchronized long firstTimestamp() {
+        return count == 0 ? Long.MIN_VALUE : timestampAt(0);
+    }
+
+    // Дописать точку; false, если она не новее последней (повтор того же dt от upstream)
+    public synchronized boolean append(long timestamp, double... values) throws IOException {
+        checkOpen();
+        checkColumns(values);
+        if (count > 0 && timestamp <= timestampAt(count - 1)) {
+            return false;
+        }
+        ensureCapacity(count + 1);
+        write(buffer, count, timestamp, values);
+        setCount(count + 1);
+        return true;
+    }
+
+    // Влить набор точек в любом порядке: новее последней — дописываются, остальные — слиянием
+    // с перезаписью файла. Точки с уже существующей меткой времени пропускаются. Возвращает число добавленных.
+    public synchronized int merge(Map<Long, double[]> points) throws IOException {
+        checkOpen();
+        if (points.isEmpty()) {
+            return 0;
+        }
+        TreeMap<Long, double[]> sorted = new TreeMap<>(points);
+        sorted.values().forEach(this::checkColumns);
+
+        long last = count == 0 ? Long.MIN_VALUE : timestampAt(count - 1);
+        if (sorted.firstKey() > last) {
+            ensureCapacity(count + sorted.size());
+            long index = count;
+            for (Map.Entry<Long, double[]> point : sorted.entrySet()) {
+                write(buffer, index++, point.getKey(), point.getValue());
+            }
+            setCount(index);
+            return sorted.size();
+        }
+
+        TreeMap<Long, double[]> merged = new TreeMap<>();
+        for (long i = 0; i < count; i++) {
+            merged.put(timestampAt(i), readValues(i));
+        }
+        int added = 0;
+        for (Map.Entry<Long, double[]> point : sorted.entrySet()) {
+            if (merged.putIfAbsent(point.getKey(), point.getValue()) == null) {
+                added++;
+            }
+        }
+        if (added == 0) {
+            return 0;
+        }
+
+        rewrite(merged);
+        return added;
+    }
+
+    // Обход записей с from <= timestamp <= to по возрастанию времени
+    public synchronized void forEach(long from, long to, RecordVisitor visitor) {
+        double[] values = new double[columns];
+        for (long i = lowerBound(from); i < count; i++) {
+            long timestamp = timestampAt(i);
+            if (timestamp > to) {
+                break;
+            }
+            for (int c = 0; c < columns; c++) {
+                values[c] = valueAt(i, c);
+            }
+            visitor.visit(timestamp, values);
+        }
+    }
+
+    // Агрегат одной колонки на интервале; значения читаются прямо из отображения, без аллокаций на запись
+    public synchronized SeriesStats stats(int column, long from, long to) {
+        if (column < 0 || column >= columns) {
+            throw new IllegalArgumentException("Нет колонки " + column);
+        }
+        SeriesStats.Accumulator acc = new SeriesStats.Accumulator();
+        for (long i = lowerBound(from); i < count; i++) {
+            long timestamp = timestampAt(i);
+            if (timestamp > to) {
+                break;
+            }
+            acc.add(timestamp, valueAt(i, column));
+        }
+        return acc.result();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (buffer != null) {
+            buffer.force();
+        }
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return path.toString();
+    }
+
+    private void init() throws IOException {
+        long size = channel.size();
+        if (size == 0) {
+            map(INITIAL_CAPACITY);
+            writeHeader(buffer, 0);
+            count = 0;
+            return;
+        }
+        if (size < HEADER_SIZE) {
+            throw new IOException("Повреждённый файл ряда " + path + ": нет заголовка");
+        }
+        map(Math.max(INITIAL_CAPACITY, (size - HEADER_SIZE) / recordSize));
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Файл " + path + " не является рядом нужного формата");
+        }
+        if (buffer.getInt(8) != columns) {
+            throw new IOException("В файле " + path + " " + buffer.getInt(8) + " колонок, ожидалось " + columns);
+        }
+        count = Math.min(buffer.getLong(COUNT_OFFSET), capacity);
+    }
+
+    private void ensureCapacity(long records) throws IOException {
+        if (records > capacity) {
+            map(grownCapacity(records));
+        }
+    }
+
+    private long grownCapacity(long records) {
+        long newCapacity = capacity;
+        while (newCapacity < records) {
+            newCapacity *= 2;
+        }
+        return newCapacity;
+    }
+
+    // Ряд целиком во временный файл (с force), затем ATOMIC_MOVE поверх прежнего и переоткрытие.
+    // Если подмена не удалась, остаётся прежний файл со своим числом записей
+    private void rewrite(TreeMap<Long, double[]> records) throws IOException {
+        long newCapacity = grownCapacity(records.size());
+        long bytes = HEADER_SIZE + newCapacity * recordSize;
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IOException("Ряд " + path + " превысил 2 ГБ");
+        }
+        Path temp = path.resolveSibling(path.getFileName() + ".merge");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer target = out.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+            long index = 0;
+            for (Map.Entry<Long, double[]> point : records.entrySet()) {
+                write(target, index++, point.getKey(), point.getValue());
+            }
+            writeHeader(target, index);
+            target.force();
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+
+        buffer.force();
+        channel.close();
+        boolean moved = false;
+        try {
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            moved = true;
+        } finally {
+            if (!moved) {
+                Files.deleteIfExists(temp);
+            }
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            map(moved ? newCapacity : capacity);
+            if (moved) {
+                count = records.size();
+            }
+        }
+    }
+
+    private void writeHeader(ByteBuffer target, long records) {
+        target.putInt(0, MAGIC);
+        target.putInt(4, VERSION);
+        target.putInt(8, columns);
+        target.putLong(COUNT_OFFSET, records);
+    }
+
+    private void map(long records) throws IOException {
+        long bytes = HEADER_SIZE + records * recordSize;
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IOException("Ряд " + path + " превысил 2 ГБ");
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+        capacity = records;
+    }
+
+    private long lowerBound(long from) {
+        long lo = 0;
+        long hi = count;
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            if (timestampAt(mid) < from) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private void write(ByteBuffer target, long index, long timestamp, double[] values) {
+        int offset = offset(index);
+        target.putLong(offset, timestamp);
+        for (int c = 0; c < columns; c++) {
+            target.putDouble(offset + Long.BYTES + c * Double.BYTES, values[c]);
+        }
+    }
+
+    private double[] readValues(long index) {
+        double[] values = new double[columns];
+        for (int c = 0; c < columns; c++) {
+            values[c] = valueAt(index, c);
+        }
+        return values;
+    }
+
+    private long timestampAt(long index) {
+        return buffer.getLong(offset(index));
+    }
+
+    private double valueAt(long index, int column) {
+        return buffer.getDouble(offset(index) + Long.BYTES + column * Double.BYTES);
+    }
+
+    private int offset(long index) {
+        return (int) (HEADER_SIZE + index * recordSize);
+    }
+
+    private void setCount(long newCount) {
+        buffer.putLong(COUNT_OFFSET, newCount);
+        count = newCount;
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Ряд " + path + " закрыт");
+        }
+    }
+
+    private void checkColumns(double[] values) {
+        if (values.length != columns) {
+            throw new IllegalArgumentException("Ожидалось " + columns + " значений, получено " + values.length);
+        }
+    }
+
+    @FunctionalInterface
+    public interface RecordVisitor {
+        // values переиспользуется между вызовами — копируйте, если нужно сохранить
+        void visit(long timestamp, double[] values);
+    }
+}
@@ -0,0 +1,73 @@
+package com.agrofarm.backend.upstream;
+
+import java.util.concurrent.TimeUnit;
+
+// Адаптивный лимит параллельных вызовов (AIMD).
+// Успешный быстрый вызов при почти исчерпанном лимите увеличивает его на 1,
+// ошибка, таймаут или вызов медленнее slowCall уменьшают лимит в backoffRatio раз.
+// Сверх лимита вызов отклоняется сразу — очередь к деградирующему upstream не растёт.
+public class AdaptiveConcurrencyLimiter {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final long slowCallNanos;
+
+    private double limit;
+    private int inFlight;
+    private long rejected;
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit,
+                                      double backoffRatio, long slowCallMillis) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+        this.limit = Math.max(minLimit, Math.min(initialLimit, maxLimit));
+    }
+
+    // После true обязателен ровно один onSuccess/onDropped/onIgnore
+    public synchronized boolean tryAcquire() {
+        if (inFlight >= (int) limit) {
+            rejected++;
+            return false;
+        }
+        inFlight++;
+        return true;
+    }
+
+    public synchronized void onSuccess(long latencyNanos) {
+        if (latencyNanos > slowCallNanos) {
+            decrease();
+        } else if (inFlight * 2 >= limit) {
+            // Растём только когда лимит действительно используется, иначе он уплывёт вверх без нагрузки
+            limit = Math.min(maxLimit, limit + 1);
+        }
+        inFlight--;
+    }
+
+    public synchronized void onDropped() {
+        decrease();
+        inFlight--;
+    }
+
+    public synchronized void onIgnore() {
+        inFlight--;
+    }
+
+    public synchronized int limit() {
+        return (int) limit;
+    }
+
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    public synchronized long rejected() {
+        return rejected;
+    }
+
+    private void decrease() {
+        limit = Math.max(minLimit, limit * backoffRatio);
+    }
+}
@@ -0,0 +1,137 @@
+package com.agrofarm.backend.upstream;
+
+import java.util.concurrent.TimeUnit;
+
+// Предохранитель по доле ошибок в скользящем окне последних вызовов.
+// CLOSED: вызовы проходят, при доле ошибок >= порога (и не меньше minCalls вызовов в окне) — OPEN.
+// OPEN: все вызовы отклоняются сразу; через openDuration — HALF_OPEN.
+// HALF_OPEN: пропускается halfOpenCalls пробных вызовов; все успешны — CLOSED, любая ошибка — снова OPEN.
+// Разрешение помечено поколением — номером состояния, в котором оно выдано. Итог вызова из прошлого поколения
+// (пробный вызов завершился после повторного OPEN, обычный — уже в HALF_OPEN) не учитывается.
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    // tryAcquire: вызов отклонён
+    public static final long NO_PERMIT = -1;
+
+    private final boolean[] window;
+    private final int minCalls;
+    private final double failureRateThreshold;
+    private final long openDurationNanos;
+    private final int halfOpenCalls;
+
+    private State state = State.CLOSED;
+    private long generation;
+    private int position;
+    private int recorded;
+    private int failures;
+    private long openedAt;
+    private int halfOpenInFlight;
+    private int halfOpenSucceeded;
+
+    public CircuitBreaker(int windowSize, int minCalls, double failureRateThreshold,
+                          long openDurationMillis, int halfOpenCalls) {
+        this.window = new boolean[windowSize];
+        this.minCalls = Math.min(minCalls, windowSize);
+        this.failureRateThreshold = failureRateThreshold;
+        this.openDurationNanos = TimeUnit.MILLISECONDS.toNanos(openDurationMillis);
+        this.halfOpenCalls = halfOpenCalls;
+    }
+
+    // Разрешение на вызов или NO_PERMIT; с разрешением обязателен ровно один onSuccess/onFailure/onIgnore
+    public synchronized long tryAcquire() {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < openDurationNanos) {
+                return NO_PERMIT;
+            }
+            transition(State.HALF_OPEN);
+            halfOpenInFlight = 0;
+            halfOpenSucceeded = 0;
+        }
+        if (state == State.HALF_OPEN) {
+            if (halfOpenInFlight + halfOpenSucceeded >= halfOpenCalls) {
+                return NO_PERMIT;
+            }
+            halfOpenInFlight++;
+        }
+        return generation;
+    }
+
+    public synchronized void onSuccess(long permit) {
+        if (permit != generation) {
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            halfOpenInFlight--;
+            if (++halfOpenSucceeded >= halfOpenCalls) {
+                close();
+            }
+            return;
+        }
+        if (state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    public synchronized void onFailure(long permit) {
+        if (permit != generation) {
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            open();
+            return;
+        }
+        if (state == State.CLOSED) {
+            record(true);
+            if (recorded >= minCalls && failures >= failureRateThreshold * recorded) {
+                open();
+            }
+        }
+    }
+
+    // Вызов не характеризует здоровье upstream (отменён клиентом, отклонён лимитером)
+    public synchronized void onIgnore(long permit) {
+        if (permit == generation && state == State.HALF_OPEN) {
+            halfOpenInFlight--;
+        }
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+
+    private void record(boolean failure) {
+        if (recorded == window.length) {
+            if (window[position]) {
+                failures--;
+            }
+        } else {
+            recorded++;
+        }
+        window[position] = failure;
+        if (failure) {
+            failures++;
+        }
+        position = (position + 1) % window.length;
+    }
+
+    private void open() {
+        transition(State.OPEN);
+        openedAt = System.nanoTime();
+    }
+
+    private void close() {
+        transition(State.CLOSED);
+        position = 0;
+        recorded = 0;
+        failures = 0;
+    }
+
+    private void transition(State next) {
+        state = next;
+        generation++;
+    }
+}
@@ -0,0 +1,195 @@
+package com.agrofarm.backend.upstream;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Response;
+
+// Мелочи для асинхронных цепочек поверх OkHttp.
+// Стандартные thenCompose/thenApply не передают отмену назад: отмена итогового future
+// не отменяет HTTP-вызовы, из которых он собран. Здесь отмена доходит до исходных вызовов.
+public final class Futures {
+
+    private Futures() {
+    }
+
+    // Асинхронное выполнение вызова; ответ разбирается handler в потоке OkHttp и закрывается.
+    // Отмена future отменяет вызов; ответ, пришедший уже после отмены, не разбирается.
+    public static <T> CompletableFuture<T> execute(Call call, ResponseHandler<T> handler) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.whenComplete((value, e) -> {
+            if (future.isCancelled()) {
+                call.cancel();
+            }
+        });
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call c, IOException e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call c, Response response) {
+                try (response) {
+                    if (!future.isDone()) {
+                        future.complete(handler.handle(response));
+                    }
+                } catch (IOException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        return future;
+    }
+
+    // handle с отменой: fn получает исходную причину ошибки (без CompletionException),
+    // отмена результата отменяет source
+    public static <T, U> CompletableFuture<U> handle(CompletableFuture<T> source,
+                                                     BiFunction<? super T, Throwable, ? extends U> fn) {
+        CompletableFuture<U> result = new CompletableFuture<>();
+        result.whenComplete((value, e) -> {
+            if (result.isCancelled()) {
+                source.cancel(true);
+            }
+        });
+        source.whenComplete((value, e) -> {
+            try {
+                result.complete(fn.apply(value, e != null ? unwrap(e) : null));
+            } catch (RuntimeException ex) {
+                result.completeExceptionally(unwrap(ex));
+            }
+        });
+        return result;
+    }
+
+    // thenCompose с отменой: отмена результата отменяет first и, если он уже запущен, второй этап
+    public static <T, U> CompletableFuture<U> composeCancellable(CompletableFuture<T> first,
+                                                                 Function<? super T, ? extends CompletableFuture<U>> next) {
+        CompletableFuture<U> result = new CompletableFuture<>();
+        AtomicReference<CompletableFuture<U>> second = new AtomicReference<>();
+        result.whenComplete((value, e) -> {
+            if (result.isCancelled()) {
+                first.cancel(true);
+                CompletableFuture<U> started = second.get();
+                if (started != null) {
+                    started.cancel(true);
+                }
+            }
+        });
+
+        first.whenComplete((value, e) -> {
+            if (e != null) {
+                result.completeExceptionally(unwrap(e));
+                return;
+            }
+            CompletableFuture<U> started;
+            try {
+                started = next.apply(value);
+            } catch (RuntimeException ex) {
+                result.completeExceptionally(ex);
+                return;
+            }
+            second.set(started);
+            if (result.isCancelled()) {
+                started.cancel(true);
+                return;
+            }
+            started.whenComplete((secondValue, secondError) -> {
+                if (secondError != null) {
+                    result.completeExceptionally(unwrap(secondError));
+                } else {
+                    result.complete(secondValue);
+                }
+            });
+        });
+        return result;
+    }
+
+    // То же, но next выполняется в executor, а не в потоке, завершившем first (колбэк OkHttp, таймер
+    // completeOnTimeout). Для этапов с блокирующей работой. Отказ executor — ошибка результата
+    public static <T, U> CompletableFuture<U> composeCancellableAsync(CompletableFuture<T> first,
+                                                                      Function<? super T, ? extends CompletableFuture<U>> next,
+                                                                      Executor executor) {
+        return composeCancellable(first, value -> {
+            CompletableFuture<U> result = new CompletableFuture<>();
+            AtomicReference<CompletableFuture<U>> second = new AtomicReference<>();
+            result.whenComplete((v, e) -> {
+                CompletableFuture<U> started = second.get();
+                if (result.isCancelled() && started != null) {
+                    started.cancel(true);
+                }
+            });
+            executor.execute(() -> {
+                if (result.isDone()) {
+                    return;
+                }
+                CompletableFuture<U> started;
+                try {
+                    started = next.apply(value);
+                } catch (RuntimeException ex) {
+                    result.completeExceptionally(ex);
+                    return;
+                }
+                second.set(started);
+                if (result.isCancelled()) {
+                    started.cancel(true);
+                    return;
+                }
+                started.whenComplete((secondValue, secondError) -> {
+                    if (secondError != null) {
+                        result.completeExceptionally(unwrap(secondError));
+                    } else {
+                        result.complete(secondValue);
+                    }
+                });
+            });
+            return result;
+        });
+    }
+
+    // Синхронное ожидание с исходным IOException наружу; прерывание отменяет future
+    public static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Запрос прерван");
+        } catch (ExecutionException e) {
+            Throwable cause = unwrap(e);
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IOException(cause);
+        } catch (CancellationException e) {
+            throw new IOException("Запрос отменён", e);
+        }
+    }
+
+    // Исходная причина из CompletionException/ExecutionException
+    public static Throwable unwrap(Throwable e) {
+        Throwable cause = e;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    @FunctionalInterface
+    public interface ResponseHandler<T> {
+        T handle(Response response) throws IOException;
+    }
+}
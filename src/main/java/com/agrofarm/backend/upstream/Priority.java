@@ -0,0 +1,9 @@
+package com.agrofarm.backend.upstream;
+
+// Очерёдность запросов к upstream в QuotaScheduler: при нехватке квоты первыми идут ответы
+// пользователю, затем пакетный анализ, последними — фоновый прогрев и догрузка истории
+public enum Priority {
+    INTERACTIVE,
+    BATCH,
+    BACKGROUND
+}
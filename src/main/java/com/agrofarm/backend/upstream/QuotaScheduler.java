@@ -0,0 +1,372 @@
+package com.agrofarm.backend.upstream;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+// Выдача запросов одного upstream под его поминутную квоту: token bucket (permitsPerMinute, запас burst)
+// и очередь по приоритетам. acquire() возвращает future, который завершается, когда запросу выдан токен;
+// первыми токены получают INTERACTIVE, внутри приоритета — по порядку прихода.
+// Ожидание идёт в очереди, а не в потоке: вызов уходит в диспетчер OkHttp только с токеном на руках.
+//
+// Противодавление: у приоритета есть предел очереди и максимальное ожидание. Если очередь полна или
+// по оценке токен не успеет к сроку, acquire сразу завершается UpstreamUnavailableException —
+// вызывающие уже умеют отдавать деградированный ответ. Отмена future убирает запрос из очереди.
+//
+// Как интерсептор видит ответы: 429 (и 503) с Retry-After останавливают выдачу токенов на указанное время.
+// execute() повторяет запрос, получивший 429, после паузы — пользователь не видит ошибку квоты.
+// permitsPerMinute <= 0 — квоты нет, токены выдаются сразу.
+public class QuotaScheduler implements Interceptor, Closeable {
+
+    private static final int PRIORITIES = Priority.values().length;
+
+    private final String upstream;
+    private final double permitsPerNano;
+    private final double burst;
+    private final int[] maxQueued;
+    private final long[] maxWaitNanos;
+    private final long defaultRetryAfterNanos;
+    private final int maxRetries;
+
+    private final PriorityQueue<Ticket> queue = new PriorityQueue<>(
+            Comparator.comparingInt((Ticket t) -> t.priority.ordinal()).thenComparingLong(t -> t.sequence));
+    private final int[] queued = new int[PRIORITIES];
+    private final ScheduledExecutorService timer;
+
+    private double tokens;
+    private long refilledAt = System.nanoTime();
+    private long pausedUntil = refilledAt;
+    private long sequence;
+    private ScheduledFuture<?> wakeUp;
+    private long wakeUpAt;
+
+    private final long[] granted = new long[PRIORITIES];
+    private final long[] rejected = new long[PRIORITIES];
+    private long rateLimited;
+    private long retried;
+
+    // maxQueued и maxWaitMillis — по приоритетам в порядке Priority
+    public QuotaScheduler(String upstream, double permitsPerMinute, int burst, int[] maxQueued, long[] maxWaitMillis,
+                          long defaultRetryAfterMillis, int maxRetries) {
+        if (maxQueued.length != PRIORITIES || maxWaitMillis.length != PRIORITIES) {
+            throw new IllegalArgumentException("Нужно по значению на каждый приоритет: " + PRIORITIES);
+        }
+        this.upstream = upstream;
+        this.permitsPerNano = permitsPerMinute > 0 ? permitsPerMinute / TimeUnit.MINUTES.toNanos(1) : 0;
+        this.burst = Math.max(1, burst);
+        this.maxQueued = maxQueued.clone();
+        this.maxWaitNanos = new long[PRIORITIES];
+        for (int i = 0; i < PRIORITIES; i++) {
+            this.maxWaitNanos[i] = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis[i]);
+        }
+        this.defaultRetryAfterNanos = TimeUnit.MILLISECONDS.toNanos(defaultRetryAfterMillis);
+        this.maxRetries = maxRetries;
+        this.tokens = this.burst;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "quota-" + upstream);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Токен на один запрос. Future завершается в потоке планировщика или сразу, если токен есть
+    public CompletableFuture<Void> acquire(Priority priority) {
+        Ticket ticket;
+        synchronized (this) {
+            long now = System.nanoTime();
+            refill(now);
+            int p = priority.ordinal();
+            if (queue.isEmpty() && now >= pausedUntil && tokens >= 1) {
+                tokens -= 1;
+                granted[p]++;
+                return CompletableFuture.completedFuture(null);
+            }
+            long wait = estimateWaitNanos(priority, now);
+            if (queued[p] >= maxQueued[p] || wait > maxWaitNanos[p]) {
+                rejected[p]++;
+                return CompletableFuture.failedFuture(new UpstreamUnavailableException(upstream, upstream
+                        + " перегружен: квота запросов исчерпана, ожидание ~" + TimeUnit.NANOSECONDS.toMillis(wait) + " мс"));
+            }
+            ticket = new Ticket(priority, sequence++, now + maxWaitNanos[p]);
+            queue.add(ticket);
+            queued[p]++;
+            scheduleDrain(Math.min(ticket.deadline, nextGrantAt(now)), now);
+        }
+        ticket.future.whenComplete((v, e) -> {
+            if (ticket.future.isCancelled()) {
+                remove(ticket);
+            }
+        });
+        return ticket.future;
+    }
+
+    // Запрос под квотой: ждём токен, затем отправляем. На 429 — повтор (до maxRetries) после паузы
+    // по Retry-After; если квота так и не освободилась — UpstreamUnavailableException.
+    // Отмена результата убирает запрос из очереди или отменяет HTTP-вызов.
+    public <T> CompletableFuture<T> execute(Priority priority, Call call, Futures.ResponseHandler<T> handler) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        attempt(priority, call, handler, maxRetries, result);
+        return result;
+    }
+
+    private <T> void attempt(Priority priority, Call call, Futures.ResponseHandler<T> handler, int retriesLeft,
+                             CompletableFuture<T> result) {
+        CompletableFuture<T> attempt = Futures.composeCancellable(acquire(priority), v ->
+                Futures.execute(call, response -> {
+                    if (response.code() == 429) {
+                        throw new RateLimitedException(upstream);
+                    }
+                    return handler.handle(response);
+                }));
+        result.whenComplete((value, e) -> {
+            if (result.isCancelled()) {
+                attempt.cancel(true);
+            }
+        });
+        attempt.whenComplete((value, e) -> {
+            if (e == null) {
+                result.complete(value);
+                return;
+            }
+            Throwable cause = Futures.unwrap(e);
+            // Отказ планировщика (очередь, срок) не повторяем — только ответ 429 от самого upstream
+            if (cause instanceof RateLimitedException && retriesLeft > 0 && !result.isDone()) {
+                synchronized (this) {
+                    retried++;
+                }
+                attempt(priority, retryOf(call), handler, retriesLeft - 1, result);
+            } else {
+                result.completeExceptionally(cause);
+            }
+        });
+    }
+
+    // clone() в OkHttp собирает вызов заново с настройками клиента: таймаут на весь вызов,
+    // выставленный вызывающим, переносим сами, иначе повтор остаётся без общего дедлайна
+    static Call retryOf(Call call) {
+        Call retry = call.clone();
+        retry.timeout().timeout(call.timeout().timeoutNanos(), TimeUnit.NANOSECONDS);
+        return retry;
+    }
+
+    // Следит за ответами всех вызовов upstream, включая потоковые, которые идут мимо execute()
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Response response = chain.proceed(chain.request());
+        if (response.code() == 429 || (response.code() == 503 && response.header("Retry-After") != null)) {
+            onRateLimited(retryAfterNanos(response.header("Retry-After")));
+        }
+        return response;
+    }
+
+    // Upstream сказал «хватит»: токенов нет, выдача стоит до истечения паузы
+    public void onRateLimited(long pauseNanos) {
+        synchronized (this) {
+            long now = System.nanoTime();
+            rateLimited++;
+            refill(now);
+            tokens = 0;
+            pausedUntil = Math.max(pausedUntil, now + pauseNanos);
+            if (!queue.isEmpty()) {
+                scheduleDrain(pausedUntil, now);
+            }
+        }
+    }
+
+    // Retry-After: секунды или HTTP-дата; без заголовка — пауза по умолчанию
+    long retryAfterNanos(String header) {
+        if (header != null) {
+            try {
+                return TimeUnit.SECONDS.toNanos(Math.max(0, Long.parseLong(header.trim())));
+            } catch (NumberFormatException e) {
+                try {
+                    Duration delay = Duration.between(ZonedDateTime.now(),
+                            ZonedDateTime.parse(header.trim(), DateTimeFormatter.RFC_1123_DATE_TIME));
+                    return Math.max(0, delay.toNanos());
+                } catch (DateTimeParseException ignored) {
+                    // не разобрали — пауза по умолчанию
+                }
+            }
+        }
+        return defaultRetryAfterNanos;
+    }
+
+    public String upstream() {
+        return upstream;
+    }
+
+    public synchronized int queued(Priority priority) {
+        return queued[priority.ordinal()];
+    }
+
+    public synchronized long granted(Priority priority) {
+        return granted[priority.ordinal()];
+    }
+
+    public synchronized long rejected(Priority priority) {
+        return rejected[priority.ordinal()];
+    }
+
+    public synchronized long rateLimited() {
+        return rateLimited;
+    }
+
+    public synchronized long retried() {
+        return retried;
+    }
+
+    public synchronized double availableTokens() {
+        refill(System.nanoTime());
+        return tokens;
+    }
+
+    @Override
+    public void close() {
+        timer.shutdownNow();
+        List<Ticket> pending;
+        synchronized (this) {
+            pending = new ArrayList<>(queue);
+            queue.clear();
+        }
+        for (Ticket ticket : pending) {
+            ticket.future.completeExceptionally(new UpstreamUnavailableException(upstream, upstream + ": остановка"));
+        }
+    }
+
+    private void drain() {
+        List<Ticket> grant = new ArrayList<>();
+        List<Ticket> expired = new ArrayList<>();
+        synchronized (this) {
+            wakeUp = null;
+            long now = System.nanoTime();
+            refill(now);
+            queue.removeIf(t -> {
+                if (t.future.isDone()) {
+                    queued[t.priority.ordinal()]--;
+                    return true;
+                }
+                if (now - t.deadline >= 0) {
+                    queued[t.priority.ordinal()]--;
+                    rejected[t.priority.ordinal()]++;
+                    expired.add(t);
+                    return true;
+                }
+                return false;
+            });
+            while (!queue.isEmpty() && now >= pausedUntil && tokens >= 1) {
+                Ticket ticket = queue.poll();
+                queued[ticket.priority.ordinal()]--;
+                tokens -= 1;
+                granted[ticket.priority.ordinal()]++;
+                grant.add(ticket);
+            }
+            if (!queue.isEmpty()) {
+                long earliestDeadline = Long.MAX_VALUE;
+                for (Ticket t : queue) {
+                    earliestDeadline = Math.min(earliestDeadline, t.deadline);
+                }
+                scheduleDrain(Math.min(earliestDeadline, nextGrantAt(now)), now);
+            }
+        }
+        for (Ticket ticket : expired) {
+            ticket.future.completeExceptionally(new UpstreamUnavailableException(upstream,
+                    upstream + " перегружен: запрос не дождался квоты"));
+        }
+        for (Ticket ticket : grant) {
+            // Если вызывающий успел отменить — токен пропадает, это дешевле гонки с повторной выдачей
+            ticket.future.complete(null);
+        }
+    }
+
+    private synchronized void remove(Ticket ticket) {
+        if (queue.remove(ticket)) {
+            queued[ticket.priority.ordinal()]--;
+        }
+    }
+
+    private void refill(long now) {
+        if (permitsPerNano == 0) {
+            tokens = burst;
+        } else {
+            tokens = Math.min(burst, tokens + (now - refilledAt) * permitsPerNano);
+        }
+        refilledAt = now;
+    }
+
+    // Когда появится следующий токен (с учётом паузы по Retry-After)
+    private long nextGrantAt(long now) {
+        long start = Math.max(now, pausedUntil);
+        if (tokens >= 1 || permitsPerNano == 0) {
+            return start;
+        }
+        double missing = 1 - tokens;
+        return Math.max(start, now + (long) Math.ceil(missing / permitsPerNano));
+    }
+
+    // Сколько ждать новому запросу: он встанет за всеми запросами своего и более высоких приоритетов
+    private long estimateWaitNanos(Priority priority, long now) {
+        int ahead = 0;
+        for (int p = 0; p <= priority.ordinal(); p++) {
+            ahead += queued[p];
+        }
+        long pause = Math.max(0, pausedUntil - now);
+        if (permitsPerNano == 0) {
+            return pause;
+        }
+        // После паузы запас пуст; без паузы часть очереди покроют накопленные токены
+        double available = pause > 0 ? 0 : tokens;
+        double needed = ahead + 1 - available;
+        return pause + (needed > 0 ? (long) Math.ceil(needed / permitsPerNano) : 0);
+    }
+
+    private void scheduleDrain(long at, long now) {
+        if (wakeUp != null && wakeUpAt <= at) {
+            return;
+        }
+        if (wakeUp != null) {
+            wakeUp.cancel(false);
+        }
+        wakeUpAt = at;
+        wakeUp = timer.schedule(this::drain, Math.max(0, at - now), TimeUnit.NANOSECONDS);
+    }
+
+    // 429 после всех повторов виден вызывающим как обычный отказ upstream
+    private static final class RateLimitedException extends UpstreamUnavailableException {
+
+        private static final long serialVersionUID = 1L;
+
+        private RateLimitedException(String upstream) {
+            super(upstream, upstream + " перегружен: квота запросов исчерпана (HTTP 429)");
+        }
+    }
+
+    private static final class Ticket {
+
+        private final Priority priority;
+        private final long sequence;
+        private final long deadline;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private Ticket(Priority priority, long sequence, long deadline) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.deadline = deadline;
+        }
+    }
+}
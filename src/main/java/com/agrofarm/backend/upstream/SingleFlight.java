@@ -0,0 +1,109 @@
+package com.agrofarm.backend.upstream;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// Схлопывание одинаковых одновременных запросов: пока вызов по ключу в полёте,
+// остальные вызывающие получают тот же результат вместо нового запроса в upstream.
+// Каждый получает свою копию future: отмена копии не мешает остальным,
+// а сам upstream-вызов отменяется, только когда от него отказались все.
+public class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, Flight<V>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    public CompletableFuture<V> execute(K key, Supplier<CompletableFuture<V>> call) {
+        while (true) {
+            Flight<V> flight = inFlight.get(key);
+            if (flight == null) {
+                Flight<V> created = new Flight<>();
+                flight = inFlight.putIfAbsent(key, created);
+                if (flight == null) {
+                    flight = created;
+                    start(key, created, call);
+                } else {
+                    coalesced.incrementAndGet();
+                }
+            } else {
+                coalesced.incrementAndGet();
+            }
+
+            CompletableFuture<V> view = flight.join();
+            if (view != null) {
+                return view;
+            }
+            // От этого вызова уже все отказались и он отменяется — запускаем новый
+            inFlight.remove(key, flight);
+        }
+    }
+
+    // Сколько вызовов присоединились к уже летящему запросу
+    public long coalescedCount() {
+        return coalesced.get();
+    }
+
+    public int inFlightCount() {
+        return inFlight.size();
+    }
+
+    private void start(K key, Flight<V> flight, Supplier<CompletableFuture<V>> call) {
+        CompletableFuture<V> source;
+        try {
+            source = call.get();
+        } catch (RuntimeException e) {
+            source = CompletableFuture.failedFuture(e);
+        }
+
+        flight.attach(source);
+        source.whenComplete((value, error) -> {
+            inFlight.remove(key, flight);
+            if (error != null) {
+                flight.result.completeExceptionally(error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error);
+            } else {
+                flight.result.complete(value);
+            }
+        });
+    }
+
+    private static final class Flight<V> {
+        private final CompletableFuture<V> result = new CompletableFuture<>();
+        private CompletableFuture<V> source;
+        private int waiters;
+        private boolean abandoned;
+
+        private synchronized void attach(CompletableFuture<V> source) {
+            this.source = source;
+            if (abandoned) {
+                source.cancel(true);
+            }
+        }
+
+        // null — вызов уже брошен, присоединяться поздно
+        private synchronized CompletableFuture<V> join() {
+            if (abandoned) {
+                return null;
+            }
+            waiters++;
+            CompletableFuture<V> view = result.copy();
+            view.whenComplete((value, error) -> {
+                if (view.isCancelled()) {
+                    leave();
+                }
+            });
+            return view;
+        }
+
+        private synchronized void leave() {
+            if (--waiters == 0 && !result.isDone()) {
+                abandoned = true;
+                if (source != null) {
+                    source.cancel(true);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.agrofarm.backend.upstream;
+
+import java.io.IOException;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+// Предохранитель и адаптивный лимит одного upstream в виде интерсептора OkHttp.
+// Отказ — UpstreamUnavailableException сразу, без сетевого вызова и без ожидания в очереди.
+// Сбоем считаются 5xx и сетевые ошибки/таймауты; остальные ответы (в том числе 404) — успех.
+// 429 — исчерпанная квота, а не отказ upstream: предохранитель её не учитывает (паузу держит QuotaScheduler),
+// лимит параллельности всё же снижается.
+// Для потоковых ответов учитывается время до заголовков.
+public class UpstreamGuard implements Interceptor {
+
+    private final String upstream;
+    private final CircuitBreaker breaker;
+    private final AdaptiveConcurrencyLimiter limiter;
+
+    public UpstreamGuard(String upstream, CircuitBreaker breaker, AdaptiveConcurrencyLimiter limiter) {
+        this.upstream = upstream;
+        this.breaker = breaker;
+        this.limiter = limiter;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        long permit = breaker.tryAcquire();
+        if (permit == CircuitBreaker.NO_PERMIT) {
+            throw new UpstreamUnavailableException(upstream, upstream + " недоступен: предохранитель разомкнут");
+        }
+        if (!limiter.tryAcquire()) {
+            breaker.onIgnore(permit);
+            throw new UpstreamUnavailableException(upstream,
+                    upstream + " перегружен: достигнут лимит " + limiter.limit() + " параллельных запросов");
+        }
+
+        long start = System.nanoTime();
+        try {
+            Response response = chain.proceed(chain.request());
+            if (response.code() == 429) {
+                breaker.onIgnore(permit);
+                limiter.onDropped();
+            } else if (response.code() >= 500) {
+                breaker.onFailure(permit);
+                limiter.onDropped();
+            } else {
+                breaker.onSuccess(permit);
+                limiter.onSuccess(System.nanoTime() - start);
+            }
+            return response;
+        } catch (IOException e) {
+            if (chain.call().isCanceled()) {
+                breaker.onIgnore(permit);
+                limiter.onIgnore();
+            } else {
+                breaker.onFailure(permit);
+                limiter.onDropped();
+            }
+            throw e;
+        } catch (RuntimeException | Error e) {
+            breaker.onIgnore(permit);
+            limiter.onIgnore();
+            throw e;
+        }
+    }
+
+    public String upstream() {
+        return upstream;
+    }
+
+    public CircuitBreaker breaker() {
+        return breaker;
+    }
+
+    public AdaptiveConcurrencyLimiter limiter() {
+        return limiter;
+    }
+}
@@ -0,0 +1,67 @@
+package com.agrofarm.backend.upstream;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+// Таймер upstream.requests на каждый вызов внешнего API:
+// upstream (agro/openai), endpoint (метка запроса), status (HTTP-код, TIMEOUT, CANCELED, REJECTED или IO_ERROR).
+// Для потоковых ответов меряется время до заголовков.
+public class UpstreamMetricsInterceptor implements Interceptor {
+
+    private final MeterRegistry registry;
+    private final String upstream;
+
+    public UpstreamMetricsInterceptor(MeterRegistry registry, String upstream) {
+        this.registry = registry;
+        this.upstream = upstream;
+    }
+
+    // Метка эндпоинта, которую сервисы ставят на запрос: request.tag(UpstreamEndpoint.class)
+    public static Request.Builder endpoint(Request.Builder builder, String endpoint) {
+        return builder.tag(UpstreamEndpoint.class, new UpstreamEndpoint(endpoint));
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        UpstreamEndpoint endpoint = request.tag(UpstreamEndpoint.class);
+        String endpointName = endpoint != null ? endpoint.name() : "other";
+
+        Timer.Sample sample = Timer.start(registry);
+        String status = "IO_ERROR";
+        try {
+            Response response = chain.proceed(request);
+            status = String.valueOf(response.code());
+            return response;
+        } catch (UpstreamUnavailableException e) {
+            status = "REJECTED";
+            throw e;
+        } catch (SocketTimeoutException e) {
+            status = "TIMEOUT";
+            throw e;
+        } catch (InterruptedIOException e) {
+            status = chain.call().isCanceled() ? "CANCELED" : "TIMEOUT";
+            throw e;
+        } catch (IOException e) {
+            status = chain.call().isCanceled() ? "CANCELED" : "IO_ERROR";
+            throw e;
+        } finally {
+            sample.stop(Timer.builder("upstream.requests")
+                    .description("Вызовы внешних API")
+                    .tag("upstream", upstream)
+                    .tag("endpoint", endpointName)
+                    .tag("status", status)
+                    .register(registry));
+        }
+    }
+
+    public record UpstreamEndpoint(String name) {
+    }
+}
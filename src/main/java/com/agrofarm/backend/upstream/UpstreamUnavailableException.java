@@ -0,0 +1,22 @@
+package com.agrofarm.backend.upstream;
+
+import java.io.IOException;
+
+// Вызов отклонён без обращения к upstream: открыт предохранитель или исчерпан лимит параллельных запросов.
+// Наследует IOException, чтобы проходить по тем же путям, что и сетевые ошибки,
+// но его можно поймать отдельно и отдать деградированный ответ.
+public class UpstreamUnavailableException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String upstream;
+
+    public UpstreamUnavailableException(String upstream, String message) {
+        super(message);
+        this.upstream = upstream;
+    }
+
+    public String getUpstream() {
+        return upstream;
+    }
+}
@@ -0,0 +1,55 @@
+package com.agrofarm.backend.AiChat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class ConversationMemoryTest {
+
+	private static final TokenCounter TOKENS = new TokenCounter("gpt-4");
+
+	@Test
+	void dropsOldestPairsWhenOverTokenBudget() {
+		ConversationMemory memory = new ConversationMemory(new NoopConversationStore(), TOKENS, 100, 60, 10);
+
+		memory.append("s", new ChatMessage("user", "первый вопрос"), new ChatMessage("assistant", "первый ответ"));
+		memory.append("s", new ChatMessage("user", "второй вопрос"), new ChatMessage("assistant", "второй ответ"));
+
+		List<ChatMessage> history = memory.history("s");
+		assertEquals(2, history.size());
+		assertEquals("второй вопрос", history.get(0).getContent());
+		assertEquals("второй ответ", history.get(1).getContent());
+	}
+
+	@Test
+	void evictsLeastRecentlyUsedSessionOverLimit() throws InterruptedException {
+		ConversationMemory memory = new ConversationMemory(new NoopConversationStore(), TOKENS, 2, 60, 1000);
+
+		memory.append("a", new ChatMessage("user", "q"), new ChatMessage("assistant", "a"));
+		Thread.sleep(5);
+		memory.append("b", new ChatMessage("user", "q"), new ChatMessage("assistant", "a"));
+		Thread.sleep(5);
+		memory.history("a");
+		Thread.sleep(5);
+		memory.append("c", new ChatMessage("user", "q"), new ChatMessage("assistant", "a"));
+
+		assertEquals(2, memory.sessionCount());
+		assertTrue(memory.history("b").isEmpty());
+		assertEquals(2, memory.history("a").size());
+	}
+
+	@Test
+	void evictsIdleSessions() throws InterruptedException {
+		ConversationMemory memory = new ConversationMemory(new NoopConversationStore(), TOKENS, 100, 0, 1000);
+
+		memory.append("s", new ChatMessage("user", "q"), new ChatMessage("assistant", "a"));
+		Thread.sleep(5);
+		memory.evictIdle();
+
+		assertEquals(0, memory.sessionCount());
+		assertEquals(0, memory.totalTokens());
+	}
+}
@@ -0,0 +1,99 @@
+package com.agrofarm.backend.AiChat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class FileConversationStoreTest {
+
+	private static final TokenCounter TOKENS = new TokenCounter("gpt-4");
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void appendsDropsAndSurvivesRestartAndCompaction() throws IOException {
+		FileConversationStore store = new FileConversationStore(dir, Long.MAX_VALUE);
+		long v1 = store.append("s", ConversationStore.NO_SESSION, pair("q1", "a1"), 0);
+		long v2 = store.append("s", v1, pair("q2", "a2"), 2);
+
+		assertEquals(ConversationStore.CONFLICT, store.append("s", v1, pair("q3", "a3"), 0));
+
+		FileConversationStore restarted = new FileConversationStore(dir, Long.MAX_VALUE);
+		ConversationStore.Stored stored = restarted.load("s");
+		assertEquals(v2, stored.version());
+		assertEquals(List.of("q2", "a2"), contents(stored.messages()));
+
+		long before = Files.size(file());
+		restarted.maintain();
+		assertTrue(Files.size(file()) < before);
+		ConversationStore.Stored compacted = restarted.load("s");
+		assertEquals(List.of("q2", "a2"), contents(compacted.messages()));
+		assertTrue(compacted.version() != v2);
+		assertEquals(compacted.version(), restarted.version("s"));
+	}
+
+	// Сессия, удалённая и начатая заново тем же содержимым, не повторяет прежнюю версию
+	@Test
+	void recreatedSessionGetsNewVersion() throws IOException {
+		FileConversationStore store = new FileConversationStore(dir, Long.MAX_VALUE);
+		long before = store.append("s", ConversationStore.NO_SESSION, pair("q", "a"), 0);
+		store.delete("s");
+		assertEquals(ConversationStore.NO_SESSION, store.version("s"));
+
+		long after = store.append("s", ConversationStore.NO_SESSION, pair("q", "a"), 0);
+		assertTrue(after > before, before + " -> " + after);
+		assertEquals(after, new FileConversationStore(dir, Long.MAX_VALUE).load("s").version());
+	}
+
+	@Test
+	void dropsTornTailOnLoad() throws IOException {
+		FileConversationStore store = new FileConversationStore(dir, Long.MAX_VALUE);
+		long version = store.append("привет мир", ConversationStore.NO_SESSION, pair("вопрос", "ответ"), 0);
+		Files.write(file(), new byte[] {0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+		ConversationStore.Stored stored = store.load("привет мир");
+		assertEquals(List.of("вопрос", "ответ"), contents(stored.messages()));
+		assertEquals(version, stored.version());
+		assertEquals(version, store.version("привет мир"));
+	}
+
+	// Два узла за балансировщиком без sticky-сессий: каждый видит записи другого
+	@Test
+	void nodesShareSessionsThroughStore() {
+		ConversationMemory nodeA = new ConversationMemory(new FileConversationStore(dir, Long.MAX_VALUE), TOKENS, 100, 60, 1000);
+		ConversationMemory nodeB = new ConversationMemory(new FileConversationStore(dir, Long.MAX_VALUE), TOKENS, 100, 60, 1000);
+
+		nodeA.append("s", new ChatMessage("user", "q1"), new ChatMessage("assistant", "a1"));
+		assertEquals(List.of("q1", "a1"), contents(nodeB.history("s")));
+
+		nodeB.append("s", new ChatMessage("user", "q2"), new ChatMessage("assistant", "a2"));
+		nodeA.append("s", new ChatMessage("user", "q3"), new ChatMessage("assistant", "a3"));
+
+		assertEquals(List.of("q1", "a1", "q2", "a2", "q3", "a3"), contents(nodeB.history("s")));
+		assertEquals(contents(nodeB.history("s")), contents(nodeA.history("s")));
+	}
+
+	private Path file() throws IOException {
+		try (Stream<Path> files = Files.walk(dir)) {
+			return files.filter(p -> p.toString().endsWith(".conv")).findFirst().orElseThrow();
+		}
+	}
+
+	private static List<ChatMessage> pair(String question, String answer) {
+		return List.of(new ChatMessage("user", question), new ChatMessage("assistant", answer));
+	}
+
+	private static List<String> contents(List<ChatMessage> messages) {
+		return messages.stream().map(ChatMessage::getContent).toList();
+	}
+}
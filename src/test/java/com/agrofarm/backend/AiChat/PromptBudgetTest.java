@@ -0,0 +1,52 @@
+package com.agrofarm.backend.AiChat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class PromptBudgetTest {
+
+	private static final TokenCounter TOKENS = new TokenCounter("gpt-4");
+
+	@Test
+	void keepsNewestTurnsWithinBudget() {
+		PromptBudget budget = new PromptBudget(TOKENS, 600, 200, 100, 100, 40);
+		List<ChatMessage> history = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			history.add(new ChatMessage("user", "вопрос номер " + i));
+			history.add(new ChatMessage("assistant", "ответ номер " + i + " про влажность почвы и полив"));
+		}
+
+		PromptBudget.Prompt prompt = budget.fit("Ты — цифровой агроном.", history, "Нужен ли полив?");
+
+		assertTrue(prompt.tokens() <= 600 - 200, () -> "tokens " + prompt.tokens());
+		assertTrue(prompt.droppedMessages() > 0);
+		assertEquals(history.size(), prompt.droppedMessages() + prompt.history().size());
+		List<ChatMessage> kept = prompt.history();
+		assertEquals("ответ номер 49 про влажность почвы и полив", kept.get(kept.size() - 1).getContent());
+		assertEquals("user", kept.get(0).getRole());
+	}
+
+	@Test
+	void compressesOldLongMessagesAndTruncatesOversizedText() {
+		PromptBudget budget = new PromptBudget(TOKENS, 4000, 500, 50, 20, 30);
+		String longAnswer = "Почва сухая, рекомендуется полив. ".repeat(100);
+		List<ChatMessage> history = List.of(
+				new ChatMessage("user", "старый вопрос"), new ChatMessage("assistant", longAnswer),
+				new ChatMessage("user", "новый вопрос"), new ChatMessage("assistant", longAnswer));
+
+		PromptBudget.Prompt prompt = budget.fit("Системный промпт. ".repeat(100), history, "Вопрос. ".repeat(100));
+
+		assertEquals(0, prompt.droppedMessages());
+		assertEquals(1, prompt.compressedMessages());
+		assertTrue(TOKENS.count(prompt.history().get(1).getContent()) <= 31);
+		assertEquals(longAnswer, prompt.history().get(3).getContent());
+		assertTrue(prompt.truncated());
+		assertTrue(TOKENS.count(prompt.systemPrompt()) <= 51);
+		assertTrue(prompt.userMessage().endsWith("…"));
+	}
+}
@@ -0,0 +1,37 @@
+package com.agrofarm.backend.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+class BoundedTtlCacheTest {
+
+	@Test
+	void expiredEntryIsMissButStillAvailableAsStale() {
+		BoundedTtlCache<String, String> cache = new BoundedTtlCache<>(10);
+		cache.put("fresh", "a", System.currentTimeMillis() + 60_000);
+		cache.put("old", "b", System.currentTimeMillis() - 1);
+
+		assertEquals("a", cache.get("fresh"));
+		assertNull(cache.get("old"));
+		assertEquals("b", cache.getStale("old"));
+		assertEquals(1, cache.hits());
+		assertEquals(1, cache.misses());
+	}
+
+	@Test
+	void evictsLeastRecentlyUsedOverCapacity() {
+		BoundedTtlCache<String, String> cache = new BoundedTtlCache<>(2);
+		long expiresAt = System.currentTimeMillis() + 60_000;
+		cache.put("a", "1", expiresAt);
+		cache.put("b", "2", expiresAt);
+		cache.get("a");
+		cache.put("c", "3", expiresAt);
+
+		assertEquals(2, cache.size());
+		assertNull(cache.getStale("b"));
+		assertEquals("1", cache.get("a"));
+		assertEquals(1, cache.evictions());
+	}
+}
@@ -0,0 +1,70 @@
+package com.agrofarm.backend.geo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class SpatialIndexTest {
+
+	// Много мелких полей: ответы дерева совпадают с полным перебором
+	@Test
+	void matchesBruteForce() {
+		Random random = new Random(42);
+		List<PolygonGeometry> fields = new ArrayList<>();
+		for (int i = 0; i < 2000; i++) {
+			double lon = 30 + random.nextDouble() * 10;
+			double lat = 45 + random.nextDouble() * 10;
+			double size = 0.005 + random.nextDouble() * 0.05;
+			fields.add(square(lon, lat, size));
+		}
+		SpatialIndex<PolygonGeometry> index = SpatialIndex.build(fields, g -> g);
+		assertEquals(fields.size(), index.size());
+
+		for (int q = 0; q < 200; q++) {
+			double lon = 30 + random.nextDouble() * 10;
+			double lat = 45 + random.nextDouble() * 10;
+
+			List<PolygonGeometry> expected = fields.stream().filter(g -> g.contains(lon, lat)).toList();
+			assertEquals(expected.size(), index.containing(lon, lat).size());
+			assertTrue(index.containing(lon, lat).containsAll(expected));
+
+			List<PolygonGeometry> near = fields.stream().filter(g -> g.distanceKm(lon, lat) <= 15).toList();
+			List<SpatialIndex.Hit<PolygonGeometry>> hits = index.within(lon, lat, 15, 0);
+			assertEquals(near.size(), hits.size());
+			assertTrue(hits.stream().map(SpatialIndex.Hit::item).toList().containsAll(near));
+			for (int i = 1; i < hits.size(); i++) {
+				assertTrue(hits.get(i - 1).distanceKm() <= hits.get(i).distanceKm());
+			}
+		}
+	}
+
+	@Test
+	void respectsHolesAndMeasuresDistanceToEdge() {
+		double[] outer = {37.0, 55.0, 37.1, 55.0, 37.1, 55.1, 37.0, 55.1};
+		double[] hole = {37.04, 55.04, 37.06, 55.04, 37.06, 55.06, 37.04, 55.06};
+		PolygonGeometry field = new PolygonGeometry(List.<double[][]>of(new double[][] {outer, hole}));
+		SpatialIndex<String> index = SpatialIndex.build(List.of("field", "no-geometry"),
+				name -> name.equals("field") ? field : null);
+
+		assertEquals(1, index.size());
+		assertEquals(List.of("field"), index.containing(37.02, 55.02));
+		assertTrue(index.containing(37.05, 55.05).isEmpty());
+		assertTrue(index.containing(37.2, 55.05).isEmpty());
+
+		// 0.1° восточнее края на широте 55.05: около 6.4 км
+		List<SpatialIndex.Hit<String>> hits = index.within(37.2, 55.05, 10, 5);
+		assertEquals(1, hits.size());
+		assertEquals(6.38, hits.get(0).distanceKm(), 0.05);
+		assertTrue(index.within(37.2, 55.05, 5, 5).isEmpty());
+	}
+
+	private static PolygonGeometry square(double lon, double lat, double size) {
+		double[] ring = {lon, lat, lon + size, lat, lon + size, lat + size, lon, lat + size, lon, lat};
+		return new PolygonGeometry(List.<double[][]>of(new double[][] {ring}));
+	}
+}
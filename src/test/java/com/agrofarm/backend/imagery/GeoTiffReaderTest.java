@@ -0,0 +1,282 @@
+package com.agrofarm.backend.imagery;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class GeoTiffReaderTest {
+
+	private static final int WIDTH = 37;
+	private static final int HEIGHT = 23;
+
+	@TempDir
+	Path dir;
+
+	// Float32 полосами: без сжатия и Deflate с предиктором 3, в обоих порядках байт
+	@Test
+	void readsFloatStripsAndGeoreference() throws IOException {
+		float[] expected = ndvi();
+		expected[5] = Float.NaN;
+		for (ByteOrder order : List.of(ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN)) {
+			for (int compression : new int[] {1, 8}) {
+				Path file = dir.resolve(order + "-" + compression + ".tif");
+				Files.write(file, new TiffBuilder(order, 32, 3).compression(compression, compression == 8 ? 3 : 1)
+						.blocks(WIDTH, 5, false).noData("-9999").write(withNoData(expected, -9999)));
+
+				Raster raster = GeoTiffReader.read(file);
+				assertEquals(WIDTH, raster.width());
+				assertEquals(HEIGHT, raster.height());
+				assertRaster(expected, raster);
+				assertTrue(raster.isGeoreferenced());
+				assertEquals(37.0 + 0.5 * 0.001, raster.lon(0), 1e-12);
+				assertEquals(55.1 - 2.5 * 0.001, raster.lat(2), 1e-12);
+			}
+		}
+	}
+
+	// Int16 тайлами (тайлы выходят за край растра) с Deflate и предиктором 2
+	@Test
+	void readsIntegerTilesWithHorizontalPredictor() throws IOException {
+		float[] expected = new float[WIDTH * HEIGHT];
+		for (int i = 0; i < expected.length; i++) {
+			expected[i] = (i * 37 % 2001) - 1000;
+		}
+		Path file = dir.resolve("tiles.tif");
+		Files.write(file, new TiffBuilder(ByteOrder.LITTLE_ENDIAN, 16, 2).compression(8, 2)
+				.blocks(16, 16, true).write(expected));
+
+		assertRaster(expected, GeoTiffReader.read(file));
+	}
+
+	@Test
+	void rejectsUnsupportedCompression() throws IOException {
+		Path file = dir.resolve("lzw.tif");
+		Files.write(file, new TiffBuilder(ByteOrder.LITTLE_ENDIAN, 32, 3).compression(5, 1)
+				.blocks(WIDTH, HEIGHT, false).write(ndvi()));
+
+		assertThrows(IOException.class, () -> GeoTiffReader.read(file));
+	}
+
+	private static float[] ndvi() {
+		float[] values = new float[WIDTH * HEIGHT];
+		for (int row = 0; row < HEIGHT; row++) {
+			for (int col = 0; col < WIDTH; col++) {
+				values[row * WIDTH + col] = (float) Math.sin(row * 0.3 + col * 0.17) * 0.9f;
+			}
+		}
+		return values;
+	}
+
+	private static float[] withNoData(float[] values, float noData) {
+		float[] copy = values.clone();
+		for (int i = 0; i < copy.length; i++) {
+			if (Float.isNaN(copy[i])) {
+				copy[i] = noData;
+			}
+		}
+		return copy;
+	}
+
+	private static void assertRaster(float[] expected, Raster raster) {
+		for (int row = 0; row < HEIGHT; row++) {
+			for (int col = 0; col < WIDTH; col++) {
+				assertEquals(expected[row * WIDTH + col], raster.value(row, col), 0f, "пиксель " + row + "," + col);
+			}
+		}
+	}
+
+	// Пишет одноканальный GeoTIFF WIDTH x HEIGHT с привязкой к (37.0, 55.1) и шагом 0.001°
+	private static final class TiffBuilder {
+
+		private final ByteOrder order;
+		private final int bits;
+		private final int format;
+		private int compression = 1;
+		private int predictor = 1;
+		private int blockWidth = WIDTH;
+		private int blockHeight = HEIGHT;
+		private boolean tiled;
+		private String noData;
+
+		TiffBuilder(ByteOrder order, int bits, int format) {
+			this.order = order;
+			this.bits = bits;
+			this.format = format;
+		}
+
+		TiffBuilder compression(int compression, int predictor) {
+			this.compression = compression;
+			this.predictor = predictor;
+			return this;
+		}
+
+		TiffBuilder blocks(int width, int height, boolean tiled) {
+			this.blockWidth = width;
+			this.blockHeight = height;
+			this.tiled = tiled;
+			return this;
+		}
+
+		TiffBuilder noData(String noData) {
+			this.noData = noData;
+			return this;
+		}
+
+		byte[] write(float[] values) {
+			int size = bits / 8;
+			int across = (WIDTH + blockWidth - 1) / blockWidth;
+			int down = (HEIGHT + blockHeight - 1) / blockHeight;
+			List<byte[]> blocks = new ArrayList<>();
+			for (int by = 0; by < down; by++) {
+				for (int bx = 0; bx < across; bx++) {
+					int rows = tiled ? blockHeight : Math.min(blockHeight, HEIGHT - by * blockHeight);
+					ByteBuffer block = ByteBuffer.allocate(blockWidth * rows * size).order(order);
+					for (int r = 0; r < rows; r++) {
+						for (int c = 0; c < blockWidth; c++) {
+							int row = by * blockHeight + r;
+							int col = bx * blockWidth + c;
+							float value = row < HEIGHT && col < WIDTH ? values[row * WIDTH + col] : 0;
+							int pos = (r * blockWidth + c) * size;
+							if (bits == 32) {
+								block.putFloat(pos, value);
+							} else {
+								block.putShort(pos, (short) value);
+							}
+						}
+					}
+					encodePredictor(block.array(), rows, size);
+					blocks.add(compression == 8 ? deflate(block.array()) : block.array());
+				}
+			}
+
+			List<int[]> entries = new ArrayList<>();
+			ByteBuffer extra = ByteBuffer.allocate(64 * 1024).order(order);
+			int dataStart = 8;
+			int dataLength = blocks.stream().mapToInt(b -> b.length).sum();
+			int ifdOffset = dataStart + dataLength;
+			int tagCount = 13 + (noData != null ? 1 : 0);
+			int extraStart = ifdOffset + 2 + tagCount * 12 + 4;
+
+			int[] offsets = new int[blocks.size()];
+			int[] counts = new int[blocks.size()];
+			int position = dataStart;
+			for (int i = 0; i < blocks.size(); i++) {
+				offsets[i] = position;
+				counts[i] = blocks.get(i).length;
+				position += counts[i];
+			}
+
+			entries.add(new int[] {256, 4, 1, WIDTH});
+			entries.add(new int[] {257, 4, 1, HEIGHT});
+			entries.add(new int[] {258, 3, 1, bits});
+			entries.add(new int[] {259, 3, 1, compression});
+			entries.add(new int[] {277, 3, 1, 1});
+			if (tiled) {
+				entries.add(new int[] {322, 3, 1, blockWidth});
+				entries.add(new int[] {323, 3, 1, blockHeight});
+				entries.add(array(324, offsets, extra, extraStart));
+				entries.add(array(325, counts, extra, extraStart));
+			} else {
+				entries.add(array(273, offsets, extra, extraStart));
+				entries.add(new int[] {278, 3, 1, blockHeight});
+				entries.add(array(279, counts, extra, extraStart));
+				entries.add(new int[] {284, 3, 1, 1});
+			}
+			entries.add(new int[] {317, 3, 1, predictor});
+			entries.add(new int[] {339, 3, 1, format});
+			entries.add(doubles(33550, new double[] {0.001, 0.001, 0}, extra, extraStart));
+			entries.add(doubles(33922, new double[] {0, 0, 0, 37.0, 55.1, 0}, extra, extraStart));
+			if (noData != null) {
+				byte[] text = (noData + "\0").getBytes();
+				int at = extraStart + extra.position();
+				extra.put(text);
+				entries.add(new int[] {42113, 2, text.length, at});
+			}
+			entries.sort((a, b) -> Integer.compare(a[0], b[0]));
+
+			ByteBuffer out = ByteBuffer.allocate(extraStart + extra.position()).order(order);
+			out.put(order == ByteOrder.LITTLE_ENDIAN ? new byte[] {'I', 'I'} : new byte[] {'M', 'M'});
+			out.putShort((short) 42).putInt(ifdOffset);
+			blocks.forEach(out::put);
+			out.putShort((short) entries.size());
+			for (int[] entry : entries) {
+				out.putShort((short) entry[0]).putShort((short) entry[1]).putInt(entry[2]);
+				if (entry[1] == 3 && entry[2] == 1) {
+					out.putShort((short) entry[3]).putShort((short) 0);
+				} else {
+					out.putInt(entry[3]);
+				}
+			}
+			out.putInt(0);
+			out.put(Arrays.copyOf(extra.array(), extra.position()));
+			return out.array();
+		}
+
+		private void encodePredictor(byte[] block, int rows, int size) {
+			int rowBytes = blockWidth * size;
+			ByteBuffer view = ByteBuffer.wrap(block).order(order);
+			for (int r = 0; r < rows; r++) {
+				int start = r * rowBytes;
+				if (predictor == 2) {
+					for (int pos = start + rowBytes - size; pos > start; pos -= size) {
+						view.putShort(pos, (short) (view.getShort(pos) - view.getShort(pos - size)));
+					}
+				} else if (predictor == 3) {
+					byte[] planes = new byte[rowBytes];
+					for (int s = 0; s < blockWidth; s++) {
+						for (int b = 0; b < size; b++) {
+							int fileByte = order == ByteOrder.LITTLE_ENDIAN ? size - 1 - b : b;
+							planes[b * blockWidth + s] = block[start + s * size + fileByte];
+						}
+					}
+					for (int i = rowBytes - 1; i > 0; i--) {
+						planes[i] -= planes[i - 1];
+					}
+					System.arraycopy(planes, 0, block, start, rowBytes);
+				}
+			}
+		}
+
+		private static byte[] deflate(byte[] data) {
+			Deflater deflater = new Deflater();
+			deflater.setInput(data);
+			deflater.finish();
+			byte[] buffer = new byte[data.length * 2 + 64];
+			int length = deflater.deflate(buffer);
+			deflater.end();
+			return Arrays.copyOf(buffer, length);
+		}
+
+		private static int[] array(int tag, int[] values, ByteBuffer extra, int extraStart) {
+			if (values.length == 1) {
+				return new int[] {tag, 4, 1, values[0]};
+			}
+			int at = extraStart + extra.position();
+			for (int value : values) {
+				extra.putInt(value);
+			}
+			return new int[] {tag, 4, values.length, at};
+		}
+
+		private static int[] doubles(int tag, double[] values, ByteBuffer extra, int extraStart) {
+			int at = extraStart + extra.position();
+			for (double value : values) {
+				extra.putDouble(value);
+			}
+			return new int[] {tag, 12, values.length, at};
+		}
+	}
+}
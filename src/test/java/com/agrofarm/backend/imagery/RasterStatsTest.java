@@ -0,0 +1,78 @@
+package com.agrofarm.backend.imagery;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+import com.agrofarm.backend.geo.PolygonGeometry;
+
+class RasterStatsTest {
+
+	// Растр 500x400 делится на несколько полос; результат совпадает с последовательным подсчётом по маске
+	@Test
+	void parallelStatsMatchSequentialScanInsideMask() {
+		int width = 500;
+		int height = 400;
+		Random random = new Random(7);
+		float[] values = new float[width * height];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = random.nextInt(20) == 0 ? Float.NaN : (float) (random.nextGaussian() * 0.2 + 0.5);
+		}
+		Raster raster = new Raster(width, height, values, 37.0, 55.4, 0.001, 0.001);
+		// Треугольник в левой нижней части растра
+		PolygonGeometry mask = new PolygonGeometry(List.<double[][]>of(new double[][] {
+				{37.05, 55.05, 37.35, 55.05, 37.05, 55.35}}));
+
+		ForkJoinPool pool = new ForkJoinPool(4);
+		RasterStats stats;
+		try {
+			stats = RasterStats.compute(raster, mask, pool);
+		} finally {
+			pool.shutdown();
+		}
+
+		double[] inside = new double[values.length];
+		int count = 0;
+		for (int row = 0; row < height; row++) {
+			for (int col = 0; col < width; col++) {
+				float value = raster.value(row, col);
+				if (value >= -1 && value <= 1 && mask.contains(raster.lon(col), raster.lat(row))) {
+					inside[count++] = value;
+				}
+			}
+		}
+		double[] sorted = Arrays.copyOf(inside, count);
+		Arrays.sort(sorted);
+
+		assertTrue(count > 10_000);
+		assertEquals(count, stats.count());
+		assertEquals(Arrays.stream(sorted).average().orElseThrow(), stats.mean(), 1e-9);
+		assertEquals(sorted[0], stats.min(), 0);
+		assertEquals(sorted[count - 1], stats.max(), 0);
+		assertEquals(sorted[count / 2], stats.percentile(0.5), 0.01);
+		assertEquals(sorted[count / 10], stats.percentile(0.1), 0.01);
+		long dense = Arrays.stream(sorted).filter(v -> v >= 0.6).count();
+		assertEquals((double) dense / count, stats.share(0.6, 1.01), 1e-9);
+	}
+
+	@Test
+	void ignoresMaskOutsideRasterAndEmptyRaster() {
+		float[] values = {0.1f, 0.3f, Float.NaN, 0.9f};
+		Raster raster = new Raster(2, 2, values, 37.0, 55.0, 0.001, 0.001);
+		PolygonGeometry elsewhere = new PolygonGeometry(List.<double[][]>of(new double[][] {
+				{10, 10, 11, 10, 11, 11}}));
+
+		RasterStats stats = RasterStats.compute(raster, elsewhere, ForkJoinPool.commonPool());
+		assertEquals(3, stats.count());
+		assertEquals(1.0 / 3, stats.share(0.2, 0.4), 1e-9);
+
+		Raster empty = new Raster(2, 1, new float[] {Float.NaN, 5f}, Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+		assertTrue(RasterStats.compute(empty, null, ForkJoinPool.commonPool()).isEmpty());
+	}
+}
@@ -0,0 +1,113 @@
+package com.agrofarm.backend.loadtest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import com.agrofarm.backend.loadtest.LoadGenerator.Report;
+
+// Нагрузочный прогон без сети и платных ключей: приложение поднимается целиком,
+// agromonitoring и OpenAI заменены локальными заглушками.
+// Запуск: ./mvnw -Ploadtest test -Dloadtest.rps=50 -Dloadtest.duration-seconds=60 -Dloadtest.openai.latency-ms=800
+// Остальные параметры заглушек — в StubUpstreams.Settings.
+@Tag("loadtest")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class ApiLoadTest {
+
+	private static final int RATE = Integer.getInteger("loadtest.rps", 20);
+	private static final Duration DURATION = Duration.ofSeconds(Long.getLong("loadtest.duration-seconds", 15));
+	private static final Duration TIMEOUT = Duration.ofSeconds(Long.getLong("loadtest.timeout-seconds", 60));
+
+	private static final StubUpstreams.Settings SETTINGS = StubUpstreams.Settings.fromSystemProperties();
+	private static final StubUpstreams STUBS = startStubs();
+	private static final LoadGenerator GENERATOR = new LoadGenerator();
+
+	@LocalServerPort
+	private int port;
+
+	@DynamicPropertySource
+	static void upstreams(DynamicPropertyRegistry registry) {
+		registry.add("agro.api.base-url", STUBS::agroBaseUrl);
+		registry.add("openai.api.url", STUBS::openAiUrl);
+		// У заглушек квот нет; меряем само приложение, а не ожидание токенов
+		registry.add("upstream.agro.quota.per-minute", () -> "0");
+		registry.add("upstream.openai.quota.per-minute", () -> "0");
+	}
+
+	@AfterAll
+	static void stopStubs() {
+		GENERATOR.close();
+		STUBS.close();
+	}
+
+	@Test
+	void chat() throws InterruptedException {
+		Report report = GENERATOR.run("/chat", RATE, DURATION, TIMEOUT,
+				i -> post("/api/ai/chat", "{\"polygonId\":\"" + polygon(i) + "\",\"message\":\"Нужен ли полив?\"}"),
+				body -> body.contains("\"error\""));
+
+		print(report);
+		assertCompleted(report);
+	}
+
+	@Test
+	void chatStream() throws InterruptedException {
+		Report report = GENERATOR.run("/chat/stream", RATE, DURATION, TIMEOUT,
+				i -> post("/api/ai/chat/stream", "{\"polygonId\":\"" + polygon(i) + "\",\"message\":\"Нужен ли полив?\"}")
+						.header("Accept", "text/event-stream"),
+				body -> !body.contains("event:done"));
+
+		print(report);
+		assertCompleted(report);
+	}
+
+	@Test
+	void polygonInfo() throws InterruptedException {
+		Report report = GENERATOR.run("/polygon-info", RATE, DURATION, TIMEOUT,
+				i -> post("/api/ai/polygon-info", "{\"polygonId\":\"" + polygon(i) + "\"}"),
+				body -> body.contains("Ошибка"));
+
+		print(report);
+		assertCompleted(report);
+	}
+
+	private HttpRequest.Builder post(String path, String json) {
+		return HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + path))
+				.header("Content-Type", "application/json")
+				.POST(HttpRequest.BodyPublishers.ofString(json));
+	}
+
+	private static String polygon(int index) {
+		return StubUpstreams.polygonId(index % SETTINGS.polygons());
+	}
+
+	private static void print(Report report) {
+		System.out.println(report + " | upstream calls: agro " + STUBS.agroRequests() + ", openai " + STUBS.openAiRequests());
+	}
+
+	// Ошибки upstream ожидаемы (их долю задаёт loadtest.error-rate), но ни один запрос не должен повиснуть до таймаута
+	private static void assertCompleted(Report report) {
+		assertEquals(0, report.timeouts(), report::toString);
+		assertTrue(report.errors() < report.requests(), report::toString);
+	}
+
+	private static StubUpstreams startStubs() {
+		try {
+			return new StubUpstreams(SETTINGS);
+		} catch (IOException e) {
+			throw new IllegalStateException("Не удалось запустить заглушки upstream", e);
+		}
+	}
+}
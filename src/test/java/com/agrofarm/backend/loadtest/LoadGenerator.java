@@ -0,0 +1,111 @@
+package com.agrofarm.backend.loadtest;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+
+// Генератор нагрузки с открытой моделью: запросы отправляются по расписанию с заданной частотой,
+// не дожидаясь ответов, — медленный сервер не снижает подаваемую нагрузку, а копит очередь.
+// Задержка считается от запланированного момента отправки, так что отставание генератора тоже попадает в замер.
+final class LoadGenerator {
+
+	private final HttpClient client;
+	private final ExecutorService executor;
+
+	LoadGenerator() {
+		this.executor = Executors.newCachedThreadPool(r -> {
+			Thread thread = new Thread(r, "load-generator");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.client = HttpClient.newBuilder()
+				.executor(executor)
+				.connectTimeout(Duration.ofSeconds(5))
+				.build();
+	}
+
+	// requestFactory получает порядковый номер запроса; failed отмечает ответы 200, которые всё же являются ошибкой
+	Report run(String name, int ratePerSecond, Duration duration, Duration timeout,
+			   IntFunction<HttpRequest.Builder> requestFactory, Predicate<String> failed) throws InterruptedException {
+		int total = (int) Math.max(1, ratePerSecond * duration.toMillis() / 1000);
+		long intervalNanos = TimeUnit.SECONDS.toNanos(1) / ratePerSecond;
+		long[] latenciesNanos = new long[total];
+		AtomicInteger errors = new AtomicInteger();
+		AtomicInteger timeouts = new AtomicInteger();
+		List<CompletableFuture<?>> inFlight = new ArrayList<>(total);
+
+		long start = System.nanoTime();
+		for (int i = 0; i < total; i++) {
+			long scheduledAt = start + i * intervalNanos;
+			long wait = scheduledAt - System.nanoTime();
+			if (wait > 0) {
+				LockSupport.parkNanos(wait);
+			}
+
+			int index = i;
+			HttpRequest request = requestFactory.apply(i)
+					.timeout(timeout)
+					.build();
+			inFlight.add(client.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+					.whenComplete((response, error) -> {
+						latenciesNanos[index] = System.nanoTime() - scheduledAt;
+						if (error != null) {
+							if (error instanceof HttpTimeoutException || error.getCause() instanceof HttpTimeoutException) {
+								timeouts.incrementAndGet();
+							}
+							errors.incrementAndGet();
+						} else if (response.statusCode() != 200 || failed.test(response.body())) {
+							errors.incrementAndGet();
+						}
+					}));
+		}
+
+		CompletableFuture.allOf(inFlight.toArray(CompletableFuture[]::new))
+				.exceptionally(e -> null)
+				.join();
+		long elapsed = System.nanoTime() - start;
+
+		return new Report(name, ratePerSecond, total, errors.get(), timeouts.get(), elapsed, latenciesNanos);
+	}
+
+	void close() {
+		executor.shutdownNow();
+	}
+
+	record Report(String name, int targetRate, int requests, int errors, int timeouts, long elapsedNanos, long[] latenciesNanos) {
+
+		double throughput() {
+			return requests * 1e9 / elapsedNanos;
+		}
+
+		double percentileMillis(double percentile) {
+			long[] sorted = latenciesNanos.clone();
+			Arrays.sort(sorted);
+			int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+			return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT,
+					"%-16s target %4d rps | %6d req in %6.1f s | throughput %7.1f rps | errors %5d (timeouts %d) | "
+							+ "p50 %8.1f ms | p99 %8.1f ms | max %8.1f ms",
+					name, targetRate, requests, elapsedNanos / 1e9, throughput(), errors, timeouts,
+					percentileMillis(50), percentileMillis(99), percentileMillis(100));
+		}
+	}
+}
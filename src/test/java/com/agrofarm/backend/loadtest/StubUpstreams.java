@@ -0,0 +1,224 @@
+package com.agrofarm.backend.loadtest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+// Локальные заглушки agromonitoring и OpenAI для нагрузочных тестов.
+// Отвечают правдоподобными телами с заданной задержкой и долей ошибок 500;
+// потоковые запросы OpenAI (stream=true) отдаются кусками SSE с паузой между ними.
+final class StubUpstreams implements AutoCloseable {
+
+	static final String AGRO_BASE_PATH = "/agro/1.0";
+	static final String OPENAI_PATH = "/v1/chat/completions";
+
+	private final Settings settings;
+	private final HttpServer server;
+	private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+		Thread thread = new Thread(r, "stub-upstream");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final AtomicLong agroRequests = new AtomicLong();
+	private final AtomicLong openAiRequests = new AtomicLong();
+
+	StubUpstreams(Settings settings) throws IOException {
+		this.settings = settings;
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+		server.createContext(AGRO_BASE_PATH, this::handleAgro);
+		server.createContext(OPENAI_PATH, this::handleOpenAi);
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	String agroBaseUrl() {
+		return baseUrl() + AGRO_BASE_PATH;
+	}
+
+	String openAiUrl() {
+		return baseUrl() + OPENAI_PATH;
+	}
+
+	long agroRequests() {
+		return agroRequests.get();
+	}
+
+	long openAiRequests() {
+		return openAiRequests.get();
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private String baseUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	private void handleAgro(HttpExchange exchange) throws IOException {
+		agroRequests.incrementAndGet();
+		try (exchange) {
+			sleep(settings.agroLatencyMs());
+			if (failNow()) {
+				respond(exchange, 500, "application/json", "{\"cod\":500,\"message\":\"stub failure\"}");
+				return;
+			}
+
+			String path = exchange.getRequestURI().getPath().substring(AGRO_BASE_PATH.length());
+			String polygonId = queryParam(exchange, "polyid");
+			if (path.equals("/polygons")) {
+				respond(exchange, 200, "application/json", polygonsJson());
+			} else if (path.startsWith("/polygons/")) {
+				respond(exchange, 200, "application/json", polygonJson(path.substring("/polygons/".length())));
+			} else if (path.equals("/soil") && polygonId != null) {
+				respond(exchange, 200, "application/json", soilJson(polygonId));
+			} else if (path.equals("/weather") && polygonId != null) {
+				respond(exchange, 200, "application/json", weatherJson(polygonId));
+			} else {
+				respond(exchange, 404, "application/json", "{\"cod\":404,\"message\":\"not found\"}");
+			}
+		}
+	}
+
+	private void handleOpenAi(HttpExchange exchange) throws IOException {
+		openAiRequests.incrementAndGet();
+		try (exchange) {
+			String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+			sleep(settings.openAiLatencyMs());
+			if (failNow()) {
+				respond(exchange, 500, "application/json", "{\"error\":{\"message\":\"stub failure\",\"type\":\"server_error\"}}");
+				return;
+			}
+
+			if (body.contains("\"stream\":true")) {
+				streamCompletion(exchange);
+			} else {
+				respond(exchange, 200, "application/json", completionJson());
+			}
+		}
+	}
+
+	// Первый кусок уходит после задержки ответа, остальные — через streamChunkDelayMs
+	private void streamCompletion(HttpExchange exchange) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+		exchange.sendResponseHeaders(200, 0);
+		OutputStream out = exchange.getResponseBody();
+		for (int i = 0; i < settings.streamChunks(); i++) {
+			if (i > 0) {
+				sleep(settings.streamChunkDelayMs());
+			}
+			writeEvent(out, "{\"id\":\"chatcmpl-stub\",\"object\":\"chat.completion.chunk\",\"choices\":[{\"index\":0,"
+					+ "\"delta\":{\"content\":\"слово" + i + " \"},\"finish_reason\":null}]}");
+		}
+		writeEvent(out, "{\"id\":\"chatcmpl-stub\",\"object\":\"chat.completion.chunk\",\"choices\":[],"
+				+ "\"usage\":{\"prompt_tokens\":300,\"completion_tokens\":" + settings.streamChunks() + "}}");
+		writeEvent(out, "[DONE]");
+	}
+
+	private static void writeEvent(OutputStream out, String data) throws IOException {
+		out.write(("data: " + data + "\n\n").getBytes(StandardCharsets.UTF_8));
+		out.flush();
+	}
+
+	private String polygonsJson() {
+		StringBuilder json = new StringBuilder("[");
+		for (int i = 0; i < settings.polygons(); i++) {
+			if (i > 0) {
+				json.append(',');
+			}
+			json.append(polygonJson(polygonId(i)));
+		}
+		return json.append(']').toString();
+	}
+
+	private static String polygonJson(String polygonId) {
+		return "{\"id\":\"" + polygonId + "\",\"name\":\"Поле " + polygonId + "\",\"area\":120.5,"
+				+ "\"center\":[71.4,51.1],\"user_id\":\"stub\",\"created_at\":1717180222}";
+	}
+
+	// Значения зависят от id, чтобы у разных полигонов были разные ключи кэша рекомендаций
+	private static String soilJson(String polygonId) {
+		int seed = Math.floorMod(polygonId.hashCode(), 1000);
+		return String.format(Locale.ROOT, "{\"dt\":%d,\"t10\":%.2f,\"moisture\":%.3f,\"t0\":%.2f}",
+				System.currentTimeMillis() / 1000, 285.0 + seed % 10, 0.1 + seed / 5000.0, 288.0 + seed % 15);
+	}
+
+	private static String weatherJson(String polygonId) {
+		int seed = Math.floorMod(polygonId.hashCode(), 1000);
+		return String.format(Locale.ROOT, "{\"dt\":%d,\"weather\":[{\"id\":803,\"main\":\"Clouds\",\"description\":\"broken clouds\"}],"
+				+ "\"main\":{\"temp\":%.2f,\"pressure\":%d,\"humidity\":%d},\"wind\":{\"speed\":%.1f,\"deg\":214}}",
+				System.currentTimeMillis() / 1000, 290.0 + seed % 12, 1000 + seed % 25, 40 + seed % 50, 1.0 + seed % 9);
+	}
+
+	private static String completionJson() {
+		return "{\"id\":\"chatcmpl-stub\",\"object\":\"chat.completion\",\"choices\":[{\"index\":0,\"message\":{\"role\":\"assistant\","
+				+ "\"content\":\"Почва в норме, полив не нужен. Подкормку лучше провести утром при слабом ветре.\"},"
+				+ "\"finish_reason\":\"stop\"}],\"usage\":{\"prompt_tokens\":300,\"completion_tokens\":40,\"total_tokens\":340}}";
+	}
+
+	static String polygonId(int index) {
+		return String.format(Locale.ROOT, "stub%020d", index);
+	}
+
+	private boolean failNow() {
+		return settings.errorRate() > 0 && ThreadLocalRandom.current().nextDouble() < settings.errorRate();
+	}
+
+	private static String queryParam(HttpExchange exchange, String name) {
+		String query = exchange.getRequestURI().getRawQuery();
+		if (query == null) {
+			return null;
+		}
+		for (String pair : query.split("&")) {
+			if (pair.startsWith(name + "=")) {
+				return pair.substring(name.length() + 1);
+			}
+		}
+		return null;
+	}
+
+	private static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(status, bytes.length);
+		exchange.getResponseBody().write(bytes);
+	}
+
+	private static void sleep(long millis) {
+		if (millis <= 0) {
+			return;
+		}
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// Поведение заглушек; значения по умолчанию переопределяются -Dloadtest.*
+	record Settings(long agroLatencyMs, long openAiLatencyMs, double errorRate,
+					int streamChunks, long streamChunkDelayMs, int polygons) {
+
+		static Settings fromSystemProperties() {
+			return new Settings(
+					Long.getLong("loadtest.agro.latency-ms", 80),
+					Long.getLong("loadtest.openai.latency-ms", 400),
+					Double.parseDouble(System.getProperty("loadtest.error-rate", "0.01")),
+					Integer.getInteger("loadtest.stream.chunks", 20),
+					Long.getLong("loadtest.stream.chunk-delay-ms", 25),
+					Integer.getInteger("loadtest.polygons", 1000));
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package com.agrofarm.backend.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.agrofarm.backend.dto.ChatCompletion;
+import com.agrofarm.backend.dto.Polygon;
+import com.agrofarm.backend.dto.SoilData;
+import com.agrofarm.backend.dto.WeatherData;
+import com.agrofarm.backend.geo.PolygonGeometry;
+
+class UpstreamJsonParserTest {
+
+	@Test
+	void parsesSoil() throws IOException {
+		SoilData soil = UpstreamJsonParser.parseSoil(stream("{\"dt\":1522108800,\"t10\":281.96,\"moisture\":0.175,\"t0\":279.02}"));
+
+		assertEquals(1522108800L, soil.getDt());
+		assertEquals(279.02, soil.getT0(), 1e-9);
+		assertEquals(281.96, soil.getT10(), 1e-9);
+		assertEquals(0.175, soil.getMoisture(), 1e-9);
+		assertEquals("дата 2018-03-27T00:00:00Z, t поверхности 5.9°C, t на 10 см 8.8°C, влажность 0.175 м³/м³",
+				soil.toPromptString());
+	}
+
+	@Test
+	void parsesWeatherAndSkipsUnknownFields() throws IOException {
+		WeatherData weather = UpstreamJsonParser.parseWeather(stream("""
+				{"dt":1485703465,
+				 "weather":[{"id":804,"main":"Clouds","description":"overcast clouds","icon":"04d"},
+				            {"id":500,"description":"light rain"}],
+				 "main":{"temp":282.09,"feels_like":280.1,"pressure":1016,"humidity":87},
+				 "wind":{"speed":5.1,"deg":230},
+				 "clouds":{"all":92}}
+				"""));
+
+		assertEquals("overcast clouds", weather.getDescription());
+		assertEquals(282.09, weather.getTemp(), 1e-9);
+		assertEquals(87, weather.getHumidity(), 1e-9);
+		assertEquals(1016, weather.getPressure(), 1e-9);
+		assertEquals(5.1, weather.getWindSpeed(), 1e-9);
+	}
+
+	@Test
+	void parsesSoilAndWeatherHistory() throws IOException {
+		List<SoilData> soil = UpstreamJsonParser.parseSoilHistory(stream("""
+				[{"dt":1522108800,"t10":281.96,"moisture":0.175,"t0":279.02},
+				 {"dt":1522152000,"t10":282.10,"moisture":0.170,"t0":283.40}]
+				"""));
+		List<WeatherData> weather = UpstreamJsonParser.parseWeatherHistory(stream("""
+				[{"dt":1485703465,"weather":[{"description":"light rain"}],"main":{"temp":282.09,"humidity":87},"wind":{"speed":5.1}}]
+				"""));
+
+		assertEquals(2, soil.size());
+		assertEquals(0.170, soil.get(1).getMoisture(), 1e-9);
+		assertEquals(1, weather.size());
+		assertEquals("light rain", weather.get(0).getDescription());
+		assertEquals(87, weather.get(0).getHumidity(), 1e-9);
+	}
+
+	@Test
+	void parsesPolygonListWithoutGeometry() throws IOException {
+		List<Polygon> polygons = UpstreamJsonParser.parsePolygons(stream("""
+				[{"id":"5aaa","geo_json":{"type":"Feature","geometry":{"type":"Polygon","coordinates":[[[1,2],[3,4]]]}},
+				  "name":"Поле 1","center":[1.5,2.5],"area":190.9,"user_id":"u","created_at":1527000000},
+				 {"id":"5bbb","area":10}]
+				"""));
+
+		assertEquals(2, polygons.size());
+		assertEquals("Поле 1", polygons.get(0).getName());
+		assertEquals(190.9, polygons.get(0).getArea(), 1e-9);
+		assertEquals("5bbb", polygons.get(1).getName());
+		// Кольцо из двух точек — не контур: поле остаётся, но без геометрии
+		assertNull(polygons.get(0).getGeometry());
+		assertEquals(2.5, polygons.get(0).getCenterLat(), 1e-9);
+	}
+
+	@Test
+	void parsesPolygonGeometryAndCenter() throws IOException {
+		List<Polygon> polygons = UpstreamJsonParser.parsePolygons(stream("""
+				[{"id":"p","geo_json":{"type":"Feature","properties":{},"geometry":{"type":"Polygon",
+				  "coordinates":[[[0,0],[4,0],[4,4],[0,4],[0,0]],[[1,1],[2,1],[2,2],[1,2],[1,1]]]}},"center":[2,2]},
+				 {"id":"m","geo_json":{"coordinates":[[[[10,10],[11,10],[11,11],[10,10]]],[[[20,20],[21,20,5],[21,21],[20,20]]]],
+				  "type":"MultiPolygon"}}]
+				"""));
+
+		Polygon holed = polygons.get(0);
+		assertEquals(2.0, holed.getCenterLon(), 1e-9);
+		assertTrue(holed.getGeometry().contains(3, 3));
+		assertFalse(holed.getGeometry().contains(1.5, 1.5));
+		PolygonGeometry multi = polygons.get(1).getGeometry();
+		assertTrue(multi.contains(10.9, 10.5));
+		assertTrue(multi.contains(20.9, 20.5));
+		assertEquals(21.0, multi.maxLon(), 1e-9);
+		assertTrue(Double.isNaN(polygons.get(1).getCenterLat()));
+	}
+
+	@Test
+	void parsesCompletionContentAndUsage() throws IOException {
+		ChatCompletion completion = UpstreamJsonParser.parseCompletion(stream("""
+				{"id":"c1","object":"chat.completion",
+				 "choices":[{"index":0,"message":{"role":"assistant","content":"Полейте поле"},"finish_reason":"stop"}],
+				 "usage":{"prompt_tokens":120,"completion_tokens":8,"total_tokens":128}}
+				"""));
+
+		assertEquals("Полейте поле", completion.getContent());
+		assertEquals(120, completion.getPromptTokens());
+		assertEquals(8, completion.getCompletionTokens());
+	}
+
+	@Test
+	void parsesStreamDelta() throws IOException {
+		assertEquals(" поле", UpstreamJsonParser.parseStreamChunk(
+				"{\"id\":\"c1\",\"choices\":[{\"index\":0,\"delta\":{\"content\":\" поле\"},\"finish_reason\":null}]}").getContent());
+		assertNull(UpstreamJsonParser.parseStreamChunk(
+				"{\"id\":\"c1\",\"choices\":[{\"index\":0,\"delta\":{},\"finish_reason\":\"stop\"}]}").getContent());
+	}
+
+	@Test
+	void parsesUsageFromFinalStreamChunk() throws IOException {
+		ChatCompletion chunk = UpstreamJsonParser.parseStreamChunk(
+				"{\"id\":\"c1\",\"choices\":[],\"usage\":{\"prompt_tokens\":50,\"completion_tokens\":12,\"total_tokens\":62}}");
+
+		assertNull(chunk.getContent());
+		assertEquals(50, chunk.getPromptTokens());
+		assertEquals(12, chunk.getCompletionTokens());
+	}
+
+	@Test
+	void missingSoilFieldsRenderAsNoData() throws IOException {
+		assertTrue(Double.isNaN(UpstreamJsonParser.parseSoil(stream("{}")).getT0()));
+		assertEquals("нет данных", UpstreamJsonParser.parseSoil(stream("{}")).toPromptString());
+	}
+
+	private static InputStream stream(String json) {
+		return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+	}
+}
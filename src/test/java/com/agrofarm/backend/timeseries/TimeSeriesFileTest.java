@@ -0,0 +1,92 @@
+package com.agrofarm.backend.timeseries;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TimeSeriesFileTest {
+
+	private static final long DAY = 86_400;
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void appendsGrowsAndSurvivesReopen() throws IOException {
+		Path path = dir.resolve("p1.soil");
+		try (TimeSeriesFile series = TimeSeriesFile.open(path, 2)) {
+			for (int i = 0; i < 1000; i++) {
+				assertTrue(series.append(1000 + i, i, i * 2.0));
+			}
+			assertFalse(series.append(1500, 0, 0));
+		}
+
+		try (TimeSeriesFile series = TimeSeriesFile.open(path, 2)) {
+			assertEquals(1000, series.count());
+			assertEquals(1999, series.lastTimestamp());
+
+			List<Long> timestamps = new ArrayList<>();
+			series.forEach(1100, 1102, (ts, values) -> {
+				timestamps.add(ts);
+				assertEquals((ts - 1000) * 2.0, values[1], 1e-9);
+			});
+			assertEquals(List.of(1100L, 1101L, 1102L), timestamps);
+		}
+	}
+
+	@Test
+	void mergesOlderPointsInOrder() throws IOException {
+		Path path = dir.resolve("p1.weather");
+		try (TimeSeriesFile series = TimeSeriesFile.open(path, 1)) {
+			series.append(30, 3);
+			series.append(40, 4);
+
+			assertEquals(2, series.merge(Map.of(10L, new double[] {1}, 20L, new double[] {2}, 30L, new double[] {99})));
+			assertArrayEquals(new double[] {1, 2, 3, 4}, values(series));
+
+			// После подмены файла ряд продолжает писаться в новый
+			assertTrue(series.append(50, 5));
+		}
+
+		try (TimeSeriesFile series = TimeSeriesFile.open(path, 1)) {
+			assertArrayEquals(new double[] {1, 2, 3, 4, 5}, values(series));
+		}
+		assertFalse(Files.exists(dir.resolve("p1.weather.merge")));
+	}
+
+	private static double[] values(TimeSeriesFile series) {
+		List<Double> values = new ArrayList<>();
+		series.forEach(Long.MIN_VALUE, Long.MAX_VALUE, (ts, v) -> values.add(v[0]));
+		return values.stream().mapToDouble(Double::doubleValue).toArray();
+	}
+
+	@Test
+	void statsSkipNaNAndReportDailySlope() throws IOException {
+		try (TimeSeriesFile series = TimeSeriesFile.open(dir.resolve("p2.soil"), 1)) {
+			series.append(0, 0.30);
+			series.append(DAY, Double.NaN);
+			series.append(2 * DAY, 0.28);
+			series.append(4 * DAY, 0.24);
+
+			SeriesStats stats = series.stats(0, 0, 4 * DAY);
+
+			assertEquals(3, stats.count());
+			assertEquals(0.24, stats.min(), 1e-9);
+			assertEquals(0.30, stats.first(), 1e-9);
+			assertEquals(0.24, stats.last(), 1e-9);
+			assertEquals(-0.015, stats.slopePerDay(), 1e-9);
+			assertTrue(series.stats(0, 5 * DAY, 6 * DAY).isEmpty());
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package com.agrofarm.backend.upstream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class AdaptiveConcurrencyLimiterTest {
+
+	@Test
+	void rejectsAboveLimitAndGrowsOnFastCalls() {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 1, 10, 0.5, 1000);
+
+		assertTrue(limiter.tryAcquire());
+		assertTrue(limiter.tryAcquire());
+		assertFalse(limiter.tryAcquire());
+		assertEquals(1, limiter.rejected());
+
+		limiter.onSuccess(1_000_000);
+		assertEquals(3, limiter.limit());
+		assertEquals(1, limiter.inFlight());
+	}
+
+	@Test
+	void backsOffOnDropsAndSlowCallsDownToMinimum() {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(8, 2, 10, 0.5, 1000);
+
+		limiter.tryAcquire();
+		limiter.onDropped();
+		assertEquals(4, limiter.limit());
+
+		limiter.tryAcquire();
+		limiter.onSuccess(2_000_000_000L);
+		assertEquals(2, limiter.limit());
+
+		limiter.tryAcquire();
+		limiter.onDropped();
+		assertEquals(2, limiter.limit());
+		assertEquals(0, limiter.inFlight());
+	}
+}
@@ -0,0 +1,74 @@
+package com.agrofarm.backend.upstream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import org.junit.jupiter.api.Test;
+
+class CircuitBreakerTest {
+
+	@Test
+	void opensWhenFailureRateReachesThreshold() {
+		CircuitBreaker breaker = new CircuitBreaker(10, 4, 0.5, 60_000, 1);
+
+		for (int i = 0; i < 2; i++) {
+			breaker.onSuccess(acquire(breaker));
+		}
+		breaker.onFailure(acquire(breaker));
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+
+		breaker.onFailure(acquire(breaker));
+
+		assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+		assertEquals(CircuitBreaker.NO_PERMIT, breaker.tryAcquire());
+	}
+
+	@Test
+	void halfOpenProbeClosesOrReopens() throws InterruptedException {
+		CircuitBreaker breaker = new CircuitBreaker(4, 1, 0.5, 1, 1);
+		breaker.onFailure(acquire(breaker));
+		Thread.sleep(5);
+
+		long probe = acquire(breaker);
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+		assertEquals(CircuitBreaker.NO_PERMIT, breaker.tryAcquire());
+		breaker.onFailure(probe);
+		assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+
+		Thread.sleep(5);
+		breaker.onSuccess(acquire(breaker));
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+	}
+
+	// Пробы, завершившиеся после повторного OPEN, не занимают слоты и не закрывают следующий раунд
+	@Test
+	void ignoresProbesFromEarlierRound() throws InterruptedException {
+		CircuitBreaker breaker = new CircuitBreaker(4, 1, 0.5, 1, 3);
+		breaker.onFailure(acquire(breaker));
+		Thread.sleep(5);
+
+		long failed = acquire(breaker);
+		long stale1 = acquire(breaker);
+		long stale2 = acquire(breaker);
+		breaker.onFailure(failed);
+		assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+
+		Thread.sleep(5);
+		long probe = acquire(breaker);
+		breaker.onSuccess(stale1);
+		breaker.onIgnore(stale2);
+		breaker.onSuccess(probe);
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+
+		breaker.onSuccess(acquire(breaker));
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+		breaker.onSuccess(acquire(breaker));
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+	}
+
+	private static long acquire(CircuitBreaker breaker) {
+		long permit = breaker.tryAcquire();
+		assertNotEquals(CircuitBreaker.NO_PERMIT, permit);
+		return permit;
+	}
+}
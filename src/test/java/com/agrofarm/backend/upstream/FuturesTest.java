@@ -0,0 +1,67 @@
+package com.agrofarm.backend.upstream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Test;
+
+class FuturesTest {
+
+	@Test
+	void cancellingComposedResultCancelsBothStages() {
+		CompletableFuture<String> snapshot = new CompletableFuture<>();
+		CompletableFuture<String> completion = new CompletableFuture<>();
+
+		CompletableFuture<String> result = Futures.composeCancellable(snapshot, s -> completion);
+		snapshot.complete("soil");
+		result.cancel(true);
+
+		assertTrue(completion.isCancelled());
+
+		CompletableFuture<String> pending = new CompletableFuture<>();
+		Futures.composeCancellable(pending, s -> completion).cancel(true);
+		assertTrue(pending.isCancelled());
+	}
+
+	@Test
+	void handleSeesUnwrappedCauseAndPropagatesCancel() {
+		CompletableFuture<String> failed = CompletableFuture.supplyAsync(() -> {
+			throw new CompletionException(new IOException("503"));
+		});
+		CompletableFuture<String> mapped = Futures.handle(failed, (v, e) -> e.getClass().getSimpleName() + ":" + e.getMessage());
+		assertEquals("IOException:503", mapped.join());
+
+		CompletableFuture<String> source = new CompletableFuture<>();
+		Futures.handle(source, (v, e) -> v).cancel(true);
+		assertTrue(source.isCancelled());
+	}
+
+	// Второй этап идёт в executor, а не в потоке, завершившем первый; отмена доходит до второго этапа
+	@Test
+	void composeAsyncRunsNextOnExecutorAndPropagatesCancel() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "prompt-test"));
+		try {
+			CompletableFuture<String> snapshot = new CompletableFuture<>();
+			CompletableFuture<String> result = Futures.composeCancellableAsync(snapshot,
+					s -> CompletableFuture.completedFuture(s + "@" + Thread.currentThread().getName()), executor);
+			snapshot.complete("soil");
+			assertEquals("soil@prompt-test", result.join());
+
+			CompletableFuture<String> completion = new CompletableFuture<>();
+			CompletableFuture<String> pending = Futures.composeCancellableAsync(
+					CompletableFuture.completedFuture("soil"), s -> completion, executor);
+			// Исполнитель однопоточный: после пустой задачи второй этап уже запущен
+			executor.submit(() -> { }).get();
+			pending.cancel(true);
+			assertTrue(completion.isCancelled());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
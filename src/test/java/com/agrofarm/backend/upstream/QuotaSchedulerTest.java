@@ -0,0 +1,106 @@
+package com.agrofarm.backend.upstream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+
+class QuotaSchedulerTest {
+
+	// Запас в один токен уходит первому; дальше токены раздаются по приоритету, а не по порядку прихода
+	@Test
+	void grantsByPriorityWhenQuotaIsShort() {
+		try (QuotaScheduler quota = scheduler(600, new int[] {10, 10, 10}, new long[] {5000, 5000, 5000})) {
+			assertTrue(quota.acquire(Priority.BACKGROUND).isDone());
+
+			List<Priority> order = new CopyOnWriteArrayList<>();
+			CompletableFuture<?> all = CompletableFuture.allOf(
+					track(quota, Priority.BACKGROUND, order),
+					track(quota, Priority.BATCH, order),
+					track(quota, Priority.INTERACTIVE, order));
+			assertEquals(1, quota.queued(Priority.INTERACTIVE));
+
+			all.join();
+			assertEquals(List.of(Priority.INTERACTIVE, Priority.BATCH, Priority.BACKGROUND), order);
+			assertEquals(0, quota.queued(Priority.BACKGROUND));
+		}
+	}
+
+	@Test
+	void rejectsWhenQueueIsFullOrWaitTooLongAndDropsCancelled() {
+		try (QuotaScheduler quota = scheduler(60, new int[] {1, 10, 10}, new long[] {5000, 5000, 500})) {
+			assertTrue(quota.acquire(Priority.INTERACTIVE).isDone());
+			CompletableFuture<Void> queued = quota.acquire(Priority.INTERACTIVE);
+			assertFalse(queued.isDone());
+
+			// Очередь интерактивных полна
+			assertRejected(quota.acquire(Priority.INTERACTIVE));
+			// Следующий токен через секунду, фоновому запросу разрешено ждать полсекунды
+			assertRejected(quota.acquire(Priority.BACKGROUND));
+			assertEquals(1, quota.rejected(Priority.INTERACTIVE));
+			assertEquals(1, quota.rejected(Priority.BACKGROUND));
+
+			queued.cancel(true);
+			assertEquals(0, quota.queued(Priority.INTERACTIVE));
+		}
+	}
+
+	// 429 с Retry-After останавливает выдачу даже без квоты; заголовок — секунды или HTTP-дата
+	@Test
+	void pausesAfterRetryAfter() {
+		try (QuotaScheduler quota = scheduler(0, new int[] {10, 10, 10}, new long[] {5000, 5000, 5000})) {
+			assertTrue(quota.acquire(Priority.BATCH).isDone());
+
+			long start = System.nanoTime();
+			quota.onRateLimited(TimeUnit.MILLISECONDS.toNanos(300));
+			CompletableFuture<Void> paused = quota.acquire(Priority.INTERACTIVE);
+			assertFalse(paused.isDone());
+			paused.join();
+			assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(290));
+			assertEquals(1, quota.rateLimited());
+
+			assertEquals(TimeUnit.SECONDS.toNanos(7), quota.retryAfterNanos("7"));
+			assertEquals(TimeUnit.SECONDS.toNanos(20), quota.retryAfterNanos(null));
+			String inTenSeconds = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(10));
+			long nanos = quota.retryAfterNanos(inTenSeconds);
+			assertTrue(nanos > TimeUnit.SECONDS.toNanos(8) && nanos <= TimeUnit.SECONDS.toNanos(10), "nanos=" + nanos);
+		}
+	}
+
+	@Test
+	void retryKeepsCallTimeout() {
+		Call call = new OkHttpClient().newCall(new Request.Builder().url("http://localhost/").build());
+		call.timeout().timeout(1500, TimeUnit.MILLISECONDS);
+
+		Call retry = QuotaScheduler.retryOf(call);
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(1500), retry.timeout().timeoutNanos());
+		assertFalse(retry.isExecuted());
+	}
+
+	private static QuotaScheduler scheduler(double perMinute, int[] maxQueued, long[] maxWaitMs) {
+		return new QuotaScheduler("test", perMinute, 1, maxQueued, maxWaitMs, 20000, 1);
+	}
+
+	private static CompletableFuture<Void> track(QuotaScheduler quota, Priority priority, List<Priority> order) {
+		return quota.acquire(priority).thenRun(() -> order.add(priority));
+	}
+
+	private static void assertRejected(CompletableFuture<Void> future) {
+		assertTrue(future.isCompletedExceptionally());
+		assertInstanceOf(UpstreamUnavailableException.class, Futures.unwrap(future.handle((v, e) -> e).join()));
+	}
+}
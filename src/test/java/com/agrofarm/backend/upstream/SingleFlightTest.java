@@ -0,0 +1,54 @@
+package com.agrofarm.backend.upstream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class SingleFlightTest {
+
+	@Test
+	void concurrentCallersShareOneUpstreamCall() {
+		SingleFlight<String, String> flight = new SingleFlight<>();
+		CompletableFuture<String> upstream = new CompletableFuture<>();
+		AtomicInteger calls = new AtomicInteger();
+
+		CompletableFuture<String> first = flight.execute("p1", () -> {
+			calls.incrementAndGet();
+			return upstream;
+		});
+		CompletableFuture<String> second = flight.execute("p1", () -> {
+			calls.incrementAndGet();
+			return CompletableFuture.completedFuture("other");
+		});
+		upstream.complete("soil");
+
+		assertEquals("soil", first.join());
+		assertEquals("soil", second.join());
+		assertEquals(1, calls.get());
+		assertEquals(1, flight.coalescedCount());
+		assertEquals(0, flight.inFlightCount());
+	}
+
+	@Test
+	void upstreamIsCancelledOnlyWhenAllCallersCancel() {
+		SingleFlight<String, String> flight = new SingleFlight<>();
+		CompletableFuture<String> upstream = new CompletableFuture<>();
+
+		CompletableFuture<String> first = flight.execute("p1", () -> upstream);
+		CompletableFuture<String> second = flight.execute("p1", () -> upstream);
+
+		first.cancel(true);
+		assertFalse(upstream.isCancelled());
+
+		second.cancel(true);
+		assertTrue(upstream.isCancelled());
+
+		CompletableFuture<String> fresh = flight.execute("p1", () -> CompletableFuture.completedFuture("new"));
+		assertEquals("new", fresh.join());
+	}
+}